@@ -0,0 +1,97 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.tylersuehr.sql;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import static repositories.DatabaseContract.Users.*;
+
+/**
+ * Opens the databases used by the benchmarks, either in memory or in a temp file,
+ * so they run anywhere without any setup. The users table matches the example's,
+ * so its mappers can be measured as they are.
+ *
+ * @author Tyler Suehr
+ */
+final class BenchmarkDatabase {
+    private final SQLiteDatabase db;
+    private final File file;
+
+
+    /**
+     * @param storage "memory" for an in-memory database, "file" for a temp file
+     */
+    BenchmarkDatabase(String storage) throws IOException {
+        if ("memory".equals(storage)) {
+            this.file = null;
+            this.db = new SQLiteDatabase(":memory:");
+        } else {
+            this.file = File.createTempFile("sqlite-bench", ".db");
+            this.db = new SQLiteDatabase(file.getAbsolutePath());
+        }
+        this.db.execSql("CREATE TABLE [" + NAME + "]([" + COL_ID + "] TEXT PRIMARY KEY,[" +
+                COL_FIRST_NAME + "] TEXT NOT NULL,[" + COL_LAST_NAME + "] TEXT NOT NULL,[" +
+                COL_USERNAME + "] TEXT NOT NULL);");
+    }
+
+    SQLiteDatabase get() {
+        return db;
+    }
+
+    /**
+     * Deletes every row, so each iteration starts from an empty table.
+     */
+    void clear() {
+        this.db.delete(NAME, null);
+    }
+
+    void close() {
+        this.db.close();
+        if (file != null && !file.delete()) {
+            this.file.deleteOnExit();
+        }
+    }
+
+    /**
+     * Inserts the given number of users in one transaction.
+     */
+    void fill(int count) {
+        final List<ContentValues> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            rows.add(user(i));
+        }
+        this.db.insertAll(NAME, rows);
+    }
+
+    static ContentValues user(int id) {
+        return new ContentValues(4)
+                .put(COL_ID, String.valueOf(id))
+                .put(COL_FIRST_NAME, "First" + id)
+                .put(COL_LAST_NAME, "Last" + id)
+                .put(COL_USERNAME, "user" + id);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.tylersuehr.sql;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Runs the benchmarks and optionally compares them against a saved baseline.
+ *
+ * <pre>
+ *   BenchmarkRunner [-save file] [-baseline file] [-threshold percent] [regex...]
+ * </pre>
+ *
+ * (1) -save: writes each score to the given file, to be used as a later baseline.
+ * (2) -baseline: prints how each score changed against the given file, and exits
+ *     with status 1 if any got worse by more than the threshold (10% by default).
+ * (3) regex: only runs the benchmarks matching any of them (i.e. "InsertBenchmark").
+ *
+ * Every run uses the gc profiler, so allocation rates are reported alongside scores.
+ *
+ * @author Tyler Suehr
+ */
+public final class BenchmarkRunner {
+    private BenchmarkRunner() {}
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        String save = null;
+        String baseline = null;
+        double threshold = 10;
+        final List<String> includes = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-save":
+                    save = args[++i];
+                    break;
+                case "-baseline":
+                    baseline = args[++i];
+                    break;
+                case "-threshold":
+                    threshold = Double.parseDouble(args[++i]);
+                    break;
+                default:
+                    includes.add(args[i]);
+            }
+        }
+
+        final OptionsBuilder options = new OptionsBuilder();
+        options.addProfiler(GCProfiler.class);
+        if (includes.isEmpty()) {
+            options.include(BenchmarkRunner.class.getPackage().getName() + "\\..*Benchmark");
+        }
+        for (String include : includes) {
+            options.include(include);
+        }
+        final Collection<RunResult> results = new Runner(options.build()).run();
+
+        if (save != null) {
+            final Properties scores = new Properties();
+            for (RunResult result : results) {
+                scores.setProperty(keyOf(result.getParams()), String.valueOf(result.getPrimaryResult().getScore()));
+            }
+            try (OutputStream out = new FileOutputStream(save)) {
+                scores.store(out, "Benchmark scores");
+            }
+        }
+        if (baseline != null && compare(results, baseline, threshold) > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Prints how each score changed against the baseline.
+     * @return the number of scores that got worse by more than the threshold
+     */
+    private static int compare(Collection<RunResult> results, String baseline, double threshold) throws IOException {
+        final Properties scores = new Properties();
+        try (InputStream in = new FileInputStream(baseline)) {
+            scores.load(in);
+        }
+
+        int regressions = 0;
+        System.out.println();
+        System.out.println("Compared to " + baseline + ":");
+        for (RunResult result : results) {
+            final String key = keyOf(result.getParams());
+            final String saved = scores.getProperty(key);
+            if (saved == null) {
+                System.out.printf("  %-70s (new)%n", key);
+                continue;
+            }
+
+            final double before = Double.parseDouble(saved);
+            final double after = result.getPrimaryResult().getScore();
+            // Higher is better for throughput, lower is better for times
+            final boolean higherIsBetter = result.getParams().getMode() == Mode.Throughput;
+            final double change = (after - before) / before * 100;
+            final double worse = higherIsBetter ? -change : change;
+            final boolean regressed = worse > threshold;
+            if (regressed) {
+                regressions++;
+            }
+            System.out.printf("  %-70s %+7.1f%%%s%n", key, change, regressed ? "  REGRESSION" : "");
+        }
+        return regressions;
+    }
+
+    private static String keyOf(BenchmarkParams params) {
+        final StringBuilder sb = new StringBuilder(params.getBenchmark());
+        for (String param : params.getParamsKeys()) {
+            sb.append(':').append(param).append('=').append(params.getParam(param));
+        }
+        return sb.toString();
+    }
+}
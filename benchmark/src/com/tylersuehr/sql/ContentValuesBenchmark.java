@@ -0,0 +1,96 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.tylersuehr.sql;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building and iterating rows with {@link ContentValues} against reusing
+ * {@link RowValues}. Run with the gc profiler (the default in {@link BenchmarkRunner})
+ * to compare allocation rates.
+ *
+ * @author Tyler Suehr
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentValuesBenchmark {
+    private final RowSchema schema = new RowSchema("userId", "userFirstName", "userLastName", "userUsername", "age");
+    private final RowValues row = new RowValues(schema);
+    private final RowValues filled = new RowValues(schema);
+    private final ContentValues values = BenchmarkDatabase.user(12).put("age", 30);
+    private long id;
+
+
+    @Setup
+    public void fill() {
+        this.filled.put("userId", 12)
+                .put("userFirstName", "Tyler")
+                .put("userLastName", "Suehr")
+                .put("userUsername", "tyler")
+                .put("age", 30);
+    }
+
+    @Benchmark
+    public ContentValues putContentValues() {
+        return new ContentValues(5)
+                .put("userId", id++)
+                .put("userFirstName", "Tyler")
+                .put("userLastName", "Suehr")
+                .put("userUsername", "tyler")
+                .put("age", 30);
+    }
+
+    @Benchmark
+    public RowValues putRowValues() {
+        return row.clear()
+                .put("userId", id++)
+                .put("userFirstName", "Tyler")
+                .put("userLastName", "Suehr")
+                .put("userUsername", "tyler")
+                .put("age", 30);
+    }
+
+    @Benchmark
+    public void iterateContentValues(Blackhole bh) {
+        for (String key : values.getKeys()) {
+            bh.consume(values.get(key));
+        }
+    }
+
+    @Benchmark
+    public void iterateRowValues(Blackhole bh) {
+        for (int i = 0; i < filled.size(); i++) {
+            bh.consume(filled.getType(i));
+            bh.consume(filled.getLong(i));
+            bh.consume(filled.getReference(i));
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.tylersuehr.sql;
+import org.openjdk.jmh.annotations.*;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import static repositories.DatabaseContract.Users.NAME;
+
+/**
+ * Compares the ways of inserting many rows: one commit per row, one transaction
+ * around single inserts, and batched inserts using either strategy.
+ *
+ * Scores are per row inserted.
+ *
+ * @author Tyler Suehr
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InsertBenchmark {
+    private static final int ROWS = 1000;
+
+    @Param({ "memory", "file" })
+    public String storage;
+
+    private BenchmarkDatabase db;
+    private List<ContentValues> rows;
+
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        this.db = new BenchmarkDatabase(storage);
+        this.rows = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            this.rows.add(BenchmarkDatabase.user(i));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void clear() {
+        this.db.clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        this.db.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void singleInserts() {
+        final SQLiteDatabase sqlite = db.get();
+        for (ContentValues row : rows) {
+            sqlite.insert(NAME, row);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void transactionalInserts() {
+        final SQLiteDatabase sqlite = db.get();
+        sqlite.beginTransaction();
+        try {
+            for (ContentValues row : rows) {
+                sqlite.insert(NAME, row);
+            }
+            sqlite.setTransactionSuccessful();
+        } finally {
+            sqlite.endTransaction();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int[] batchedInserts() {
+        return db.get().insertAll(NAME, rows, 500, SQLiteDatabase.InsertStrategy.BATCH);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int[] multiRowInserts() {
+        return db.get().insertAll(NAME, rows, 500, SQLiteDatabase.InsertStrategy.MULTI_ROW);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.tylersuehr.sql;
+import mappers.UserMapper;
+import models.User;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import static repositories.DatabaseContract.Users.*;
+
+/**
+ * Measures querying and mapping rows through the example's {@link UserMapper}, both
+ * by primary key and as a full scan.
+ *
+ * Scan scores are per row mapped.
+ *
+ * @author Tyler Suehr
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+    private static final int ROWS = 10000;
+
+    @Param({ "memory", "file" })
+    public String storage;
+
+    private final UserMapper mapper = new UserMapper();
+    private final Object[] args = new Object[1];
+    private BenchmarkDatabase db;
+    private int next;
+
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        this.db = new BenchmarkDatabase(storage);
+        this.db.fill(ROWS);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        this.db.close();
+    }
+
+    @Benchmark
+    public List<User> queryById() {
+        this.args[0] = String.valueOf(next++ % ROWS);
+        return db.get().query(NAME, COL_ID + "=?", args, null, null, mapper);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public List<User> queryAll() {
+        return db.get().query(NAME, null, null, null, null, mapper);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void streamAll(Blackhole bh) {
+        db.get().stream(NAME, null, null, mapper).forEach(bh::consume);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.tylersuehr.sql;
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures acquiring and releasing a lease on a {@link SQLiteCloseable}, as every
+ * database call does, from one thread and from every available thread at once.
+ *
+ * The shared AtomicInteger the leases replaced is measured alongside, as a baseline:
+ * under contention its score should drop sharply, while the striped leases shouldn't.
+ *
+ * @author Tyler Suehr
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReferenceCountBenchmark {
+    private final Counted counted = new Counted();
+    private final AtomicInteger shared = new AtomicInteger(1);
+
+
+    @Setup
+    public void open() {
+        // Held for the whole trial, so the count never drops to zero
+        this.counted.acquireReference();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void uncontended() {
+        this.counted.acquireReference();
+        this.counted.releaseReference();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void contended() {
+        this.counted.acquireReference();
+        this.counted.releaseReference();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void uncontendedAtomic() {
+        this.shared.incrementAndGet();
+        this.shared.decrementAndGet();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void contendedAtomic() {
+        this.shared.incrementAndGet();
+        this.shared.decrementAndGet();
+    }
+
+    private static final class Counted extends SQLiteCloseable {
+        @Override
+        protected void onAllReferencesReleased() {}
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.tylersuehr.sql;
+import org.openjdk.jmh.annotations.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures generating SQL, comparing the template cache against building each
+ * statement from scratch.
+ *
+ * @author Tyler Suehr
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SQLBuilderBenchmark {
+    private final List<String> columns = Arrays.asList("userId", "userFirstName", "userLastName", "userUsername");
+    private final ContentValues values = BenchmarkDatabase.user(12);
+
+
+    @Benchmark
+    public String createQuery() {
+        return SQLBuilder.createQuery("users", "[userId]=?", "[userLastName] ASC", "10");
+    }
+
+    @Benchmark
+    public String buildQuery() {
+        return SQLBuilder.buildQuery("users", null, "[userId]=?", "[userLastName] ASC", "10");
+    }
+
+    @Benchmark
+    public String createInsertTemplate() {
+        return SQLBuilder.createInsertTemplate("users", columns);
+    }
+
+    @Benchmark
+    public String buildInsertTemplate() {
+        return SQLBuilder.buildInsert("users", columns, 1, null, null);
+    }
+
+    @Benchmark
+    public String buildMultiRowInsert() {
+        return SQLBuilder.buildInsert("users", columns, 100, null, null);
+    }
+
+    @Benchmark
+    public String createUpdateTemplate() {
+        return SQLBuilder.createUpdateTemplate("users", columns, "[userId]=?");
+    }
+
+    @Benchmark
+    public String createInlineInsert() {
+        return SQLBuilder.createInsert("users", values);
+    }
+}
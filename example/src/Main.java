@@ -28,6 +28,7 @@ import models.User;
 import repositories.DatabaseClient;
 import repositories.ListCallback;
 import repositories.users.IUserRepository;
+import repositories.users.UserRepository;
 
 /**
  * @author Tyler Suehr
@@ -35,6 +36,9 @@ import repositories.users.IUserRepository;
 public final class Main {
     public static void main(String[] args) throws Exception {
         final DatabaseClient client = Injector.client();
+        final UserRepository userRepo = Injector.provideUserRepo();
+        userRepo.enableWriteBehind(client, 100, 500, 10000);
+        userRepo.enableKeyFilter(client, 0.01);
 
         addUserToDatabase("David", "Clarke");
         addUserToDatabase("Boomhower", "Smith");
@@ -42,6 +46,7 @@ public final class Main {
         addUserToDatabase("Wanda", "Dempsey");
         loadAllUsers();
 
+        userRepo.close();
         client.close();
     }
 
@@ -24,12 +24,11 @@
 
 package mappers;
 import com.tylersuehr.sql.ContentValues;
-import java.sql.ResultSet;
+import com.tylersuehr.sql.RowMapper;
 
 /**
  * @author Tyler Suehr
  */
-public interface IEntityMapper<T> {
-    T map(ResultSet r);
+public interface IEntityMapper<T> extends RowMapper<T> {
     ContentValues map(T model);
 }
\ No newline at end of file
@@ -24,8 +24,7 @@
 
 package mappers;
 import com.tylersuehr.sql.ContentValues;
-import java.sql.ResultSet;
-import java.sql.SQLException;
+import com.tylersuehr.sql.Cursor;
 import models.User;
 import static repositories.DatabaseContract.Users.*;
 
@@ -33,19 +32,22 @@ import static repositories.DatabaseContract.Users.*;
  * @author Tyler Suehr
  */
 public class UserMapper implements IEntityMapper<User> {
+    private static final String[] COLUMNS = { COL_ID, COL_FIRST_NAME, COL_LAST_NAME, COL_USERNAME };
+
+
+    @Override
+    public String[] getColumns() {
+        return COLUMNS;
+    }
+
     @Override
-    public User map(ResultSet r) {
-        try {
-            User user = new User();
-            user.setId(r.getString(COL_ID));
-            user.setFirstName(r.getString(COL_FIRST_NAME));
-            user.setLastName(r.getString(COL_LAST_NAME));
-            user.setUsername(r.getString(COL_USERNAME));
-            return user;
-        } catch (SQLException ex) {
-            ex.printStackTrace();
-            return null;
-        }
+    public User map(Cursor c, int[] columns) {
+        User user = new User();
+        user.setId(c.getString(columns[0]));
+        user.setFirstName(c.getString(columns[1]));
+        user.setLastName(c.getString(columns[2]));
+        user.setUsername(c.getString(columns[3]));
+        return user;
     }
 
     @Override
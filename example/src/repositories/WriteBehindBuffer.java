@@ -0,0 +1,470 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package repositories;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Buffers writes to a repository and flushes them in batches, keeping only the
+ * latest write of each key.
+ *
+ * A key written many times between flushes costs one write when flushed: saving then
+ * updating flushes one save of the latest value, updating then removing flushes one
+ * removal, and saving then removing flushes nothing at all.
+ *
+ * A background thread flushes once the number of pending keys reaches the flush
+ * threshold, or once the flush interval has passed since the last flush. The number
+ * of pending keys is bounded: writing a new key while the backlog is full blocks
+ * until a flush makes room, while writes to already pending keys never block.
+ * Closing the buffer flushes everything still pending.
+ *
+ * If the flusher throws, its batch is put back, unless a key was written again in
+ * the meantime, and retried on the next flush. A failed background flush is logged
+ * and retried no sooner than the flush interval later, backing off twice as long
+ * after each further failure, up to 32 times the interval; {@link #flush()} and
+ * {@link #close()} throw instead. A flusher that writes in a
+ * transaction must throw if any of its statements failed, as
+ * {@link com.tylersuehr.sql.SQLiteDatabase#inTransaction} does, or those writes are
+ * lost.
+ *
+ * @author Tyler Suehr
+ */
+public final class WriteBehindBuffer<K, V> implements Closeable {
+    private static final Logger LOG = Logger.getLogger("com.tylersuehr.sql");
+    /* Caps the background retry delay at 2^5 flush intervals */
+    private static final int MAX_BACKOFF_SHIFT = 5;
+    private final Flusher<K, V> flusher;
+    private final int flushThreshold;
+    private final int maxBacklog;
+    private final long flushIntervalNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition flushNeeded = lock.newCondition();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Thread writer;
+
+    /* Guarded by lock */
+    private Map<K, Write<K, V>> pending = new LinkedHashMap<>();
+    private Map<K, Write<K, V>> flushing = Collections.emptyMap();
+    private boolean running = true;
+
+    /* Metrics */
+    private final AtomicLong writeCount = new AtomicLong();
+    private final AtomicLong flushedCount = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong failedFlushCount = new AtomicLong();
+
+
+    /**
+     * @param flusher writes each batch, typically in one transaction
+     * @param flushThreshold the number of pending keys that triggers a flush
+     * @param flushIntervalMillis the longest time between flushes
+     * @param maxBacklog the most pending keys before writes block
+     */
+    public WriteBehindBuffer(Flusher<K, V> flusher, int flushThreshold, long flushIntervalMillis, int maxBacklog) {
+        if (flushThreshold < 1) {
+            throw new IllegalArgumentException("Flush threshold must be at least 1!");
+        }
+        if (maxBacklog < flushThreshold) {
+            throw new IllegalArgumentException("Backlog cannot be smaller than the flush threshold!");
+        }
+        if (flushIntervalMillis < 1) {
+            throw new IllegalArgumentException("Flush interval must be at least 1ms!");
+        }
+        this.flusher = flusher;
+        this.flushThreshold = flushThreshold;
+        this.maxBacklog = maxBacklog;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.writer = new Thread(this::run, "SQLite-WriteBehind");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Stops accepting writes and flushes everything still pending. Closing again
+     * retries writes a failed close left pending.
+     * @throws IllegalStateException if the final flush failed; its writes stay pending
+     */
+    @Override
+    public void close() {
+        final boolean wasRunning;
+        this.lock.lock();
+        try {
+            wasRunning = running;
+            this.running = false;
+            this.flushNeeded.signal();
+            this.notFull.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+        if (wasRunning) {
+            try {
+                this.writer.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    public void save(K key, V value) {
+        enqueue(Op.SAVE, key, value);
+    }
+
+    public void update(K key, V value) {
+        enqueue(Op.UPDATE, key, value);
+    }
+
+    /**
+     * @param value the removed value, handed to the flusher
+     */
+    public void remove(K key, V value) {
+        enqueue(Op.REMOVE, key, value);
+    }
+
+    /**
+     * Gets the pending write of the given key, so reads can see writes that haven't
+     * been committed yet; this includes writes being flushed right now.
+     *
+     * @return the pending write, or null if none
+     */
+    public Write<K, V> getPending(K key) {
+        this.lock.lock();
+        try {
+            return getMerged(key);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets every pending write, including writes being flushed, oldest first.
+     * @return a copy of the pending writes
+     */
+    public List<Write<K, V>> getPending() {
+        this.lock.lock();
+        try {
+            final List<Write<K, V>> writes = new ArrayList<>(flushing.size() + pending.size());
+            for (K key : flushing.keySet()) {
+                writes.add(getMerged(key));
+            }
+            for (Write<K, V> write : pending.values()) {
+                if (!flushing.containsKey(write.key)) {
+                    writes.add(write);
+                }
+            }
+            return writes;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Writes everything pending now, on the calling thread.
+     * @throws IllegalStateException if the flusher failed; its writes were put back
+     */
+    public void flush() {
+        final RuntimeException failure = tryFlush();
+        if (failure != null) {
+            throw new IllegalStateException("Could not flush pending writes, they were put back!", failure);
+        }
+    }
+
+    /**
+     * Writes everything pending now, putting the batch back if the flusher fails.
+     * @return the failure, or null if flushed
+     */
+    private RuntimeException tryFlush() {
+        this.flushLock.lock();
+        try {
+            final Map<K, Write<K, V>> batch;
+            this.lock.lock();
+            try {
+                if (pending.isEmpty()) {
+                    return null;
+                }
+                batch = pending;
+                this.flushing = batch;
+                this.pending = new LinkedHashMap<>();
+                this.notFull.signalAll();
+            } finally {
+                this.lock.unlock();
+            }
+
+            final List<Write<K, V>> writes = new ArrayList<>(batch.values());
+            try {
+                this.flusher.flush(writes);
+                this.flushCount.incrementAndGet();
+                this.flushedCount.addAndGet(writes.size());
+                finishFlush();
+                return null;
+            } catch (RuntimeException ex) {
+                this.failedFlushCount.incrementAndGet();
+                requeue(batch);
+                return ex;
+            }
+        } finally {
+            this.flushLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of keys waiting to be flushed.
+     * @return the backlog
+     */
+    public int getPendingCount() {
+        this.lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of writes made to this buffer.
+     * @return the write count
+     */
+    public long getWriteCount() {
+        return writeCount.get();
+    }
+
+    /**
+     * Gets the number of coalesced writes flushed; compared with
+     * {@link #getWriteCount()}, this shows how many writes were saved.
+     * @return the flushed write count
+     */
+    public long getFlushedCount() {
+        return flushedCount.get();
+    }
+
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    public long getFailedFlushCount() {
+        return failedFlushCount.get();
+    }
+
+    private void enqueue(Op op, K key, V value) {
+        this.lock.lock();
+        try {
+            while (running && pending.size() >= maxBacklog && !pending.containsKey(key)) {
+                this.flushNeeded.signal();
+                this.notFull.await();
+            }
+            if (!running) {
+                throw new IllegalStateException("Write-behind buffer is closed!");
+            }
+
+            final Write<K, V> merged = merge(pending.get(key), op, key, value);
+            if (merged == null) {
+                this.pending.remove(key);
+            } else {
+                this.pending.put(key, merged);
+            }
+            this.writeCount.incrementAndGet();
+            if (pending.size() >= flushThreshold) {
+                this.flushNeeded.signal();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for write-behind backlog!", ex);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the net effect of the writes of the given key being flushed and pending.
+     * Must hold lock.
+     */
+    private Write<K, V> getMerged(K key) {
+        final Write<K, V> earlier = flushing.get(key);
+        final Write<K, V> later = pending.get(key);
+        if (earlier == null || later == null) {
+            return (later != null) ? later : earlier;
+        }
+        final Write<K, V> merged = combine(earlier, later);
+        return (merged != null) ? merged : later;
+    }
+
+    private void finishFlush() {
+        this.lock.lock();
+        try {
+            this.flushing = Collections.emptyMap();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Puts a failed batch back, merging in keys written again since.
+     */
+    private void requeue(Map<K, Write<K, V>> batch) {
+        this.lock.lock();
+        try {
+            this.flushing = Collections.emptyMap();
+            for (Map.Entry<K, Write<K, V>> entry : pending.entrySet()) {
+                final Write<K, V> earlier = batch.remove(entry.getKey());
+                final Write<K, V> merged = (earlier == null) ? entry.getValue() : combine(earlier, entry.getValue());
+                if (merged != null) {
+                    batch.put(entry.getKey(), merged);
+                }
+            }
+            this.pending = batch;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void run() {
+        long lastFlush = System.nanoTime();
+        int failures = 0;
+        while (true) {
+            this.lock.lock();
+            try {
+                // After a failure, the failed batch alone may reach the threshold
+                final long wait = (failures == 0) ? flushIntervalNanos : backoff(failures);
+                long remaining = wait - (System.nanoTime() - lastFlush);
+                while (running && (failures > 0 || pending.size() < flushThreshold) && remaining > 0) {
+                    remaining = flushNeeded.awaitNanos(remaining);
+                }
+                if (!running) {
+                    return;
+                }
+            } catch (InterruptedException ex) {
+                return;
+            } finally {
+                this.lock.unlock();
+            }
+            final RuntimeException failure = tryFlush();
+            if (failure != null) {
+                failures++;
+                LOG.log(Level.WARNING, "SQLite > Write-behind flush failed, retrying later: "
+                        + failure.getMessage(), failure);
+            } else {
+                failures = 0;
+            }
+            lastFlush = System.nanoTime();
+        }
+    }
+
+    /**
+     * @return how long to wait before retrying after the given number of failed flushes
+     */
+    private long backoff(int failures) {
+        final int shift = Math.min(failures - 1, MAX_BACKOFF_SHIFT);
+        return (flushIntervalNanos > (Long.MAX_VALUE >> shift)) ? Long.MAX_VALUE : flushIntervalNanos << shift;
+    }
+
+    /**
+     * Merges a new write into the pending write of the same key.
+     * @return the merged write, or null if the two cancel out
+     */
+    private static <K, V> Write<K, V> merge(Write<K, V> earlier, Op op, K key, V value) {
+        final Write<K, V> later = new Write<>(op, key, value);
+        return (earlier == null) ? later : combine(earlier, later);
+    }
+
+    private static <K, V> Write<K, V> combine(Write<K, V> earlier, Write<K, V> later) {
+        switch (later.op) {
+            case REMOVE:
+                // Removing a row that was never flushed leaves nothing to write
+                return (earlier.op == Op.SAVE) ? null : later;
+            case SAVE:
+                // Saving over a removal must replace the row that is still stored
+                return (earlier.op == Op.REMOVE || earlier.op == Op.REPLACE)
+                        ? new Write<>(Op.REPLACE, later.key, later.value)
+                        : new Write<>(earlier.op, later.key, later.value);
+            default:
+                // Updating a removed row does nothing; otherwise keep the first op
+                return (earlier.op == Op.REMOVE) ? earlier : new Write<>(earlier.op, later.key, later.value);
+        }
+    }
+
+
+    /**
+     * Kinds of pending write.
+     */
+    public enum Op {
+        SAVE,
+        UPDATE,
+        REMOVE,
+        /* Remove, then save again */
+        REPLACE
+    }
+
+
+    /**
+     * Writes a batch of coalesced writes.
+     */
+    public interface Flusher<K, V> {
+        void flush(List<Write<K, V>> writes);
+    }
+
+
+    /**
+     * Immutable pending write of one key.
+     */
+    public static final class Write<K, V> {
+        private final Op op;
+        private final K key;
+        private final V value;
+
+
+        Write(Op op, K key, V value) {
+            this.op = op;
+            this.key = key;
+            this.value = value;
+        }
+
+        public Op getOp() {
+            return op;
+        }
+
+        public K getKey() {
+            return key;
+        }
+
+        /**
+         * @return the written value, or the removed one for removals
+         */
+        public V getValue() {
+            return value;
+        }
+    }
+}
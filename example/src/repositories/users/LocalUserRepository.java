@@ -24,9 +24,6 @@
 
 package repositories.users;
 import com.tylersuehr.sql.SQLiteDatabase;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.util.ArrayList;
 import java.util.List;
 import mappers.IEntityMapper;
 import models.User;
@@ -55,58 +52,41 @@ public class LocalUserRepository implements IUserRepository {
 
     @Override
     public void updateUser(User user) {
-        String where = COL_ID + "='" + user.getId() + "'";
-        this.db.update(NAME, mapper.map(user), where);
+        String where = COL_ID + "=?";
+        this.db.update(NAME, mapper.map(user), where, new Object[] { user.getId() });
     }
 
     @Override
     public void removeUser(User user) {
-        String where = COL_ID + "='" + user.getId() + "'";
-        this.db.delete(NAME, where);
+        String where = COL_ID + "=?";
+        this.db.delete(NAME, where, new Object[] { user.getId() });
     }
 
     @Override
     public void findUserById(String userId, SingleCallback<User> callback) {
-        ResultSet r = null;
         try {
-            String where = COL_ID + "='" + userId + "'";
-            r = db.query(NAME, where, null, null);
-            if (r == null) {
-                throw new NullPointerException("ResultSet was null!");
+            String where = COL_ID + "=?";
+            List<User> users = db.query(NAME, where, new Object[] { userId }, null, "1", mapper);
+            if (users == null) {
+                throw new NullPointerException("Users list was null!");
             }
-            r.first();
-
-            User user = mapper.map(r);
-            if (user == null) {
-                throw new NullPointerException("User was null!");
+            if (users.isEmpty()) {
+                throw new IllegalStateException("User not found!");
             }
-            callback.onAvailable(user);
+            callback.onAvailable(users.get(0));
         } catch (Exception ex) {
             ex.printStackTrace();
             callback.onNotAvailable(ex);
-        } finally {
-            try {
-                if (r != null) { r.close(); }
-            } catch (SQLException ex) {
-                ex.printStackTrace();
-            }
         }
     }
 
     @Override
     public void findAllUsers(ListCallback<User> callback) {
-        ResultSet r = null;
         try {
-            r = db.query(NAME, null, null, null);
-            if (r == null) {
-                throw new NullPointerException("ResultSet was null!");
+            List<User> users = db.query(NAME, null, null, null, null, mapper);
+            if (users == null) {
+                throw new NullPointerException("Users list was null!");
             }
-
-            List<User> users = new ArrayList<>();
-            while (r.next()) {
-                users.add(mapper.map(r));
-            }
-
             if (users.isEmpty()) {
                 throw new IllegalStateException("Users list is empty!");
             }
@@ -114,12 +94,6 @@ public class LocalUserRepository implements IUserRepository {
         } catch (Exception ex) {
             ex.printStackTrace();
             callback.onNotAvailable(ex);
-        } finally {
-            try {
-                if (r != null) { r.close(); }
-            } catch (SQLException ex) {
-                ex.printStackTrace();
-            }
         }
     }
 }
\ No newline at end of file
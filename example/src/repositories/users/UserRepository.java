@@ -23,26 +23,60 @@
  */
 
 package repositories.users;
+import com.tylersuehr.sql.BoundedCache;
+import com.tylersuehr.sql.CacheStats;
+import com.tylersuehr.sql.KeyFilter;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import models.User;
+import repositories.DatabaseContract;
+import repositories.IDatabaseClient;
 import repositories.ListCallback;
 import repositories.SingleCallback;
+import repositories.WriteBehindBuffer;
 
 /**
+ * Caches users found by the local repository.
+ *
+ * Users are cached by id in a {@link BoundedCache}, so memory stays bounded however
+ * many users are looked up; entries expire after a while and hot ones are reloaded in
+ * the background before that. The list of all users is cached as one read-only
+ * snapshot, dropped whenever a user is written, unless it holds more users than the
+ * cache does.
+ *
+ * Writes go straight through to the local repository unless write-behind is enabled
+ * with {@link #enableWriteBehind(IDatabaseClient, int, long, int)}; then they are
+ * applied to the cache at once and written to the database later, in batches. Reads
+ * see pending writes, and {@link #close()} flushes them.
+ *
+ * With {@link #enableKeyFilter(IDatabaseClient, double)}, ids that are definitely not
+ * stored are answered from a {@link KeyFilter} without querying the database.
+ *
  * @author Tyler Suehr
  */
-public final class UserRepository implements IUserRepository {
+public final class UserRepository implements IUserRepository, Closeable {
+    private static final int MAX_CACHED_USERS = 10000;
+    /* Shared by misses answered from the key filter, which are expected to be frequent */
+    private static final Exception NOT_FOUND = new IllegalStateException("User not found!");
     private static volatile UserRepository instance;
     private final IUserRepository local;
-    private Map<String, User> cache;
-    private boolean invalidCache = false;
+    private final BoundedCache<String, User> cache;
+    private volatile List<User> allUsers;
+    private volatile WriteBehindBuffer<String, User> writeBehind;
+    private volatile KeyFilter keyFilter;
+    private long version;
 
 
     private UserRepository(IUserRepository local) {
         this.local = local;
+        this.cache = new BoundedCache<String, User>(MAX_CACHED_USERS)
+                .setExpireAfterWrite(10, TimeUnit.MINUTES)
+                .setRefreshAfterWrite(1, TimeUnit.MINUTES);
     }
 
     public static synchronized UserRepository getInstance(IUserRepository local) {
@@ -52,43 +86,139 @@ public final class UserRepository implements IUserRepository {
         return instance;
     }
 
+    /**
+     * Enables write-behind: writes are coalesced per user and flushed in one
+     * transaction once enough users are pending or the interval has passed.
+     *
+     * @param client the database client of the local repository
+     * @param flushThreshold the number of pending users that triggers a flush
+     * @param flushIntervalMillis the longest time between flushes
+     * @param maxBacklog the most pending users before writes block
+     */
+    public synchronized void enableWriteBehind(IDatabaseClient client, int flushThreshold,
+                                               long flushIntervalMillis, int maxBacklog) {
+        if (writeBehind != null) {
+            throw new IllegalStateException("Write-behind is already enabled!");
+        }
+        this.writeBehind = new WriteBehindBuffer<>(
+                writes -> client.getDb().inTransaction(db -> writeAll(writes)),
+                flushThreshold, flushIntervalMillis, maxBacklog);
+    }
+
+    /**
+     * Enables the key filter: a Bloom filter of stored ids, built by scanning the users
+     * table, which lets lookups of missing ids skip the database.
+     *
+     * @param client the database client of the local repository
+     * @param falsePositiveRate the share of missing ids that still query the database
+     * @return the key filter, to tune its rebuilds and watch its counters
+     */
+    public synchronized KeyFilter enableKeyFilter(IDatabaseClient client, double falsePositiveRate) {
+        if (keyFilter != null) {
+            throw new IllegalStateException("Key filter is already enabled!");
+        }
+        this.keyFilter = client.getDb().createKeyFilter(
+                DatabaseContract.Users.NAME, DatabaseContract.Users.COL_ID, falsePositiveRate);
+        return keyFilter;
+    }
+
+    /**
+     * Flushes pending writes, if write-behind is enabled.
+     */
+    public void flush() {
+        final WriteBehindBuffer<String, User> buffer = writeBehind;
+        if (buffer != null) {
+            buffer.flush();
+        }
+    }
+
+    /**
+     * Flushes pending writes and turns write-behind off.
+     * @throws IllegalStateException if the flush failed; write-behind then stays on with
+     *         the writes still pending, and closing again retries them
+     */
+    @Override
+    public synchronized void close() {
+        if (writeBehind != null) {
+            this.writeBehind.close();
+            this.writeBehind = null;
+        }
+    }
+
     @Override
     public void saveUser(User user) {
-        this.local.saveUser(user);
-        refreshCache(user);
+        // The key filter learns the id once the row commits; until a write-behind flush
+        // does, lookups find the pending write before asking the filter
+        final WriteBehindBuffer<String, User> buffer = writeBehind;
+        if (buffer != null) {
+            buffer.save(user.getId(), user);
+        } else {
+            this.local.saveUser(user);
+        }
+        invalidateAll();
+        this.cache.put(user.getId(), user);
     }
 
     @Override
     public void updateUser(User user) {
-        this.local.updateUser(user);
-        refreshCache(user);
+        final WriteBehindBuffer<String, User> buffer = writeBehind;
+        if (buffer != null) {
+            buffer.update(user.getId(), user);
+        } else {
+            this.local.updateUser(user);
+        }
+        invalidateAll();
+        this.cache.put(user.getId(), user);
     }
 
     @Override
     public void removeUser(User user) {
-        this.local.removeUser(user);
-        if (cache != null) {
-            this.cache.remove(user.getId());
+        final WriteBehindBuffer<String, User> buffer = writeBehind;
+        if (buffer != null) {
+            buffer.remove(user.getId(), user);
+        } else {
+            this.local.removeUser(user);
+        }
+        invalidateAll();
+        this.cache.remove(user.getId());
+        final KeyFilter filter = keyFilter;
+        if (filter != null) {
+            filter.remove(user.getId());
         }
     }
 
     @Override
     public void findUserById(String userId, SingleCallback<User> callback) {
+        // Find in pending writes or cache first, else in the database and then add to cache
+        final Exception[] error = new Exception[1];
+        final User found = cache.get(userId, id -> loadUser(id, error));
+        if (found != null) {
+            callback.onAvailable(found);
+        } else {
+            callback.onNotAvailable(error[0]);
+        }
+    }
+
+    @Override
+    public void findAllUsers(ListCallback<User> callback) {
         // Attempt to find in cache first
-        if (isCacheValid()) {
-            User found = cache.get(userId);
-            if (found != null) {
-                callback.onAvailable(found);
-                return;
-            }
+        final List<User> cached = allUsers;
+        if (cached != null) {
+            callback.onAvailable(cached);
+            return;
         }
 
-        // Find in the database and then add to cache
-        this.local.findUserById(userId, new SingleCallback<User>() {
+        // Find in the database, apply pending writes and then add to cache
+        final long loadedVersion = getVersion();
+        final WriteBehindBuffer<String, User> buffer = writeBehind;
+        final List<WriteBehindBuffer.Write<String, User>> pending =
+                (buffer != null) ? buffer.getPending() : Collections.emptyList();
+        this.local.findAllUsers(new ListCallback<User>() {
             @Override
-            public void onAvailable(User value) {
-                refreshCache(value);
-                callback.onAvailable(value);
+            public void onAvailable(List<User> values) {
+                final List<User> snapshot = Collections.unmodifiableList(applyPending(values, pending));
+                publishAll(snapshot, loadedVersion);
+                callback.onAvailable(snapshot);
             }
 
             @Override
@@ -98,52 +228,116 @@ public final class UserRepository implements IUserRepository {
         });
     }
 
-    @Override
-    public void findAllUsers(ListCallback<User> callback) {
-        // Attempt to find in cache first
-        if (isCacheValid()) {
-            callback.onAvailable(new LinkedList<>(cache.values()));
-            return;
+    public CacheStats getCacheStats() {
+        return cache.getStats();
+    }
+
+    /**
+     * Loads a user from pending writes, else from the local repository, which reports
+     * synchronously, unless the key filter rules the user out.
+     *
+     * @param error receives the reason the user wasn't found
+     * @return the user, or null if not found
+     */
+    private User loadUser(String userId, Exception[] error) {
+        final WriteBehindBuffer<String, User> buffer = writeBehind;
+        final WriteBehindBuffer.Write<String, User> write = (buffer != null) ? buffer.getPending(userId) : null;
+        if (write != null) {
+            if (write.getOp() == WriteBehindBuffer.Op.REMOVE) {
+                error[0] = NOT_FOUND;
+                return null;
+            }
+            return write.getValue();
         }
 
-        // Find in the database and then add to cache
-        this.local.findAllUsers(new ListCallback<User>() {
+        final KeyFilter filter = keyFilter;
+        if (filter != null && !filter.mightContain(userId)) {
+            error[0] = NOT_FOUND;
+            return null;
+        }
+
+        final User[] found = new User[1];
+        this.local.findUserById(userId, new SingleCallback<User>() {
             @Override
-            public void onAvailable(List<User> values) {
-                refreshCache(values);
-                callback.onAvailable(values);
+            public void onAvailable(User value) {
+                found[0] = value;
             }
 
             @Override
             public void onNotAvailable(Exception ex) {
-                callback.onNotAvailable(ex);
+                error[0] = ex;
             }
         });
+        if (found[0] == null && filter != null) {
+            filter.recordFalsePositive();
+        }
+        return found[0];
     }
 
-    private void refreshCache(User user) {
-        if (cache == null) {
-            this.cache = new LinkedHashMap<>();
-        }
-        if (invalidCache) {
-            this.cache.clear();
+    /**
+     * Writes a flushed batch to the local repository; runs inside the flush's transaction.
+     */
+    private void writeAll(List<WriteBehindBuffer.Write<String, User>> writes) {
+        for (WriteBehindBuffer.Write<String, User> write : writes) {
+            switch (write.getOp()) {
+                case SAVE:
+                    this.local.saveUser(write.getValue());
+                    break;
+                case UPDATE:
+                    this.local.updateUser(write.getValue());
+                    break;
+                case REMOVE:
+                    this.local.removeUser(write.getValue());
+                    break;
+                case REPLACE:
+                    this.local.removeUser(write.getValue());
+                    this.local.saveUser(write.getValue());
+                    break;
+            }
         }
-        this.cache.put(user.getId(), user);
     }
 
-    private void refreshCache(List<User> users) {
-        if (cache == null) {
-            this.cache = new LinkedHashMap<>();
-        }
-        if (invalidCache) {
-            this.cache.clear();
+    /**
+     * Applies pending writes, which may or may not have been flushed yet, to users
+     * loaded from the database.
+     */
+    private static List<User> applyPending(List<User> users, List<WriteBehindBuffer.Write<String, User>> pending) {
+        if (pending.isEmpty()) {
+            return users;
         }
+        final Map<String, User> byId = new LinkedHashMap<>();
         for (User user : users) {
-            this.cache.put(user.getId(), user);
+            byId.put(user.getId(), user);
+        }
+        for (WriteBehindBuffer.Write<String, User> write : pending) {
+            if (write.getOp() == WriteBehindBuffer.Op.REMOVE) {
+                byId.remove(write.getKey());
+            } else {
+                byId.put(write.getKey(), write.getValue());
+            }
+        }
+        return new ArrayList<>(byId.values());
+    }
+
+    private synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Caches the list of all users, unless a user was written since it was loaded or
+     * it's too large to keep.
+     */
+    private synchronized void publishAll(List<User> users, long loadedVersion) {
+        if (version == loadedVersion && users.size() <= MAX_CACHED_USERS) {
+            this.allUsers = users;
+            for (User user : users) {
+                this.cache.put(user.getId(), user);
+            }
         }
     }
 
-    private boolean isCacheValid() {
-        return !(invalidCache || cache == null || cache.isEmpty());
+    private synchronized void invalidateAll() {
+        this.version++;
+        this.allUsers = null;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,175 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tylersuehr.sql;
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Asynchronous facade over a {@link SQLiteDatabase}.
+ *
+ * Every call runs on an executor and returns a {@link CompletableFuture}, so the caller
+ * never parks on disk I/O and independent queries can be fanned out concurrently.
+ *
+ * By default work runs on virtual threads when the JVM supports them (Java 21+), or on
+ * a cached thread pool otherwise. The number of calls running against the database at
+ * once is bounded to one per connection; the rest wait for a permit.
+ *
+ * Create one using {@link SQLiteDatabase#createAsync()}.
+ *
+ * @author Tyler Suehr
+ */
+public final class AsyncSQLiteDatabase implements Closeable {
+    private final SQLiteDatabase db;
+    private final Executor executor;
+    /* Stores the executor to shut down on close, null if supplied by the caller */
+    private final ExecutorService ownedExecutor;
+    private final Semaphore permits;
+
+
+    AsyncSQLiteDatabase(SQLiteDatabase db, Executor executor) {
+        this.db = db;
+        if (executor == null) {
+            this.ownedExecutor = newDefaultExecutor();
+            this.executor = ownedExecutor;
+        } else {
+            this.ownedExecutor = null;
+            this.executor = executor;
+        }
+        this.permits = new Semaphore(db.getConnectionCount());
+    }
+
+    /**
+     * Shuts down the default executor, if one was created. Already submitted work still runs.
+     */
+    @Override
+    public void close() {
+        if (ownedExecutor != null) {
+            this.ownedExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Runs the given work against the database on the executor.
+     *
+     * @param work the database work to run
+     * @param <T> the type of result
+     * @return completes with the result of the work
+     */
+    public <T> CompletableFuture<T> submit(Function<SQLiteDatabase, T> work) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                this.permits.acquire();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(ex);
+            }
+            try {
+                return work.apply(db);
+            } finally {
+                this.permits.release();
+            }
+        }, executor);
+    }
+
+    /**
+     * Inserts a row. Completes exceptionally if the insert failed.
+     * @see SQLiteDatabase#insert(String, ContentValues)
+     */
+    public CompletableFuture<Void> insert(String table, ContentValues values) {
+        return write(db -> db.insert(table, values));
+    }
+
+    /**
+     * Updates rows. Completes exceptionally if the update failed.
+     * @see SQLiteDatabase#update(String, ContentValues, String, Object[])
+     */
+    public CompletableFuture<Void> update(String table, ContentValues values, String selection, Object[] selectionArgs) {
+        return write(db -> db.update(table, values, selection, selectionArgs));
+    }
+
+    /**
+     * Deletes rows. Completes exceptionally if the delete failed.
+     * @see SQLiteDatabase#delete(String, String, Object[])
+     */
+    public CompletableFuture<Void> delete(String table, String selection, Object[] selectionArgs) {
+        return write(db -> db.delete(table, selection, selectionArgs));
+    }
+
+    /**
+     * Queries data from the database and maps every row to an object.
+     * Completes exceptionally if the query failed.
+     *
+     * @see SQLiteDatabase#query(String, String, Object[], String, String, RowMapper)
+     */
+    public <T> CompletableFuture<List<T>> query(String table, String selection, Object[] selectionArgs,
+                                                String order, String limit, RowMapper<T> mapper) {
+        return submit(db -> {
+            final List<T> rows = db.query(table, selection, selectionArgs, order, limit, mapper);
+            if (rows == null) {
+                throw new IllegalStateException("Query failed!");
+            }
+            return rows;
+        });
+    }
+
+    /**
+     * Runs a write in its own transaction, which throws if the write failed, since the
+     * database only logs a failed write.
+     */
+    private CompletableFuture<Void> write(Consumer<SQLiteDatabase> work) {
+        return submit(db -> {
+            db.inTransaction(work);
+            return null;
+        });
+    }
+
+    /**
+     * Creates a virtual thread per task executor if the JVM supports it, otherwise a
+     * cached pool of daemon threads.
+     *
+     * @return the executor
+     */
+    private static ExecutorService newDefaultExecutor() {
+        try {
+            return (ExecutorService)Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return Executors.newCachedThreadPool(r -> {
+                final Thread thread = new Thread(r, "SQLite-Async");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
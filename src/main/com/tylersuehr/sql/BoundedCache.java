@@ -0,0 +1,597 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.tylersuehr.sql;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Thread-safe cache bounded by the total weight of its entries, for keeping hot rows
+ * (or anything else) in memory above the database.
+ *
+ * Reads are a single {@link ConcurrentHashMap} lookup. The eviction order is kept in
+ * linked lists guarded by a lock that reads only try to take: when it's contended the
+ * access is simply not recorded, so readers never wait on each other or on writers.
+ *
+ * Two eviction policies are supported:
+ * (1) {@link EvictionPolicy#LRU} evicts the least recently used entry.
+ * (2) {@link EvictionPolicy#TINY_LFU}, the default, keeps new entries in a small LRU
+ *     window; entries leaving the window are only admitted into the main area if they
+ *     have been used more often than the entry they would displace, according to a
+ *     {@link FrequencySketch}. This stops one-off scans from flushing out hot entries.
+ *
+ * Entries can expire a fixed time after they were written, either cache-wide with
+ * {@link #setExpireAfterWrite(long, TimeUnit)} or per entry with
+ * {@link #put(Object, Object, long, TimeUnit)}; expired entries are dropped when they
+ * are next read or evicted, or by {@link #cleanUp()}. With
+ * {@link #setRefreshAfterWrite(long, TimeUnit)}, {@link #get(Object, Function)} serves
+ * entries older than the refresh time as they are and reloads them in the background
+ * (stale-while-revalidate), so a hot entry never makes its readers wait on a load.
+ *
+ * Configure the cache before it is first used.
+ *
+ * @author Tyler Suehr
+ */
+public final class BoundedCache<K, V> {
+    /* Share of the maximum weight given to the admission window */
+    private static final int WINDOW_PERCENT = 1;
+
+    private final ConcurrentHashMap<K, Node<K, V>> data = new ConcurrentHashMap<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final AccessOrder<K, V> window = new AccessOrder<>();
+    private final AccessOrder<K, V> main = new AccessOrder<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final long maxWeight;
+
+    /* Guarded by evictionLock */
+    private FrequencySketch sketch;
+    private long windowMax;
+    private long windowWeight;
+    private long mainWeight;
+
+    private volatile Weigher<? super K, ? super V> weigher = (key, value) -> 1;
+    private volatile Executor refreshExecutor = ForkJoinPool.commonPool();
+    private volatile long expireAfterWriteNanos;
+    private volatile long refreshAfterWriteNanos;
+
+
+    /**
+     * Constructs a cache holding at most the given weight of entries; unless a
+     * {@link Weigher} is set, every entry weighs 1, so this is the maximum size.
+     *
+     * @param maxWeight the maximum total weight
+     */
+    public BoundedCache(long maxWeight) {
+        if (maxWeight < 1) {
+            throw new IllegalArgumentException("Max weight must be at least 1!");
+        }
+        this.maxWeight = maxWeight;
+        setEvictionPolicy(EvictionPolicy.TINY_LFU);
+    }
+
+    public BoundedCache<K, V> setEvictionPolicy(EvictionPolicy policy) {
+        this.evictionLock.lock();
+        try {
+            if (policy == EvictionPolicy.TINY_LFU) {
+                this.windowMax = Math.max(1, maxWeight * WINDOW_PERCENT / 100);
+                this.sketch = new FrequencySketch(maxWeight);
+            } else {
+                this.windowMax = maxWeight;
+                this.sketch = null;
+            }
+        } finally {
+            this.evictionLock.unlock();
+        }
+        return this;
+    }
+
+    public BoundedCache<K, V> setWeigher(Weigher<? super K, ? super V> weigher) {
+        if (weigher == null) {
+            throw new IllegalArgumentException("Weigher cannot be null!");
+        }
+        this.weigher = weigher;
+        return this;
+    }
+
+    /**
+     * Sets how long entries live after being written; 0 means forever, the default.
+     */
+    public BoundedCache<K, V> setExpireAfterWrite(long duration, TimeUnit unit) {
+        this.expireAfterWriteNanos = unit.toNanos(duration);
+        return this;
+    }
+
+    /**
+     * Sets how old entries can get before {@link #get(Object, Function)} reloads them
+     * in the background; 0 disables refreshing, the default.
+     */
+    public BoundedCache<K, V> setRefreshAfterWrite(long duration, TimeUnit unit) {
+        this.refreshAfterWriteNanos = unit.toNanos(duration);
+        return this;
+    }
+
+    /**
+     * Sets the executor that runs background refreshes; the common fork-join pool
+     * by default.
+     */
+    public BoundedCache<K, V> setRefreshExecutor(Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor cannot be null!");
+        }
+        this.refreshExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Gets the cached value of the given key.
+     * @return the value, or null if not cached or expired
+     */
+    public V get(K key) {
+        final Node<K, V> node = data.get(key);
+        if (node == null || node.isLoading()) {
+            this.misses.increment();
+            return null;
+        }
+        if (node.isExpired(System.nanoTime())) {
+            removeNode(node);
+            this.misses.increment();
+            return null;
+        }
+        this.hits.increment();
+        afterRead(node);
+        return node.value;
+    }
+
+    /**
+     * Gets the cached value of the given key, loading and caching it if absent. If
+     * the entry is older than the refresh time, it is returned as is and reloaded in
+     * the background.
+     *
+     * Concurrent misses on the same key may each call the loader, but only the first
+     * caches its value. A put or remove of the key made while loading wins over the
+     * loaded value, which may have been read before it.
+     *
+     * @param loader loads the value, or returns null if there is none
+     * @return the value, or null if the loader found none
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        final Node<K, V> node = data.get(key);
+        final long now = System.nanoTime();
+        if (node != null && !node.isLoading() && !node.isExpired(now)) {
+            this.hits.increment();
+            afterRead(node);
+            if (refreshAfterWriteNanos > 0 && now - node.writeNanos >= refreshAfterWriteNanos) {
+                refresh(node, loader);
+            }
+            return node.value;
+        }
+        this.misses.increment();
+
+        // Hold the key with a placeholder while loading; a put or remove replaces it
+        final Node<K, V> loading = new Node<>(key, null, 0, now, 0);
+        final boolean owner;
+        if (node == null) {
+            owner = (data.putIfAbsent(key, loading) == null);
+        } else if (node.isLoading()) {
+            owner = false;
+        } else {
+            owner = data.replace(key, node, loading);
+            if (owner) {
+                unlinkLocked(node);
+            }
+        }
+
+        final V value;
+        try {
+            value = loader.apply(key);
+        } catch (RuntimeException ex) {
+            if (owner) {
+                this.data.remove(key, loading);
+            }
+            throw ex;
+        }
+        if (owner) {
+            if (value == null) {
+                this.data.remove(key, loading);
+            } else {
+                final Node<K, V> loaded = newNode(key, value, expireAfterWriteNanos, System.nanoTime());
+                if (data.replace(key, loading, loaded)) {
+                    link(loaded, null);
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Caches the value of the given key, replacing any previous value.
+     */
+    public void put(K key, V value) {
+        final long ttl = expireAfterWriteNanos;
+        putNode(key, value, ttl, System.nanoTime());
+    }
+
+    /**
+     * Caches the value of the given key, expiring it after the given time regardless
+     * of the cache's own expiry.
+     */
+    public void put(K key, V value, long duration, TimeUnit unit) {
+        if (duration <= 0) {
+            throw new IllegalArgumentException("Duration must be positive!");
+        }
+        putNode(key, value, unit.toNanos(duration), System.nanoTime());
+    }
+
+    public void remove(K key) {
+        final Node<K, V> node = data.remove(key);
+        if (node != null) {
+            unlinkLocked(node);
+        }
+    }
+
+    /**
+     * Removes every entry.
+     */
+    public void clear() {
+        this.evictionLock.lock();
+        try {
+            for (Node<K, V> node : data.values()) {
+                unlink(node);
+            }
+            this.data.clear();
+        } finally {
+            this.evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Removes every expired entry. Expired entries are otherwise only removed when
+     * read or evicted, which is enough to bound memory, but lets them linger.
+     */
+    public void cleanUp() {
+        final long now = System.nanoTime();
+        for (Node<K, V> node : data.values()) {
+            if (node.isExpired(now)) {
+                removeNode(node);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of cached entries, which may include expired and loading ones.
+     */
+    public int size() {
+        return data.size();
+    }
+
+    /**
+     * Gets the total weight of the cached entries.
+     */
+    public long weight() {
+        this.evictionLock.lock();
+        try {
+            return windowWeight + mainWeight;
+        } finally {
+            this.evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Gets a snapshot of this cache's counters; expired entries count as misses.
+     */
+    public CacheStats getStats() {
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(),
+                data.size(), (int)Math.min(Integer.MAX_VALUE, maxWeight));
+    }
+
+    private void putNode(K key, V value, long ttl, long now) {
+        final Node<K, V> node = newNode(key, value, ttl, now);
+        link(node, data.put(key, node));
+    }
+
+    private Node<K, V> newNode(K key, V value, long ttl, long now) {
+        if (key == null || value == null) {
+            throw new IllegalArgumentException("Key and value cannot be null!");
+        }
+        final int weight = weigher.weigh(key, value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("Weight cannot be negative!");
+        }
+        return new Node<>(key, value, weight, now, (ttl > 0) ? now + ttl : 0);
+    }
+
+    /**
+     * Links a node just mapped to its key into the eviction order, unlinking the node
+     * it replaced, if any.
+     */
+    private void link(Node<K, V> node, Node<K, V> old) {
+        this.evictionLock.lock();
+        try {
+            if (old != null) {
+                unlink(old);
+            }
+            // A concurrent put may already have replaced this node
+            if (!node.removed) {
+                if (sketch != null) {
+                    this.sketch.increment(node.key);
+                }
+                this.window.addFirst(node);
+                this.windowWeight += node.weight;
+                evict();
+            }
+        } finally {
+            this.evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Records an access to the given node, if the lock isn't contended.
+     */
+    private void afterRead(Node<K, V> node) {
+        if (evictionLock.tryLock()) {
+            try {
+                if (!node.removed) {
+                    if (sketch != null) {
+                        this.sketch.increment(node.key);
+                    }
+                    if (node.inMain) {
+                        this.main.moveToFirst(node);
+                    } else {
+                        this.window.moveToFirst(node);
+                    }
+                }
+            } finally {
+                this.evictionLock.unlock();
+            }
+        }
+    }
+
+    private void refresh(Node<K, V> node, Function<? super K, ? extends V> loader) {
+        if (!node.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            this.refreshExecutor.execute(() -> {
+                try {
+                    final V value = loader.apply(node.key);
+                    // Only replaces the node refreshed, never a put made meanwhile
+                    if (value == null) {
+                        removeNode(node);
+                    } else {
+                        final Node<K, V> loaded = newNode(node.key, value, expireAfterWriteNanos, System.nanoTime());
+                        if (data.replace(node.key, node, loaded)) {
+                            link(loaded, node);
+                        }
+                    }
+                } catch (RuntimeException ex) {
+                    SQLiteDatabase.logException(ex);
+                } finally {
+                    node.refreshing.set(false);
+                }
+            });
+        } catch (RuntimeException ex) {
+            node.refreshing.set(false);
+            SQLiteDatabase.logException(ex);
+        }
+    }
+
+    /**
+     * Removes the given node if it is still the one mapped to its key.
+     */
+    private void removeNode(Node<K, V> node) {
+        if (data.remove(node.key, node)) {
+            unlinkLocked(node);
+        }
+    }
+
+    private void unlinkLocked(Node<K, V> node) {
+        this.evictionLock.lock();
+        try {
+            unlink(node);
+        } finally {
+            this.evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Evicts entries until the cache is within its maximum weight.
+     * Must hold evictionLock.
+     */
+    private void evict() {
+        while (windowWeight > windowMax && window.last != null && sketch != null) {
+            final Node<K, V> candidate = window.last;
+            this.window.unlink(candidate);
+            this.windowWeight -= candidate.weight;
+            admit(candidate);
+        }
+        while (windowWeight + mainWeight > maxWeight) {
+            final Node<K, V> victim = (main.last != null) ? main.last : window.last;
+            if (victim == null) {
+                break;
+            }
+            evictNode(victim);
+        }
+    }
+
+    /**
+     * Moves a node leaving the window into the main area, if it is used more often
+     * than the entries it would displace. Must hold evictionLock.
+     */
+    private void admit(Node<K, V> candidate) {
+        final int candidateFrequency = sketch.frequency(candidate.key);
+        while (windowWeight + mainWeight + candidate.weight > maxWeight && main.last != null) {
+            final Node<K, V> victim = main.last;
+            if (candidateFrequency > sketch.frequency(victim.key) || victim.isExpired(System.nanoTime())) {
+                evictNode(victim);
+            } else {
+                evictNode(candidate);
+                return;
+            }
+        }
+        candidate.inMain = true;
+        this.main.addFirst(candidate);
+        this.mainWeight += candidate.weight;
+    }
+
+    /**
+     * Must hold evictionLock.
+     */
+    private void evictNode(Node<K, V> node) {
+        unlink(node);
+        if (data.remove(node.key, node)) {
+            this.evictions.increment();
+        }
+    }
+
+    /**
+     * Unlinks the node from its list and marks it removed, so a concurrent put won't
+     * link it afterwards. Must hold evictionLock.
+     */
+    private void unlink(Node<K, V> node) {
+        if (node.removed) {
+            return;
+        }
+        node.removed = true;
+        if (node.inMain) {
+            if (main.unlink(node)) {
+                this.mainWeight -= node.weight;
+            }
+        } else if (window.unlink(node)) {
+            this.windowWeight -= node.weight;
+        }
+    }
+
+
+    /**
+     * Strategies for choosing which entry to evict.
+     */
+    public enum EvictionPolicy {
+        LRU,
+        TINY_LFU
+    }
+
+
+    /**
+     * Computes the weight of a cache entry, such as its approximate size in bytes.
+     */
+    @FunctionalInterface
+    public interface Weigher<K, V> {
+        int weigh(K key, V value);
+    }
+
+
+    /**
+     * A cached entry and its links in the eviction order, or a placeholder held while
+     * its value is loading.
+     */
+    private static final class Node<K, V> {
+        final K key;
+        final V value;
+        final int weight;
+        final long writeNanos;
+        final long expiresAtNanos;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        /* Guarded by evictionLock */
+        Node<K, V> prev;
+        Node<K, V> next;
+        boolean linked;
+        boolean inMain;
+        boolean removed;
+
+
+        Node(K key, V value, int weight, long writeNanos, long expiresAtNanos) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.writeNanos = writeNanos;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+
+        boolean isLoading() {
+            return value == null;
+        }
+
+        boolean isExpired(long now) {
+            return expiresAtNanos != 0 && now - expiresAtNanos >= 0;
+        }
+    }
+
+
+    /**
+     * Doubly-linked list of nodes, most recently used first.
+     */
+    private static final class AccessOrder<K, V> {
+        Node<K, V> first;
+        Node<K, V> last;
+
+
+        void addFirst(Node<K, V> node) {
+            node.prev = null;
+            node.next = first;
+            if (first != null) {
+                this.first.prev = node;
+            } else {
+                this.last = node;
+            }
+            this.first = node;
+            node.linked = true;
+        }
+
+        boolean unlink(Node<K, V> node) {
+            if (!node.linked) {
+                return false;
+            }
+            if (node.prev != null) {
+                node.prev.next = node.next;
+            } else {
+                this.first = node.next;
+            }
+            if (node.next != null) {
+                node.next.prev = node.prev;
+            } else {
+                this.last = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            node.linked = false;
+            return true;
+        }
+
+        void moveToFirst(Node<K, V> node) {
+            if (first != node && unlink(node)) {
+                addFirst(node);
+            }
+        }
+    }
+}
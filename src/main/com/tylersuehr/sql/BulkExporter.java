@@ -0,0 +1,314 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.tylersuehr.sql;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streams tables or query results out as CSV or NDJSON.
+ *
+ * Rows are pulled from a forward-only cursor and encoded straight into one reusable
+ * buffer, which is written to the channel whenever it fills up. Nothing is kept per
+ * row, so memory use stays bounded by the buffer size however large the result is.
+ *
+ * Each value is written by the storage class SQLite holds it in, whatever its column's
+ * declared type: integers and reals as numbers, text as escaped strings and blobs as
+ * base64. In CSV, NULL is written as an empty field, which {@link BulkImporter} reads
+ * back as NULL; in NDJSON, it's written as null. Blobs don't survive a round trip:
+ * {@link BulkImporter} imports the base64 as text, not as the original bytes.
+ *
+ * <pre>
+ *   try (FileChannel out = FileChannel.open(path, CREATE, WRITE)) {
+ *       db.createBulkExporter(TextFormat.NDJSON).exportTable("users", out);
+ *   }
+ * </pre>
+ *
+ * Create one using {@link SQLiteDatabase#createBulkExporter(TextFormat)}.
+ *
+ * @author Tyler Suehr
+ */
+public final class BulkExporter {
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+
+    private final SQLiteDatabase db;
+    private final TextFormat format;
+    private char delimiter = ',';
+    private boolean header = true;
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+
+    BulkExporter(SQLiteDatabase db, TextFormat format) {
+        this.db = db;
+        this.format = format;
+    }
+
+    public BulkExporter setDelimiter(char delimiter) {
+        this.delimiter = delimiter;
+        return this;
+    }
+
+    /**
+     * Sets whether a CSV header with the column names is written; when exporting to
+     * several files, it's repeated at the top of each one.
+     */
+    public BulkExporter setHeader(boolean header) {
+        this.header = header;
+        return this;
+    }
+
+    /**
+     * Sets the size of the buffer rows are encoded into.
+     * @param bufferSize the buffer size in bytes
+     */
+    public BulkExporter setBufferSize(int bufferSize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Buffer size must be at least 1!");
+        }
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    /**
+     * Exports every row of the given table.
+     *
+     * @param table the name of the table
+     * @param out the channel to write to
+     * @return the number of rows written, or -1 if the query failed
+     * @throws IOException if the channel could not be written
+     */
+    public long exportTable(String table, WritableByteChannel out) throws IOException {
+        return exportTo(SQLBuilder.createQuery(table, null, null, null), null, out);
+    }
+
+    /**
+     * Exports every row of the given query.
+     *
+     * @param sql the SELECT statement
+     * @param selectionArgs the values bound to each '?' in the statement
+     * @param out the stream to write to; it is not closed
+     * @return the number of rows written, or -1 if the query failed
+     * @throws IOException if the stream could not be written
+     */
+    public long exportTo(String sql, Object[] selectionArgs, OutputStream out) throws IOException {
+        return exportTo(sql, selectionArgs, Channels.newChannel(out));
+    }
+
+    /**
+     * Exports every row of the given query.
+     *
+     * @param sql the SELECT statement
+     * @param selectionArgs the values bound to each '?' in the statement
+     * @param out the channel to write to; it is not closed
+     * @return the number of rows written, or -1 if the query failed
+     * @throws IOException if the channel could not be written
+     */
+    public long exportTo(String sql, Object[] selectionArgs, WritableByteChannel out) throws IOException {
+        try (Cursor c = db.openCursor(sql, selectionArgs)) {
+            return (c != null) ? exportTo(c, out) : -1;
+        }
+    }
+
+    /**
+     * Exports the remaining rows of the given cursor. The cursor is not closed.
+     *
+     * @param c the cursor to read from
+     * @param out the channel to write to; it is not closed
+     * @return the number of rows written
+     * @throws IOException if the channel could not be written
+     */
+    public long exportTo(Cursor c, WritableByteChannel out) throws IOException {
+        final TextWriter writer = new TextWriter(out, bufferSize);
+        final byte[][] keys = encodeKeys(c);
+        writeHeader(c, writer);
+
+        long rows = 0;
+        while (c.moveToNext()) {
+            writeRecord(c, writer, keys);
+            rows++;
+        }
+        writer.flush();
+        return rows;
+    }
+
+    /**
+     * Exports every row of the given query into a series of files, each holding at
+     * most about the given number of bytes. Files are only split between records, and
+     * are named with the prefix, a sequence number and the format's extension
+     * (i.e. "users-0001.csv").
+     *
+     * @param sql the SELECT statement
+     * @param selectionArgs the values bound to each '?' in the statement
+     * @param dir the directory to write the files to
+     * @param prefix the prefix of each file name
+     * @param maxBytesPerFile the size at which a new file is started
+     * @return the files written, in order, or null if the query failed
+     * @throws IOException if a file could not be written
+     */
+    public List<Path> exportChunked(String sql, Object[] selectionArgs, Path dir, String prefix,
+                                    long maxBytesPerFile) throws IOException {
+        if (maxBytesPerFile < 1) {
+            throw new IllegalArgumentException("Max bytes per file must be at least 1!");
+        }
+        try (Cursor c = db.openCursor(sql, selectionArgs)) {
+            if (c == null) {
+                return null;
+            }
+
+            final List<Path> files = new ArrayList<>();
+            final byte[][] keys = encodeKeys(c);
+            FileChannel channel = openFile(dir, prefix, files);
+            try {
+                final TextWriter writer = new TextWriter(channel, bufferSize);
+                writeHeader(c, writer);
+                while (c.moveToNext()) {
+                    if (writer.getBytesWritten() >= maxBytesPerFile) {
+                        writer.flush();
+                        channel.close();
+                        channel = openFile(dir, prefix, files);
+                        writer.setChannel(channel);
+                        writeHeader(c, writer);
+                    }
+                    writeRecord(c, writer, keys);
+                }
+                writer.flush();
+            } finally {
+                channel.close();
+            }
+            return files;
+        }
+    }
+
+    private FileChannel openFile(Path dir, String prefix, List<Path> files) throws IOException {
+        final String extension = (format == TextFormat.CSV) ? ".csv" : ".ndjson";
+        final Path file = dir.resolve(String.format("%s-%04d%s", prefix, files.size() + 1, extension));
+        files.add(file);
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private void writeHeader(Cursor c, TextWriter writer) throws IOException {
+        if (format != TextFormat.CSV || !header) {
+            return;
+        }
+        final int count = c.getColumnCount();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                writer.writeByte(delimiter);
+            }
+            writer.writeCsv(c.getColumnName(i), delimiter);
+        }
+        writer.writeByte('\n');
+    }
+
+    /**
+     * Encodes each column's NDJSON key (i.e. {"id": or ,"name":) once per export.
+     */
+    private byte[][] encodeKeys(Cursor c) throws IOException {
+        if (format != TextFormat.NDJSON) {
+            return null;
+        }
+        final int count = c.getColumnCount();
+        final byte[][] keys = new byte[count][];
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final TextWriter writer = new TextWriter(Channels.newChannel(bytes), 256);
+        for (int i = 0; i < count; i++) {
+            writer.writeByte(i == 0 ? '{' : ',');
+            writer.writeJson(c.getColumnName(i));
+            writer.writeByte(':');
+            writer.flush();
+            keys[i] = bytes.toByteArray();
+            bytes.reset();
+        }
+        return keys;
+    }
+
+    private void writeRecord(Cursor c, TextWriter writer, byte[][] keys) throws IOException {
+        final int count = c.getColumnCount();
+        if (format == TextFormat.CSV) {
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    writer.writeByte(delimiter);
+                }
+                writeValue(c, i, writer, true);
+            }
+        } else {
+            if (count == 0) {
+                writer.writeByte('{');
+            }
+            for (int i = 0; i < count; i++) {
+                writer.writeBytes(keys[i]);
+                writeValue(c, i, writer, false);
+            }
+            writer.writeByte('}');
+        }
+        writer.writeByte('\n');
+    }
+
+    private void writeValue(Cursor c, int column, TextWriter writer, boolean csv) throws IOException {
+        final Object value = c.getValue(column);
+        if (value instanceof Long) {
+            writer.writeLong((Long)value);
+        } else if (value instanceof Double) {
+            final double d = (Double)value;
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                writeNull(writer, csv);
+            } else {
+                writer.writeDouble(d);
+            }
+        } else if (value instanceof byte[]) {
+            if (!csv) {
+                writer.writeByte('"');
+            }
+            writer.writeBase64((byte[])value);
+            if (!csv) {
+                writer.writeByte('"');
+            }
+        } else if (value != null) {
+            if (csv) {
+                writer.writeCsv(value.toString(), delimiter);
+            } else {
+                writer.writeJson(value.toString());
+            }
+        } else {
+            writeNull(writer, csv);
+        }
+    }
+
+    private void writeNull(TextWriter writer, boolean csv) throws IOException {
+        if (!csv) {
+            writer.writeBytes(NULL);
+        }
+    }
+}
@@ -0,0 +1,500 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tylersuehr.sql;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Streams CSV or NDJSON input into a table.
+ *
+ * Input is read through NIO in large chunks, which are split on record boundaries and
+ * parsed in parallel on a fork-join pool. The parsed rows are then written, in input
+ * order, by the calling thread inside a single transaction using batched inserts. Only a
+ * bounded number of chunks are in flight at once, so memory use doesn't grow with the
+ * size of the input.
+ *
+ * Optionally, the table's secondary indexes can be dropped before the load and rebuilt
+ * after it, and each chunk can be sorted by its primary key before it's written; both
+ * make writing into a large table considerably faster.
+ *
+ * For CSV input, the first record must be a header with the column names. Every value
+ * is imported as text, which SQLite converts according to the column's affinity; so
+ * blobs exported by {@link BulkExporter} as base64 are imported as base64 text.
+ *
+ * <pre>
+ *   BulkImporter.Stats stats = db.createBulkImporter("users", TextFormat.CSV)
+ *           .setRebuildIndexes(true)
+ *           .setProgressListener(s -&gt; System.out.println(s))
+ *           .importFrom(Paths.get("users.csv"));
+ * </pre>
+ *
+ * Create one using {@link SQLiteDatabase#createBulkImporter(String, TextFormat)}.
+ *
+ * @author Tyler Suehr
+ */
+public final class BulkImporter {
+    private static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /**
+     * Receives progress of an import, after each chunk is written.
+     */
+    public interface ProgressListener {
+        void onProgress(Stats stats);
+    }
+
+    private final SQLiteDatabase db;
+    private final String table;
+    private final TextFormat format;
+    private char delimiter = ',';
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private SQLiteDatabase.InsertStrategy strategy = SQLiteDatabase.InsertStrategy.BATCH;
+    private boolean rebuildIndexes;
+    private String sortColumn;
+    private ProgressListener listener;
+
+
+    BulkImporter(SQLiteDatabase db, String table, TextFormat format) {
+        this.db = db;
+        this.table = table;
+        this.format = format;
+    }
+
+    public BulkImporter setDelimiter(char delimiter) {
+        this.delimiter = delimiter;
+        return this;
+    }
+
+    /**
+     * Sets how many bytes are read and parsed as one chunk.
+     * @param chunkSize the chunk size in bytes
+     */
+    public BulkImporter setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be at least 1!");
+        }
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    public BulkImporter setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1!");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public BulkImporter setInsertStrategy(SQLiteDatabase.InsertStrategy strategy) {
+        this.strategy = strategy;
+        return this;
+    }
+
+    /**
+     * Sets how many chunks are parsed at once.
+     * @param parallelism the number of parser threads
+     */
+    public BulkImporter setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1!");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Sets whether the table's secondary indexes are dropped before the load and rebuilt
+     * after it, which is much faster than updating them row by row.
+     */
+    public BulkImporter setRebuildIndexes(boolean rebuildIndexes) {
+        this.rebuildIndexes = rebuildIndexes;
+        return this;
+    }
+
+    /**
+     * Sets the primary key column to sort each chunk by before it's written, so rows
+     * are appended to the table's B-tree in order. Sorting is done per chunk, to keep
+     * memory use bounded.
+     *
+     * @param sortColumn the column to sort by, null to keep input order
+     */
+    public BulkImporter setSortColumn(String sortColumn) {
+        this.sortColumn = sortColumn;
+        return this;
+    }
+
+    public BulkImporter setProgressListener(ProgressListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Imports every record of the given file.
+     *
+     * @param file the file to import
+     * @return the final stats of the import
+     * @throws IOException if the file could not be read
+     */
+    public Stats importFrom(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return importFrom(channel, channel.size());
+        }
+    }
+
+    /**
+     * Imports every record of the given channel.
+     *
+     * A row that can't be parsed or breaks a constraint is skipped and counted in
+     * {@link Stats#getRowsFailed()}; every other row is kept. When a batch fails, it's
+     * rolled back and its rows, along with the rest of the chunk, are retried one at a
+     * time, so only the offending rows are skipped.
+     *
+     * The import runs in a single transaction: if it fails part-way (i.e. the input
+     * can't be read, or a dropped index can't be rebuilt over the new rows), nothing is
+     * kept and the dropped indexes are restored.
+     *
+     * @param channel the channel to read from
+     * @param totalBytes the total size of the input if known, otherwise -1
+     * @return the final stats of the import
+     * @throws IOException if the channel could not be read
+     * @throws IllegalStateException if the import was rolled back
+     */
+    public Stats importFrom(ReadableByteChannel channel, long totalBytes) throws IOException {
+        final long startNanos = System.nanoTime();
+        final Progress progress = new Progress(totalBytes);
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        final Deque<ForkJoinTask<Parsed>> pending = new ArrayDeque<>();
+
+        boolean kept = false;
+        this.db.beginTransaction();
+        try {
+            final List<String> indexes = rebuildIndexes ? dropIndexes() : null;
+
+            ByteBuffer buffer = ByteBuffer.allocate(chunkSize);
+            String[] header = null;
+            boolean eof = false;
+            while (!eof) {
+                eof = fill(channel, buffer);
+                int split = eof ? buffer.position()
+                        : TextRecords.findSplit(buffer.array(), buffer.position(), format == TextFormat.CSV);
+                if (split == 0) {
+                    // A single record is larger than the buffer, so grow it
+                    buffer = grow(buffer);
+                    continue;
+                }
+
+                String text = new String(buffer.array(), 0, split, StandardCharsets.UTF_8);
+                buffer.limit(buffer.position()).position(split);
+                buffer.compact();
+
+                if (format == TextFormat.CSV && header == null) {
+                    final int end = headerEnd(text);
+                    header = readHeader(text.substring(0, end));
+                    text = text.substring(end);
+                }
+
+                final String chunk = text;
+                final String[] columns = header;
+                final long chunkBytes = split;
+                pending.add(pool.submit(() -> parse(chunk, columns, chunkBytes)));
+                if (pending.size() >= parallelism * 2) {
+                    write(pending.poll().join(), progress, startNanos);
+                }
+            }
+            while (!pending.isEmpty()) {
+                write(pending.poll().join(), progress, startNanos);
+            }
+
+            if (indexes != null) {
+                for (String sql : indexes) {
+                    this.db.execSql(sql);
+                }
+            }
+            this.db.setTransactionSuccessful();
+        } finally {
+            pool.shutdownNow();
+            kept = db.finishTransaction();
+        }
+        if (!kept) {
+            throw new IllegalStateException("Import into '" + table + "' failed, nothing was kept!");
+        }
+        return progress.snapshot(startNanos);
+    }
+
+    private Parsed parse(String text, String[] header, long bytes) {
+        final Parsed parsed = new Parsed(bytes);
+        if (format == TextFormat.NDJSON) {
+            parsed.rejected = TextRecords.parseNdjson(text, parsed.rows);
+        } else {
+            for (String[] fields : TextRecords.parseCsv(text, delimiter)) {
+                if (fields.length != header.length) {
+                    parsed.rejected++;
+                    continue;
+                }
+                final ContentValues values = new ContentValues(header.length * 2);
+                for (int i = 0; i < header.length; i++) {
+                    values.put(header[i], fields[i]);
+                }
+                parsed.rows.add(values);
+            }
+        }
+        if (sortColumn != null) {
+            parsed.rows.sort((a, b) -> compareKeys(a.get(sortColumn), b.get(sortColumn)));
+        }
+        return parsed;
+    }
+
+    private void write(Parsed parsed, Progress progress, long startNanos) {
+        final int[] results = db.insertAll(table, parsed.rows, batchSize, strategy);
+        for (int i = 0; i < results.length; i++) {
+            // A failed batch was rolled back, so retry its rows alone to skip only bad ones
+            if (results[i] == Statement.EXECUTE_FAILED) {
+                results[i] = db.insertAll(table, Collections.singletonList(parsed.rows.get(i)), 1, strategy)[0];
+            }
+            if (results[i] == Statement.EXECUTE_FAILED) {
+                progress.rowsFailed++;
+            } else {
+                progress.rowsWritten++;
+            }
+        }
+        progress.rowsFailed += parsed.rejected;
+        progress.bytesRead += parsed.bytes;
+        if (listener != null) {
+            this.listener.onProgress(progress.snapshot(startNanos));
+        }
+    }
+
+    /**
+     * Drops every secondary index of the table.
+     * @return the SQL to re-create each dropped index
+     */
+    private List<String> dropIndexes() {
+        final List<String> names = new ArrayList<>();
+        final List<String> sql = new ArrayList<>();
+        try (Cursor c = db.rawQueryCursor("SELECT [name],[sql] FROM [sqlite_master]"
+                + " WHERE [type]='index' AND [tbl_name]=? AND [sql] IS NOT NULL;", new Object[] { table })) {
+            if (c == null) {
+                throw new IllegalStateException("Could not read the indexes of '" + table + "'!");
+            }
+            while (c.moveToNext()) {
+                names.add(c.getString(0));
+                sql.add(c.getString(1));
+            }
+        }
+        for (String name : names) {
+            this.db.execSql("DROP INDEX [" + name + "];");
+        }
+        return sql;
+    }
+
+    private String[] readHeader(String line) {
+        final List<String[]> records = TextRecords.parseCsv(line, delimiter);
+        if (records.isEmpty()) {
+            throw new IllegalArgumentException("CSV input has no header!");
+        }
+        final String[] header = records.get(0);
+        if (header.length > 0 && header[0] != null && header[0].startsWith("\uFEFF")) {
+            header[0] = header[0].substring(1);
+        }
+        return header;
+    }
+
+    /**
+     * Fills the buffer from the channel.
+     * @return true if the end of the channel was reached
+     */
+    private static boolean fill(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer) {
+        final ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+
+    /**
+     * Finds the end of the first record, respecting quoted line breaks.
+     */
+    private static int headerEnd(String text) {
+        boolean inQuotes = false;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c == '"') {
+                inQuotes = !inQuotes;
+            } else if (c == '\n' && !inQuotes) {
+                return i + 1;
+            }
+        }
+        return text.length();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compareKeys(Object a, Object b) {
+        if (a == null || b == null) {
+            return (a == null) ? ((b == null) ? 0 : -1) : 1;
+        }
+        if (a instanceof String && b instanceof String) {
+            try {
+                return Long.compare(Long.parseLong((String)a), Long.parseLong((String)b));
+            } catch (NumberFormatException ignored) {}
+        }
+        if (a instanceof Number && b instanceof Number) {
+            return Double.compare(((Number)a).doubleValue(), ((Number)b).doubleValue());
+        }
+        if (a.getClass() == b.getClass() && a instanceof Comparable) {
+            return ((Comparable<Object>)a).compareTo(b);
+        }
+        return a.toString().compareTo(b.toString());
+    }
+
+
+    /**
+     * Immutable snapshot of the progress of an import.
+     */
+    public static final class Stats {
+        private final long rowsWritten;
+        private final long rowsFailed;
+        private final long bytesRead;
+        private final long totalBytes;
+        private final long elapsedNanos;
+
+
+        Stats(long rowsWritten, long rowsFailed, long bytesRead, long totalBytes, long elapsedNanos) {
+            this.rowsWritten = rowsWritten;
+            this.rowsFailed = rowsFailed;
+            this.bytesRead = bytesRead;
+            this.totalBytes = totalBytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "{rows: " + rowsWritten + ", failed: " + rowsFailed + ", bytes: " + bytesRead
+                    + (totalBytes >= 0 ? "/" + totalBytes : "")
+                    + ", rows/s: " + (long)getRowsPerSecond() + "}";
+        }
+
+        public long getRowsWritten() {
+            return rowsWritten;
+        }
+
+        /**
+         * Gets the number of records that could not be parsed or inserted, and so were
+         * skipped.
+         * @return the failed row count
+         */
+        public long getRowsFailed() {
+            return rowsFailed;
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        /**
+         * Gets the total size of the input.
+         * @return the total bytes, or -1 if unknown
+         */
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedNanos / 1000000L;
+        }
+
+        public double getRowsPerSecond() {
+            return (elapsedNanos == 0) ? 0 : rowsWritten * 1e9 / elapsedNanos;
+        }
+
+        public double getBytesPerSecond() {
+            return (elapsedNanos == 0) ? 0 : bytesRead * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * Gets how much of the input has been read.
+         * @return the fraction between 0 and 1, or -1 if the total size is unknown
+         */
+        public double getFractionRead() {
+            return (totalBytes <= 0) ? -1 : Math.min(1, (double)bytesRead / totalBytes);
+        }
+    }
+
+    /**
+     * Stores the rows parsed from a single chunk.
+     */
+    private static final class Parsed {
+        final List<ContentValues> rows = new ArrayList<>();
+        final long bytes;
+        int rejected;
+
+
+        Parsed(long bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Stores the running totals of an import, only touched by the writing thread.
+     */
+    private static final class Progress {
+        final long totalBytes;
+        long rowsWritten;
+        long rowsFailed;
+        long bytesRead;
+
+
+        Progress(long totalBytes) {
+            this.totalBytes = totalBytes;
+        }
+
+        Stats snapshot(long startNanos) {
+            return new Stats(rowsWritten, rowsFailed, bytesRead, totalBytes, System.nanoTime() - startNanos);
+        }
+    }
+}
@@ -0,0 +1,515 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tylersuehr.sql;
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Forward-only cursor over the results of a query.
+ *
+ * Unlike a bare {@link ResultSet}, a cursor owns its own statement, so other queries
+ * (on this or any other thread) can't invalidate it. It also holds a reference to the
+ * database, and the reader connection it runs on if pooled, until it's closed, so
+ * always close it; try-with-resources works well.
+ *
+ * Column indexes start at 0 and are resolved once, when the cursor is opened. Look up
+ * the index of each column with {@link #getColumnIndex(String)} before the loop, then
+ * read every row by index with the typed getters, which don't box.
+ *
+ * <pre>
+ *   try (Cursor c = db.queryCursor("users", null, null, null, null)) {
+ *       final int id = c.getColumnIndexOrThrow("id");
+ *       while (c.moveToNext()) {
+ *           long value = c.getLong(id);
+ *       }
+ *   }
+ * </pre>
+ *
+ * A cursor served by the {@link ResultCache} reads rows copied out of SQLite earlier,
+ * rather than a live result set; it behaves the same way.
+ *
+ * This object is NOT thread-safe.
+ *
+ * @author Tyler Suehr
+ */
+public final class Cursor implements Closeable {
+    public static final int FIELD_TYPE_NULL = 0;
+    public static final int FIELD_TYPE_INTEGER = 1;
+    public static final int FIELD_TYPE_FLOAT = 2;
+    public static final int FIELD_TYPE_STRING = 3;
+    public static final int FIELD_TYPE_BLOB = 4;
+
+    private final SQLiteDatabase db;
+    private final String sql;
+    private final PreparedStatement stmt;
+    private final ResultSet results;
+    /* Gives back the connection of a live result, null if nothing to give back */
+    private final Runnable onClose;
+    private final String[] columnNames;
+    /* Row-major values of a cached result, null for a live one */
+    private final Object[] values;
+    private final int rowCount;
+    private int offset;
+    private Map<String, Integer> columnIndexes;
+    private boolean closed;
+    private boolean failed;
+    /* Time spent in SQLite so far, only measured if timed */
+    private final boolean timed;
+    private long nanos;
+    private int rows;
+
+
+    /**
+     * Must be created while holding a lease on the database.
+     * @param start when the query started, as given by {@link Instrumentation#start()}
+     * @param onClose run once the cursor is closed, to give back its connection, can be null
+     */
+    Cursor(SQLiteDatabase db, String sql, PreparedStatement stmt, ResultSet results, long start,
+           Runnable onClose) throws SQLException {
+        this.db = db;
+        this.sql = sql;
+        this.stmt = stmt;
+        this.results = results;
+        this.onClose = onClose;
+        this.timed = (start != 0);
+        this.values = null;
+        this.rowCount = 0;
+
+        final ResultSetMetaData meta = results.getMetaData();
+        this.columnNames = new String[meta.getColumnCount()];
+        for (int i = 0; i < columnNames.length; i++) {
+            this.columnNames[i] = meta.getColumnLabel(i + 1);
+        }
+        if (timed) {
+            this.nanos = System.nanoTime() - start;
+        }
+        this.db.acquireNestedReference();
+    }
+
+    /**
+     * Creates a cursor over a cached result. Must be created while holding a lease on
+     * the database.
+     *
+     * @param values the values of every row, row after row, shared and never modified
+     */
+    Cursor(SQLiteDatabase db, String sql, String[] columnNames, Object[] values, int rowCount) {
+        this.db = db;
+        this.sql = sql;
+        this.stmt = null;
+        this.results = null;
+        this.onClose = null;
+        this.timed = false;
+        this.columnNames = columnNames;
+        this.values = values;
+        this.rowCount = rowCount;
+        this.offset = -columnNames.length;
+        this.db.acquireNestedReference();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            if (results != null) {
+                this.results.close();
+                this.stmt.close();
+            }
+        } catch (SQLException ex) {
+            SQLiteDatabase.logException(ex);
+        } finally {
+            if (onClose != null) {
+                this.onClose.run();
+            }
+            if (timed) {
+                this.db.getInstrumentation().elapsed(sql, nanos, rows, 0);
+            }
+            this.db.releaseReference();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Moves to the next row of the results.
+     * @return true if there is a next row, otherwise false
+     */
+    public boolean moveToNext() {
+        if (closed) {
+            return false;
+        }
+        if (values != null) {
+            if (rows >= rowCount) {
+                return false;
+            }
+            this.rows++;
+            this.offset += columnNames.length;
+            return true;
+        }
+        final long start = timed ? System.nanoTime() : 0;
+        try {
+            final boolean next = results.next();
+            if (next) {
+                this.rows++;
+            }
+            return next;
+        } catch (SQLException ex) {
+            this.failed = true;
+            this.db.getInstrumentation().error(sql, ex);
+            SQLiteDatabase.logException(ex);
+            return false;
+        } finally {
+            if (timed) {
+                this.nanos += System.nanoTime() - start;
+            }
+        }
+    }
+
+    /**
+     * Determines if moving to the next row failed, so the results ended early.
+     * @return true if a move failed, otherwise false
+     */
+    boolean hasFailed() {
+        return failed;
+    }
+
+    /**
+     * Hints how many rows should be fetched at a time while moving through the results.
+     * @param rows the number of rows
+     */
+    public void setFetchSize(int rows) {
+        if (results == null) {
+            return;
+        }
+        try {
+            this.results.setFetchSize(rows);
+        } catch (SQLException ex) {
+            SQLiteDatabase.logException(ex);
+        }
+    }
+
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    public String[] getColumnNames() {
+        return columnNames.clone();
+    }
+
+    /**
+     * Gets the index of the given column, ignoring case like SQLite does.
+     *
+     * @param name the name of the column
+     * @return the column index, or -1 if the column doesn't exist
+     */
+    public int getColumnIndex(String name) {
+        if (columnIndexes == null) {
+            this.columnIndexes = new HashMap<>(columnNames.length * 2);
+            for (int i = columnNames.length - 1; i >= 0; i--) {
+                this.columnIndexes.put(columnNames[i].toLowerCase(Locale.ROOT), i);
+            }
+        }
+        final Integer index = columnIndexes.get(name.toLowerCase(Locale.ROOT));
+        return (index != null) ? index : -1;
+    }
+
+    /**
+     * Gets the index of the given column.
+     *
+     * @param name the name of the column
+     * @return the column index
+     * @throws IllegalArgumentException if the column doesn't exist
+     */
+    public int getColumnIndexOrThrow(String name) {
+        final int index = getColumnIndex(name);
+        if (index < 0) {
+            throw new IllegalArgumentException("Column '" + name + "' does not exist!");
+        }
+        return index;
+    }
+
+    /**
+     * Gets the index of each of the given columns.
+     *
+     * @param names the names of the columns
+     * @return the column indexes, in the same order
+     * @throws IllegalArgumentException if a column doesn't exist
+     */
+    public int[] getColumnIndexes(String... names) {
+        final int[] indexes = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            indexes[i] = getColumnIndexOrThrow(names[i]);
+        }
+        return indexes;
+    }
+
+    /**
+     * Maps every remaining row of this cursor, resolving the mapper's columns once.
+     *
+     * @param mapper the row mapper
+     * @param <T> the type of object mapped
+     * @return the mapped objects
+     */
+    public <T> List<T> mapAll(RowMapper<T> mapper) {
+        final int[] columns = getColumnIndexes(mapper.getColumns());
+        final List<T> rows = new ArrayList<>();
+        while (moveToNext()) {
+            rows.add(mapper.map(this, columns));
+        }
+        return rows;
+    }
+
+    /**
+     * Creates a lazy stream that maps each remaining row of this cursor on demand.
+     *
+     * Rows are only read as the stream pulls them, so short-circuiting operations like
+     * findFirst() or limit() stop reading early. This cursor is closed when the stream
+     * is closed or runs out of rows; close the stream to be safe.
+     *
+     * @param mapper the row mapper
+     * @param <T> the type of object mapped
+     * @return the stream of mapped objects
+     */
+    public <T> Stream<T> stream(RowMapper<T> mapper) {
+        final int[] columns = getColumnIndexes(mapper.getColumns());
+        final Spliterator<T> rows = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED) {
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                if (!moveToNext()) {
+                    close();
+                    return false;
+                }
+                action.accept(mapper.map(Cursor.this, columns));
+                return true;
+            }
+        };
+        return StreamSupport.stream(rows, false).onClose(this::close);
+    }
+
+    /**
+     * Gets the storage class of the given column's value in the current row.
+     *
+     * @param column the column index
+     * @return one of the FIELD_TYPE constants
+     */
+    public int getType(int column) {
+        // Read from the value, since SQLite doesn't hold a column to its declared type
+        final Object value = getValue(column);
+        if (value == null) {
+            return FIELD_TYPE_NULL;
+        } else if (value instanceof Long) {
+            return FIELD_TYPE_INTEGER;
+        } else if (value instanceof Double) {
+            return FIELD_TYPE_FLOAT;
+        }
+        return (value instanceof byte[]) ? FIELD_TYPE_BLOB : FIELD_TYPE_STRING;
+    }
+
+    public boolean isNull(int column) {
+        if (values != null) {
+            return values[offset + column] == null;
+        }
+        try {
+            return results.getObject(column + 1) == null;
+        } catch (SQLException ex) {
+            SQLiteDatabase.logException(ex);
+            return true;
+        }
+    }
+
+    public String getString(int column) {
+        if (values != null) {
+            final Object value = values[offset + column];
+            if (value instanceof byte[]) {
+                return new String((byte[])value, StandardCharsets.UTF_8);
+            }
+            return (value != null) ? value.toString() : null;
+        }
+        try {
+            return results.getString(column + 1);
+        } catch (SQLException ex) {
+            SQLiteDatabase.logException(ex);
+            return null;
+        }
+    }
+
+    public short getShort(int column) {
+        if (values != null) {
+            return (short)getLong(column);
+        }
+        try {
+            return results.getShort(column + 1);
+        } catch (SQLException ex) {
+            SQLiteDatabase.logException(ex);
+            return 0;
+        }
+    }
+
+    public int getInt(int column) {
+        if (values != null) {
+            return (int)getLong(column);
+        }
+        try {
+            return results.getInt(column + 1);
+        } catch (SQLException ex) {
+            SQLiteDatabase.logException(ex);
+            return 0;
+        }
+    }
+
+    public long getLong(int column) {
+        if (values != null) {
+            final Object value = values[offset + column];
+            if (value instanceof Long) {
+                return (Long)value;
+            }
+            if (value instanceof String) {
+                try {
+                    return Long.parseLong(((String)value).trim());
+                } catch (NumberFormatException ex) {
+                    // Not a plain integer; read it like SQLite would
+                }
+            }
+            return (value instanceof Double) ? ((Double)value).longValue() : (long)parseNumber(value);
+        }
+        try {
+            return results.getLong(column + 1);
+        } catch (SQLException ex) {
+            SQLiteDatabase.logException(ex);
+            return 0;
+        }
+    }
+
+    public float getFloat(int column) {
+        if (values != null) {
+            return (float)getDouble(column);
+        }
+        try {
+            return results.getFloat(column + 1);
+        } catch (SQLException ex) {
+            SQLiteDatabase.logException(ex);
+            return 0;
+        }
+    }
+
+    public double getDouble(int column) {
+        if (values != null) {
+            final Object value = values[offset + column];
+            return (value instanceof Number) ? ((Number)value).doubleValue() : parseNumber(value);
+        }
+        try {
+            return results.getDouble(column + 1);
+        } catch (SQLException ex) {
+            SQLiteDatabase.logException(ex);
+            return 0;
+        }
+    }
+
+    public boolean getBoolean(int column) {
+        return getInt(column) != 0;
+    }
+
+    public byte[] getBlob(int column) {
+        if (values != null) {
+            final Object value = values[offset + column];
+            if (value instanceof byte[]) {
+                // Cached values are shared, so never hand out the array itself
+                return ((byte[])value).clone();
+            }
+            return (value != null) ? value.toString().getBytes(StandardCharsets.UTF_8) : null;
+        }
+        try {
+            return results.getBytes(column + 1);
+        } catch (SQLException ex) {
+            SQLiteDatabase.logException(ex);
+            return null;
+        }
+    }
+
+    /**
+     * Gets the value of the given column in the current row, as SQLite stores it: a
+     * Long, Double, String, byte[] or null.
+     */
+    Object getValue(int column) {
+        if (values != null) {
+            return values[offset + column];
+        }
+        try {
+            final Object value = results.getObject(column + 1);
+            if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                return ((Number)value).longValue();
+            }
+            return (value instanceof Float) ? (Double)((Float)value).doubleValue() : value;
+        } catch (SQLException ex) {
+            SQLiteDatabase.logException(ex);
+            return null;
+        }
+    }
+
+    /**
+     * Reads a number from text like SQLite does: as much of a leading number as there
+     * is, or 0 if there's none.
+     */
+    private static double parseNumber(Object value) {
+        if (value == null || value instanceof byte[]) {
+            return 0;
+        }
+        final String text = value.toString().trim();
+        int end = 0;
+        while (end < text.length() && "+-.0123456789eE".indexOf(text.charAt(end)) >= 0) {
+            end++;
+        }
+        while (end > 0) {
+            try {
+                return Double.parseDouble(text.substring(0, end));
+            } catch (NumberFormatException ex) {
+                end--;
+            }
+        }
+        return 0;
+    }
+}
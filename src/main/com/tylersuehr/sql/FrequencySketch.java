@@ -0,0 +1,113 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.tylersuehr.sql;
+
+/**
+ * Approximate, aging frequency counts of recently seen keys, used by
+ * {@link BoundedCache} to decide which of two entries is worth keeping (TinyLFU).
+ *
+ * A count-min sketch of counters capped at 15, each kept in a byte for simple
+ * indexing: each key maps to four counters, and its frequency is the smallest of
+ * them, so collisions can only overestimate it. Once
+ * enough keys have been counted, every counter is halved, so the sketch forgets old
+ * popularity and keeps up with the workload.
+ *
+ * This object is NOT thread-safe.
+ *
+ * @author Tyler Suehr
+ */
+final class FrequencySketch {
+    private static final int[] SEEDS = { 0x97CB3127, 0xB8A6A4C1, 0x5A6F3E9D, 0x3C6EF373 };
+    private static final int MAX_COUNT = 15;
+    private static final int MAX_TABLE_SIZE = 1 << 20;
+
+    private final byte[] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+
+    /**
+     * @param expectedEntries the number of entries the cache is expected to hold
+     */
+    FrequencySketch(long expectedEntries) {
+        int size = 16;
+        while (size < expectedEntries * 16 && size < MAX_TABLE_SIZE) {
+            size <<= 1;
+        }
+        this.table = new byte[size];
+        this.mask = size - 1;
+        this.sampleSize = 10 * Math.max(1, (int)Math.min(expectedEntries, size));
+    }
+
+    void increment(Object key) {
+        final int hash = spread(key.hashCode());
+        for (int i = 0; i < SEEDS.length; i++) {
+            final int index = indexOf(hash, i);
+            if (table[index] < MAX_COUNT) {
+                this.table[index]++;
+            }
+        }
+        if (++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    int frequency(Object key) {
+        final int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < SEEDS.length; i++) {
+            frequency = Math.min(frequency, table[indexOf(hash, i)]);
+        }
+        return frequency;
+    }
+
+    /**
+     * Halves every counter.
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            this.table[i] >>= 1;
+        }
+        this.additions /= 2;
+    }
+
+    private int indexOf(int hash, int i) {
+        int h = hash * SEEDS[i];
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h & mask;
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 17;
+        hash *= 0xED5AD4BB;
+        hash ^= hash >>> 11;
+        hash *= 0xAC4C1B51;
+        return hash ^ (hash >>> 15);
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tylersuehr.sql;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Coalesces writes from many threads into a single commit.
+ *
+ * Writes are queued to one writer thread, which drains everything pending (up to the
+ * maximum batch size, waiting at most the linger time for more), runs it inside one
+ * transaction and commits once. Each write runs in its own nested transaction, so a
+ * write that throws, or runs a statement that fails, is rolled back without affecting
+ * the rest of its batch.
+ *
+ * Every write returns a {@link CompletableFuture} that completes once the write has
+ * been committed, or completes exceptionally if it failed or its batch could not be
+ * committed.
+ *
+ * At most four batches of writes are queued; submitting more blocks the caller until
+ * the writer has caught up, so producers faster than the disk can't exhaust the heap.
+ *
+ * Create one using {@link SQLiteDatabase#createGroupCommitWriter(int, long)}.
+ *
+ * @author Tyler Suehr
+ */
+public final class GroupCommitWriter implements Closeable {
+    private static final long POLL_MILLIS = 100;
+    private static final int QUEUED_BATCHES = 4;
+    private final SQLiteDatabase db;
+    private final int maxBatchSize;
+    private final long maxLingerNanos;
+    private final BlockingQueue<PendingWrite> queue;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    /* Metrics */
+    private final AtomicLong commitCount = new AtomicLong();
+    private final AtomicLong writeCount = new AtomicLong();
+    private volatile int lastBatchSize;
+    private volatile int largestBatchSize;
+
+
+    GroupCommitWriter(SQLiteDatabase db, int maxBatchSize, long maxLingerMillis) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1!");
+        }
+        if (maxLingerMillis < 0) {
+            throw new IllegalArgumentException("Linger time cannot be negative!");
+        }
+        this.db = db;
+        this.maxBatchSize = maxBatchSize;
+        this.maxLingerNanos = TimeUnit.MILLISECONDS.toNanos(maxLingerMillis);
+        this.queue = new LinkedBlockingQueue<>((int)Math.min(Integer.MAX_VALUE, (long)maxBatchSize * QUEUED_BATCHES));
+        this.db.acquireReference();
+        this.writer = new Thread(this::run, "SQLite-GroupCommit");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Stops accepting writes, commits everything still queued and stops the writer.
+     */
+    @Override
+    public void close() {
+        synchronized (queue) {
+            if (!running) {
+                return;
+            }
+            this.running = false;
+        }
+        try {
+            this.writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.db.releaseReference();
+        }
+    }
+
+    /**
+     * Queues the given work to be run and committed by the writer thread, waiting for
+     * room in the queue if it's full.
+     *
+     * @param work the database work to run
+     * @return completes when the work has been committed
+     */
+    public CompletableFuture<Void> submit(Consumer<SQLiteDatabase> work) {
+        final PendingWrite write = new PendingWrite(work);
+        // Checked and queued atomically, so nothing is queued after the writer stops
+        synchronized (queue) {
+            if (running) {
+                try {
+                    this.queue.put(write);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    write.future.completeExceptionally(ex);
+                }
+                return write.future;
+            }
+        }
+        write.future.completeExceptionally(new IllegalStateException("Writer is closed!"));
+        return write.future;
+    }
+
+    public CompletableFuture<Void> insert(String table, ContentValues values) {
+        return submit(db -> db.insert(table, values));
+    }
+
+    public CompletableFuture<Void> update(String table, ContentValues values, String selection, Object[] selectionArgs) {
+        return submit(db -> db.update(table, values, selection, selectionArgs));
+    }
+
+    public CompletableFuture<Void> delete(String table, String selection, Object[] selectionArgs) {
+        return submit(db -> db.delete(table, selection, selectionArgs));
+    }
+
+    /**
+     * Gets the number of writes waiting for the writer thread.
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Gets the number of successful commits made by the writer thread.
+     * @return the commit count
+     */
+    public long getCommitCount() {
+        return commitCount.get();
+    }
+
+    /**
+     * Gets the number of writes committed by the writer thread, failed ones included.
+     * @return the write count
+     */
+    public long getWriteCount() {
+        return writeCount.get();
+    }
+
+    /**
+     * Gets the average number of writes per commit.
+     * @return the average commit batch size
+     */
+    public double getAverageBatchSize() {
+        final long commits = commitCount.get();
+        return (commits == 0) ? 0 : (double)writeCount.get() / commits;
+    }
+
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    public int getLargestBatchSize() {
+        return largestBatchSize;
+    }
+
+    private void run() {
+        final List<PendingWrite> batch = new ArrayList<>(maxBatchSize);
+        try {
+            while (running || !queue.isEmpty()) {
+                final PendingWrite first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                // Linger for more writes, until the batch is full or time is up
+                final long deadline = System.nanoTime() + maxLingerNanos;
+                while (batch.size() < maxBatchSize) {
+                    this.queue.drainTo(batch, maxBatchSize - batch.size());
+                    final long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatchSize || remaining <= 0) {
+                        break;
+                    }
+                    final PendingWrite next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                commit(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Fail anything that couldn't be written
+        final IllegalStateException closed = new IllegalStateException("Writer is closed!");
+        for (PendingWrite write : batch) {
+            write.future.completeExceptionally(closed);
+        }
+        PendingWrite write;
+        while ((write = queue.poll()) != null) {
+            write.future.completeExceptionally(closed);
+        }
+    }
+
+    private void commit(List<PendingWrite> batch) {
+        boolean committed = false;
+        IllegalStateException failure = null;
+        try {
+            this.db.beginTransaction();
+            try {
+                for (PendingWrite write : batch) {
+                    try {
+                        this.db.inTransaction(write.work);
+                    } catch (RuntimeException ex) {
+                        write.error = ex;
+                    }
+                }
+                this.db.setTransactionSuccessful();
+            } finally {
+                // Ended even if a write threw an Error, so the write lock isn't kept
+                committed = db.finishTransaction();
+            }
+        } catch (Throwable ex) {
+            committed = false;
+            failure = new IllegalStateException("Group commit failed!", ex);
+            SQLiteDatabase.logException(failure);
+        }
+
+        // Counted first, so the metrics include the batch once its futures complete
+        if (committed) {
+            this.commitCount.incrementAndGet();
+            this.writeCount.addAndGet(batch.size());
+            this.lastBatchSize = batch.size();
+            if (batch.size() > largestBatchSize) {
+                this.largestBatchSize = batch.size();
+            }
+        }
+
+        for (PendingWrite write : batch) {
+            if (!committed) {
+                write.future.completeExceptionally((failure != null)
+                        ? failure : new IllegalStateException("Group commit failed!"));
+            } else if (write.error != null) {
+                write.future.completeExceptionally(write.error);
+            } else {
+                write.future.complete(null);
+            }
+        }
+    }
+
+
+    /**
+     * Stores a queued write and the future to complete once it's committed.
+     */
+    private static final class PendingWrite {
+        final Consumer<SQLiteDatabase> work;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        RuntimeException error;
+
+
+        PendingWrite(Consumer<SQLiteDatabase> work) {
+            this.work = work;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.tylersuehr.sql;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Dispatches statement events to the registered {@link StatementListener}s.
+ *
+ * With no listeners registered, {@link #start()} returns 0 without reading the clock and
+ * every other method returns right away, so instrumentation costs next to nothing
+ * until it's turned on.
+ *
+ * @author Tyler Suehr
+ */
+final class Instrumentation {
+    private static final StatementListener[] NONE = {};
+    /* Copied on write, so dispatching never locks */
+    private volatile StatementListener[] listeners = NONE;
+
+
+    synchronized void add(StatementListener listener) {
+        final StatementListener[] current = listeners;
+        final StatementListener[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = listener;
+        this.listeners = updated;
+    }
+
+    synchronized void remove(StatementListener listener) {
+        final StatementListener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == listener) {
+                final StatementListener[] updated = new StatementListener[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, updated.length - i);
+                this.listeners = updated;
+                return;
+            }
+        }
+    }
+
+    boolean isEnabled() {
+        return listeners.length > 0;
+    }
+
+    /**
+     * Starts timing a statement.
+     * @return the start time, or 0 if there are no listeners
+     */
+    long start() {
+        return (listeners.length > 0) ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Reports a statement that was timed from the given start.
+     */
+    void statement(String sql, long start, int rowsRead, int rowsWritten) {
+        if (start != 0) {
+            elapsed(sql, System.nanoTime() - start, rowsRead, rowsWritten);
+        }
+    }
+
+    /**
+     * Reports a statement with an already measured duration.
+     */
+    void elapsed(String sql, long elapsedNanos, int rowsRead, int rowsWritten) {
+        for (StatementListener listener : listeners) {
+            try {
+                listener.onStatement(sql, elapsedNanos, rowsRead, rowsWritten);
+            } catch (RuntimeException ex) {
+                SQLiteDatabase.logException(ex);
+            }
+        }
+    }
+
+    void error(String sql, SQLException error) {
+        for (StatementListener listener : listeners) {
+            try {
+                listener.onError(sql, error);
+            } catch (RuntimeException ex) {
+                SQLiteDatabase.logException(ex);
+            }
+        }
+    }
+
+    void commit(long start) {
+        if (start == 0) {
+            return;
+        }
+        final long elapsedNanos = System.nanoTime() - start;
+        for (StatementListener listener : listeners) {
+            try {
+                listener.onCommit(elapsedNanos);
+            } catch (RuntimeException ex) {
+                SQLiteDatabase.logException(ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,580 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.tylersuehr.sql;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * Bloom filter over the keys of one table column, for answering "definitely not
+ * stored" without querying SQLite.
+ *
+ * The filter is built by scanning the column, and learns the keys written through its
+ * database afterwards as each write commits: by insert, upsert, the bulk inserts and
+ * updates of the key column. Raw SQL that may insert into the table, or a row inserted
+ * without a value for the key column (i.e. an INTEGER PRIMARY KEY left to SQLite),
+ * writes keys it can't know; then the filter reports every key as possibly stored
+ * until its next rebuild. Keys written by any other connection must be added with
+ * {@link #add(Object)} before the row can be looked up; otherwise the filter could
+ * wrongly report the key as absent. {@link #mightContain(Object)} never does that for
+ * a key it knows, but reports a small fraction of absent keys as possibly stored
+ * (false positives).
+ *
+ * A Bloom filter can't forget keys, so {@link #remove(Object)} only counts deletions.
+ * Once the deleted keys exceed the rebuild ratio of all keys, or more keys were added
+ * than the filter was sized for, it is rebuilt from a fresh scan on a background
+ * thread; keys added while it rebuilds are kept aside and added to the new filter once
+ * the scan finishes. Until the first successful scan, and whenever a scan fails, every
+ * key is reported as possibly stored.
+ *
+ * Keys are compared by their string form, as SQLite reports them once stored in the
+ * column: "05" or 5.0 written to an INTEGER column is stored, and looked up, as 5. A
+ * key whose stored form can't be told for sure, such as a REAL value, is reported as
+ * possibly stored, and writing one makes the filter report every key that way until
+ * its next rebuild.
+ *
+ * Create one using {@link SQLiteDatabase#createKeyFilter(String, String, double)}.
+ *
+ * @author Tyler Suehr
+ */
+public final class KeyFilter {
+    private static final int MIN_CAPACITY = 1024;
+    /* Text SQLite converts to a number when stored in a numeric column */
+    private static final Pattern NUMERIC_TEXT = Pattern.compile(
+            "\\s*[+-]?(\\d+\\.?\\d*|\\.\\d+)([eE][+-]?\\d+)?\\s*");
+    /* Integers beyond this may have been rounded through a REAL */
+    private static final BigDecimal MAX_EXACT = BigDecimal.valueOf(1L << 53);
+    private final SQLiteDatabase db;
+    private final String table;
+    final String keyColumn;
+    private final String countSql;
+    private final String scanSql;
+    private final String columnsSql;
+    private final double falsePositiveRate;
+    private final ReentrantLock rebuildLock = new ReentrantLock();
+    private final AtomicBoolean rebuildScheduled = new AtomicBoolean();
+    private final AtomicBoolean rebuildAgain = new AtomicBoolean();
+    private volatile Bits bits;
+    /* Type affinity of the key column, null until the first rebuild reads it */
+    private volatile Affinity affinity;
+    private volatile double rebuildRatio = 0.25;
+    private volatile boolean autoRebuild = true;
+
+    /* Guarded by this; keys added since the running rebuild started, null if none */
+    private List<String> addedDuringRebuild;
+    /* Guarded by this; bumped whenever keys the filter can't know were written */
+    private long staleCount;
+
+    /* Metrics */
+    private final LongAdder lookupCount = new LongAdder();
+    private final LongAdder negativeCount = new LongAdder();
+    private final LongAdder falsePositiveCount = new LongAdder();
+    private final AtomicLong rebuildCount = new AtomicLong();
+
+
+    KeyFilter(SQLiteDatabase db, String table, String keyColumn, double falsePositiveRate) {
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1!");
+        }
+        this.db = db;
+        this.table = ResultCache.tableName(table);
+        this.keyColumn = keyColumn;
+        this.countSql = "SELECT COUNT(*) FROM [" + table + "];";
+        this.scanSql = "SELECT [" + keyColumn + "] FROM [" + table + "];";
+        this.columnsSql = "PRAGMA table_info([" + table + "]);";
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    @Override
+    public String toString() {
+        return "{keys: " + getKeyCount() + ", deletes: " + getDeleteCount()
+                + ", lookups: " + getLookupCount() + ", negatives: " + getNegativeCount()
+                + ", false positives: " + getFalsePositiveCount()
+                + ", expected fpp: " + getExpectedFalsePositiveRate()
+                + ", rebuilds: " + getRebuildCount() + "}";
+    }
+
+    /**
+     * Sets the share of deleted keys that triggers a rebuild; 0.25 by default.
+     */
+    public KeyFilter setRebuildRatio(double rebuildRatio) {
+        if (rebuildRatio <= 0) {
+            throw new IllegalArgumentException("Rebuild ratio must be positive!");
+        }
+        this.rebuildRatio = rebuildRatio;
+        return this;
+    }
+
+    /**
+     * Sets whether the filter rebuilds itself in the background; true by default.
+     * Without it, call {@link #rebuild()} as needed.
+     */
+    public KeyFilter setAutoRebuild(boolean autoRebuild) {
+        this.autoRebuild = autoRebuild;
+        return this;
+    }
+
+    /**
+     * Determines if the given key might be stored.
+     * @return false if the key is definitely not stored, otherwise true
+     */
+    public boolean mightContain(Object key) {
+        this.lookupCount.increment();
+        final Bits current = bits;
+        final String stored = keyOf(key);
+        if (current == null || stored == null || current.mightContain(stored)) {
+            return true;
+        }
+        this.negativeCount.increment();
+        return false;
+    }
+
+    /**
+     * Adds a key that is about to be inserted by another connection than the filter's
+     * database; keys written through the database are added as they commit.
+     */
+    public void add(Object key) {
+        final String stored = keyOf(key);
+        if (stored == null) {
+            markStale();
+            return;
+        }
+        final List<String> keys = new ArrayList<>(1);
+        keys.add(stored);
+        addAll(keys);
+    }
+
+    /**
+     * Records that a key was deleted.
+     */
+    public void remove(Object key) {
+        final Bits current = bits;
+        if (current != null && current.deleteCount.incrementAndGet() > rebuildRatio * current.keyCount.get()) {
+            scheduleRebuild();
+        }
+    }
+
+    /**
+     * Records that a key reported as possibly stored was not, so the observed false
+     * positive rate can be compared with the expected one.
+     */
+    public void recordFalsePositive() {
+        this.falsePositiveCount.increment();
+    }
+
+    /**
+     * Rebuilds the filter from a fresh scan of the column, on the calling thread.
+     * @return true if rebuilt, false if the scan failed
+     */
+    public boolean rebuild() {
+        this.rebuildLock.lock();
+        try {
+            final List<String> added = new ArrayList<>();
+            final long stale;
+            synchronized (this) {
+                this.addedDuringRebuild = added;
+                stale = staleCount;
+            }
+            try {
+                if (affinity == null && !readAffinity()) {
+                    return false;
+                }
+                final long rows = countRows();
+                if (rows < 0) {
+                    return false;
+                }
+                final Bits next = new Bits(Math.max(MIN_CAPACITY, rows * 2), falsePositiveRate);
+                if (!scan(next)) {
+                    return false;
+                }
+                synchronized (this) {
+                    // Unknown keys written since the scan began may be missing from it
+                    if (staleCount != stale) {
+                        return false;
+                    }
+                    for (String key : added) {
+                        next.put(key);
+                    }
+                    this.bits = next;
+                }
+            } finally {
+                synchronized (this) {
+                    this.addedDuringRebuild = null;
+                }
+            }
+            this.rebuildCount.incrementAndGet();
+            return true;
+        } finally {
+            this.rebuildLock.unlock();
+        }
+    }
+
+    /**
+     * Determines if the filter has been built, so it can report keys as absent.
+     */
+    public boolean isReady() {
+        return bits != null;
+    }
+
+    public double getFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    /**
+     * Estimates the current false positive rate from the share of bits set, which
+     * grows as keys are added.
+     * @return the expected false positive rate, or 1 if not built
+     */
+    public double getExpectedFalsePositiveRate() {
+        final Bits current = bits;
+        return (current == null) ? 1 : current.expectedFalsePositiveRate();
+    }
+
+    /**
+     * Gets the number of keys added since the last rebuild, counting the scan.
+     */
+    public int getKeyCount() {
+        final Bits current = bits;
+        return (current == null) ? 0 : current.keyCount.get();
+    }
+
+    /**
+     * Gets the number of keys deleted since the last rebuild.
+     */
+    public int getDeleteCount() {
+        final Bits current = bits;
+        return (current == null) ? 0 : current.deleteCount.get();
+    }
+
+    public long getSizeInBytes() {
+        final Bits current = bits;
+        return (current == null) ? 0 : current.words.length() * 8L;
+    }
+
+    public long getLookupCount() {
+        return lookupCount.sum();
+    }
+
+    /**
+     * Gets the number of lookups answered as definitely not stored.
+     */
+    public long getNegativeCount() {
+        return negativeCount.sum();
+    }
+
+    public long getFalsePositiveCount() {
+        return falsePositiveCount.sum();
+    }
+
+    public long getRebuildCount() {
+        return rebuildCount.get();
+    }
+
+    /**
+     * Determines if the filter is over the given table.
+     */
+    boolean isOn(String table) {
+        return this.table.equals(ResultCache.tableName(table));
+    }
+
+    /**
+     * Adds keys whose rows were just committed, or are about to be.
+     */
+    void addAll(List<String> keys) {
+        final Bits current;
+        synchronized (this) {
+            current = bits;
+            for (String key : keys) {
+                if (current != null) {
+                    current.put(key);
+                }
+                if (addedDuringRebuild != null) {
+                    this.addedDuringRebuild.add(key);
+                }
+            }
+        }
+        if (current != null && current.keyCount.get() > current.capacity) {
+            scheduleRebuild();
+        }
+    }
+
+    /**
+     * Records that keys the filter can't know were written, so every key is reported
+     * as possibly stored until the next rebuild.
+     */
+    void markStale() {
+        synchronized (this) {
+            this.bits = null;
+            this.staleCount++;
+        }
+        this.rebuildAgain.set(true);
+        scheduleRebuild();
+    }
+
+    private void scheduleRebuild() {
+        if (!autoRebuild || !rebuildScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        final Thread rebuilder = new Thread(() -> {
+            try {
+                do {
+                    this.rebuildAgain.set(false);
+                    rebuild();
+                } while (rebuildAgain.get());
+            } catch (RuntimeException ex) {
+                SQLiteDatabase.logException(ex);
+            } finally {
+                this.rebuildScheduled.set(false);
+            }
+            // Marked stale again after the last rebuild started
+            if (rebuildAgain.get()) {
+                scheduleRebuild();
+            }
+        }, "SQLite-KeyFilter");
+        rebuilder.setDaemon(true);
+        rebuilder.start();
+    }
+
+    /**
+     * @return the number of rows, or -1 if they could not be counted
+     */
+    private long countRows() {
+        try (Cursor cursor = db.openCursor(countSql, null)) {
+            if (cursor == null || !cursor.moveToNext()) {
+                return -1;
+            }
+            return cursor.getLong(0);
+        }
+    }
+
+    /**
+     * Gets the string form SQLite reports for a key value once stored in the key
+     * column, as it's bound by {@link SQLiteStatement#bindObject} and then converted by
+     * the column's type affinity.
+     * @return the key, or null if it can't be known
+     */
+    String keyOf(Object value) {
+        final Affinity column = affinity;
+        if (value == null || value instanceof byte[] || column == null) {
+            return null;
+        } else if (value instanceof Boolean) {
+            return (column == Affinity.REAL) ? null : ((Boolean)value) ? "1" : "0";
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Long) {
+            return (column == Affinity.REAL) ? null : String.valueOf(((Number)value).longValue());
+        } else if (value instanceof Float || value instanceof Double) {
+            final double real = ((Number)value).doubleValue();
+            return (column.isInteger() && !Double.isNaN(real) && !Double.isInfinite(real))
+                    ? integerKey(BigDecimal.valueOf(real)) : null;
+        }
+        final String text = value.toString();
+        if (column.isNumeric() && NUMERIC_TEXT.matcher(text).matches()) {
+            return column.isInteger() ? integerKey(new BigDecimal(text.trim())) : null;
+        }
+        return text;
+    }
+
+    /**
+     * @return the integer a numeric column stores the number as, or null if it would
+     *         store it as a REAL
+     */
+    private static String integerKey(BigDecimal number) {
+        final BigDecimal exact = number.stripTrailingZeros();
+        if (exact.scale() > 0 || exact.abs().compareTo(MAX_EXACT) > 0) {
+            return null;
+        }
+        return exact.toBigInteger().toString();
+    }
+
+    /**
+     * Reads the type affinity of the key column from its declared type.
+     * @return true if read, otherwise false
+     */
+    private boolean readAffinity() {
+        try (Cursor cursor = db.openCursor(columnsSql, null)) {
+            if (cursor == null) {
+                return false;
+            }
+            while (cursor.moveToNext()) {
+                if (keyColumn.equalsIgnoreCase(cursor.getString(1))) {
+                    this.affinity = Affinity.of(cursor.getString(2));
+                    return true;
+                }
+            }
+            if (cursor.hasFailed()) {
+                return false;
+            }
+            // Not a declared column, so it can only be the rowid
+            this.affinity = Affinity.INTEGER;
+            return true;
+        }
+    }
+
+    /**
+     * @return true if every key was scanned, otherwise false
+     */
+    private boolean scan(Bits into) {
+        try (Cursor cursor = db.openCursor(scanSql, null)) {
+            if (cursor == null) {
+                return false;
+            }
+            while (cursor.moveToNext()) {
+                final String key = cursor.getString(0);
+                if (key != null) {
+                    into.put(key);
+                }
+            }
+            return !cursor.hasFailed();
+        }
+    }
+
+
+    /**
+     * Bit array of the filter, sized for a number of keys and a false positive rate.
+     * Bits are set atomically, so keys can be added while the column is scanned.
+     */
+    static final class Bits {
+        /* Indexes are 32-bit, so more bits would go unused */
+        private static final long MAX_WORDS = 1L << 26;
+        final AtomicLongArray words;
+        final long bitCount;
+        final int hashCount;
+        final long capacity;
+        final AtomicInteger keyCount = new AtomicInteger();
+        final AtomicInteger deleteCount = new AtomicInteger();
+
+
+        Bits(long capacity, double falsePositiveRate) {
+            final double ln2 = Math.log(2);
+            final long bits = (long)Math.ceil(-capacity * Math.log(falsePositiveRate) / (ln2 * ln2));
+            final int wordCount = (int)Math.min(MAX_WORDS, Math.max(1, (bits + 63) >>> 6));
+            this.words = new AtomicLongArray(wordCount);
+            this.bitCount = wordCount * 64L;
+            this.hashCount = Math.max(1, Math.min(16, (int)Math.round((double)bitCount / capacity * ln2)));
+            this.capacity = capacity;
+        }
+
+        void put(String key) {
+            final long hash = hash(key);
+            final int h1 = (int)hash;
+            final int h2 = (int)(hash >>> 32);
+            for (int i = 1; i <= hashCount; i++) {
+                final long index = indexOf(h1 + i * h2);
+                final long mask = 1L << index;
+                final int word = (int)(index >>> 6);
+                long value;
+                while (((value = words.get(word)) & mask) == 0
+                        && !words.compareAndSet(word, value, value | mask)) {
+                    // Another bit of the same word was set; retry
+                }
+            }
+            this.keyCount.incrementAndGet();
+        }
+
+        boolean mightContain(String key) {
+            final long hash = hash(key);
+            final int h1 = (int)hash;
+            final int h2 = (int)(hash >>> 32);
+            for (int i = 1; i <= hashCount; i++) {
+                final long index = indexOf(h1 + i * h2);
+                if ((words.get((int)(index >>> 6)) & (1L << index)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        double expectedFalsePositiveRate() {
+            long set = 0;
+            for (int i = 0; i < words.length(); i++) {
+                set += Long.bitCount(words.get(i));
+            }
+            return Math.pow((double)set / bitCount, hashCount);
+        }
+
+        private long indexOf(int combined) {
+            return (combined & 0xFFFFFFFFL) % bitCount;
+        }
+
+        /**
+         * 64-bit FNV-1a over the key's chars, finished with a MurmurHash3 mix.
+         */
+        private static long hash(String key) {
+            long h = 0xCBF29CE484222325L;
+            for (int i = 0; i < key.length(); i++) {
+                h ^= key.charAt(i);
+                h *= 0x100000001B3L;
+            }
+            h ^= h >>> 33;
+            h *= 0xFF51AFD7ED558CCDL;
+            h ^= h >>> 33;
+            h *= 0xC4CEB9FE1A85EC53L;
+            return h ^ (h >>> 33);
+        }
+    }
+
+
+    /**
+     * Type affinity of a column, by the rules SQLite applies to its declared type.
+     */
+    private enum Affinity {
+        INTEGER, TEXT, BLOB, REAL, NUMERIC;
+
+        static Affinity of(String declaredType) {
+            final String type = (declaredType == null) ? "" : declaredType.toUpperCase();
+            if (type.contains("INT")) {
+                return INTEGER;
+            } else if (type.contains("CHAR") || type.contains("CLOB") || type.contains("TEXT")) {
+                return TEXT;
+            } else if (type.isEmpty() || type.contains("BLOB")) {
+                return BLOB;
+            } else if (type.contains("REAL") || type.contains("FLOA") || type.contains("DOUB")) {
+                return REAL;
+            }
+            return NUMERIC;
+        }
+
+        /**
+         * Determines if numeric text is stored as a number.
+         */
+        boolean isNumeric() {
+            return this == INTEGER || this == NUMERIC || this == REAL;
+        }
+
+        /**
+         * Determines if a number with no fractional part is stored as an integer.
+         */
+        boolean isInteger() {
+            return this == INTEGER || this == NUMERIC;
+        }
+    }
+}
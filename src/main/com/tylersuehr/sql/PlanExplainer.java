@@ -0,0 +1,71 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tylersuehr.sql;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs plan captures for statement listeners on a background thread.
+ *
+ * A listener learns of a statement on the thread that ran it, which may hold the write
+ * lock or the only free pooled reader (i.e. a ResultSet handed out by the deprecated
+ * query methods). Explaining the statement right there would wait for a reader that
+ * thread itself has to give back, so it's queued here instead. The queue is bounded by
+ * the listeners, which only explain each statement shape once.
+ *
+ * The thread stops after a while without work, so an idle database keeps no thread
+ * alive. Captures still queued when the database closes are dropped.
+ *
+ * @author Tyler Suehr
+ */
+final class PlanExplainer {
+    private static final long IDLE_SECONDS = 30;
+    private final ThreadPoolExecutor executor;
+
+
+    PlanExplainer(String threadName) {
+        this.executor = new ThreadPoolExecutor(1, 1, IDLE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    final Thread thread = new Thread(r, threadName);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues a plan capture, which may query the database.
+     */
+    void execute(Runnable capture) {
+        this.executor.execute(() -> {
+            try {
+                capture.run();
+            } catch (IllegalStateException ex) {
+                // The database was closed meanwhile; nothing left to explain
+            }
+        });
+    }
+}
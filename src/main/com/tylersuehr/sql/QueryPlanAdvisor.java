@@ -0,0 +1,538 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.tylersuehr.sql;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Captures the query plan of every statement shape and suggests indexes for the ones
+ * that scan large tables.
+ *
+ * The first time a shape runs, its plan is captured with EXPLAIN QUERY PLAN on a
+ * background thread and kept; after that, running it only bumps a counter. A shape
+ * shows up in the plans once its capture finished. Plans that scan a whole table
+ * (a SCAN step not using an index) of at least {@link #setLargeTableRows(long)} rows
+ * are flagged, as are plans that sort in a temp b-tree.
+ *
+ * Row counts come from sqlite_stat1 when ANALYZE has been run, otherwise from the
+ * table's largest rowid. The WHERE and ORDER BY columns of the flagged shapes are
+ * then combined, per table, into index suggestions: equality columns first, then range
+ * columns, then order columns.
+ *
+ * <pre>
+ *   QueryPlanAdvisor advisor = db.enableQueryPlanAdvisor();
+ *   advisor.startReporting(10, TimeUnit.MINUTES);
+ *   ...
+ *   for (QueryPlanAdvisor.IndexSuggestion suggestion : advisor.getSuggestions()) {
+ *       System.out.println(suggestion.getCreateStatement());
+ *   }
+ * </pre>
+ *
+ * Create one using {@link SQLiteDatabase#enableQueryPlanAdvisor()}.
+ *
+ * @author Tyler Suehr
+ */
+public final class QueryPlanAdvisor implements StatementListener {
+    private static final int MAX_SHAPES = 1000;
+    private static final long DEFAULT_LARGE_TABLE_ROWS = 1000;
+    private static final Pattern SCAN = Pattern.compile("^SCAN (?:TABLE )?(\\S+)(?: AS (\\S+))?(.*)$");
+    private static final Pattern LEADING_NUMBER = Pattern.compile("^\\s*(\\d+)");
+
+    private final SQLiteDatabase db;
+    private final PlanExplainer explainer = new PlanExplainer("SQLite-PlanAdvisor");
+    /* Calls of every shape seen, whether its plan is captured yet or not */
+    private final Map<String, LongAdder> calls = new ConcurrentHashMap<>();
+    private final Map<String, Shape> shapes = new ConcurrentHashMap<>();
+    private final Map<String, Long> tableRows = new ConcurrentHashMap<>();
+    /* Set while capturing a plan, so the advisor's own queries aren't analyzed */
+    private final ThreadLocal<Boolean> analyzing = new ThreadLocal<>();
+    private volatile long largeTableRows = DEFAULT_LARGE_TABLE_ROWS;
+    private ScheduledExecutorService reporter;
+
+
+    QueryPlanAdvisor(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    @Override
+    public void onStatement(String sql, long elapsedNanos, int rowsRead, int rowsWritten) {
+        LongAdder count = calls.get(sql);
+        if (count == null) {
+            if (analyzing.get() != null || calls.size() >= MAX_SHAPES || !SQLiteDatabase.isExplainable(sql)) {
+                return;
+            }
+            final LongAdder created = new LongAdder();
+            count = calls.putIfAbsent(sql, created);
+            if (count == null) {
+                count = created;
+                // Never explained here, where the write lock or the only reader may be held
+                this.explainer.execute(() -> shapes.put(sql, analyze(sql)));
+            }
+        }
+        count.increment();
+    }
+
+    /**
+     * Sets the number of rows a table must have for a scan of it to be flagged.
+     * @param rows the minimum number of rows
+     */
+    public QueryPlanAdvisor setLargeTableRows(long rows) {
+        this.largeTableRows = rows;
+        return this;
+    }
+
+    /**
+     * Gets the plan of every statement shape whose plan is captured so far, the most called first.
+     * @return the plans
+     */
+    public List<Plan> getPlans() {
+        final List<Plan> plans = new ArrayList<>(shapes.size());
+        for (Shape shape : shapes.values()) {
+            plans.add(shape.snapshot(this));
+        }
+        Collections.sort(plans, (a, b) -> Long.compare(b.getCallCount(), a.getCallCount()));
+        return plans;
+    }
+
+    /**
+     * Gets the plans that scan a large table or sort in a temp b-tree.
+     * @return the flagged plans, the most called first
+     */
+    public List<Plan> getFlaggedPlans() {
+        final List<Plan> flagged = new ArrayList<>();
+        for (Plan plan : getPlans()) {
+            if (plan.isFlagged()) {
+                flagged.add(plan);
+            }
+        }
+        return flagged;
+    }
+
+    /**
+     * Gets an index suggestion for each table and column list that flagged plans filter
+     * or sort on, the most called first.
+     *
+     * @return the index suggestions
+     */
+    public List<IndexSuggestion> getSuggestions() {
+        final Map<String, IndexSuggestion> suggestions = new LinkedHashMap<>();
+        for (Plan plan : getFlaggedPlans()) {
+            final Shape shape = shapes.get(plan.getSql());
+            for (String table : plan.getLargeScans()) {
+                final List<String> columns = shape.columnsOf(table);
+                if (columns.isEmpty()) {
+                    continue;
+                }
+                final String key = table + columns;
+                IndexSuggestion suggestion = suggestions.get(key);
+                if (suggestion == null) {
+                    suggestion = new IndexSuggestion(table, columns, rowsOf(table));
+                    suggestions.put(key, suggestion);
+                }
+                suggestion.shapeCount++;
+                suggestion.callCount += plan.getCallCount();
+            }
+        }
+        final List<IndexSuggestion> sorted = new ArrayList<>(suggestions.values());
+        Collections.sort(sorted, (a, b) -> Long.compare(b.callCount, a.callCount));
+        return sorted;
+    }
+
+    /**
+     * Gets a readable report of the flagged plans and index suggestions.
+     * @return the report
+     */
+    public String getReport() {
+        final List<Plan> plans = getPlans();
+        final List<Plan> flagged = getFlaggedPlans();
+        final StringBuilder sb = new StringBuilder();
+        sb.append("Query plan report: ").append(plans.size()).append(" statement shapes, ")
+                .append(flagged.size()).append(" flagged");
+        for (Plan plan : flagged) {
+            sb.append("\n  ").append(plan.getCallCount()).append(" calls: ").append(plan.getSql());
+            for (String table : plan.getLargeScans()) {
+                sb.append("\n    SCAN ").append(table).append(" (").append(describeRows(rowsOf(table))).append(')');
+            }
+            if (plan.usesTempSort()) {
+                sb.append("\n    USE TEMP B-TREE");
+            }
+        }
+
+        final List<IndexSuggestion> suggestions = getSuggestions();
+        if (!suggestions.isEmpty()) {
+            sb.append("\nSuggested indexes:");
+            for (IndexSuggestion suggestion : suggestions) {
+                sb.append("\n  ").append(suggestion.getCreateStatement()).append(" -- ")
+                        .append(suggestion.shapeCount).append(" shapes, ")
+                        .append(suggestion.callCount).append(" calls, ")
+                        .append(describeRows(suggestion.estimatedRows));
+            }
+        }
+
+        int literals = 0;
+        for (Plan plan : plans) {
+            if (plan.hasLiterals()) {
+                literals++;
+            }
+        }
+        if (literals > 0) {
+            sb.append("\n").append(literals).append(" shapes have values written into their SQL;")
+                    .append(" bind them with '?' so they share one shape and one compiled statement");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Logs the report at INFO to the "com.tylersuehr.sql" logger every period, until
+     * {@link #stopReporting()} is called.
+     *
+     * @param period the time between reports
+     * @param unit the unit of the period
+     */
+    public synchronized void startReporting(long period, TimeUnit unit) {
+        stopReporting();
+        this.reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "SQLite-PlanReport");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.reporter.scheduleAtFixedRate(() -> SQLiteDatabase.LOG.info(getReport()), period, period, unit);
+    }
+
+    public synchronized void stopReporting() {
+        if (reporter != null) {
+            this.reporter.shutdownNow();
+            this.reporter = null;
+        }
+    }
+
+    /**
+     * Forgets every captured plan and row count, so they're captured again; useful
+     * after creating indexes or running ANALYZE.
+     */
+    public void clear() {
+        this.calls.clear();
+        this.shapes.clear();
+        this.tableRows.clear();
+    }
+
+    private Shape analyze(String sql) {
+        this.analyzing.set(Boolean.TRUE);
+        try {
+            final List<String> steps = db.explainQueryPlan(sql);
+            final Shape shape = new Shape(sql, (steps != null) ? steps : Collections.<String>emptyList(),
+                    StatementShape.parse(sql));
+            for (Scan scan : shape.scans) {
+                rowsOf(scan.table);
+            }
+            return shape;
+        } finally {
+            this.analyzing.remove();
+        }
+    }
+
+    /**
+     * Gets the estimated row count of a table, looking it up the first time.
+     * @return the row count, or -1 if unknown
+     */
+    private long rowsOf(String table) {
+        Long rows = tableRows.get(table);
+        if (rows == null) {
+            final boolean nested = (analyzing.get() != null);
+            this.analyzing.set(Boolean.TRUE);
+            try {
+                rows = estimateRows(table);
+            } finally {
+                if (!nested) {
+                    this.analyzing.remove();
+                }
+            }
+            this.tableRows.put(table, rows);
+        }
+        return rows;
+    }
+
+    private long estimateRows(String table) {
+        // sqlite_stat1 only exists once ANALYZE has been run
+        long rows = -1;
+        if (queryLong("SELECT COUNT(*) FROM [sqlite_master] WHERE [name]='sqlite_stat1';", null) > 0) {
+            rows = queryLong("SELECT [stat] FROM [sqlite_stat1] WHERE [tbl]=? LIMIT 1;", table);
+        }
+        if (rows < 0) {
+            rows = queryLong("SELECT MAX(_rowid_) FROM [" + table + "];", null);
+        }
+        return rows;
+    }
+
+    /**
+     * Runs a query and reads the leading number of its first column.
+     * @return the number, or -1 if there was none
+     */
+    private long queryLong(String sql, String arg) {
+        try (Cursor c = db.rawQueryCursor(sql, (arg != null) ? new Object[] { arg } : null)) {
+            if (c != null && c.moveToNext() && !c.isNull(0)) {
+                final Matcher matcher = LEADING_NUMBER.matcher(c.getString(0));
+                return matcher.find() ? Long.parseLong(matcher.group(1)) : -1;
+            }
+            return -1;
+        }
+    }
+
+    private static String describeRows(long rows) {
+        return (rows < 0) ? "row count unknown" : "~" + rows + " rows";
+    }
+
+    /**
+     * A full table scan in a plan.
+     */
+    private static final class Scan {
+        final String table;
+        final String alias;
+
+        Scan(String table, String alias) {
+            this.table = table;
+            this.alias = alias;
+        }
+    }
+
+    /**
+     * Stores the captured plan of one statement shape.
+     */
+    private static final class Shape {
+        final String sql;
+        final List<String> steps;
+        final StatementShape columns;
+        final List<Scan> scans = new ArrayList<>();
+        final boolean tempSort;
+
+        Shape(String sql, List<String> steps, StatementShape columns) {
+            this.sql = sql;
+            this.steps = steps;
+            this.columns = columns;
+
+            boolean tempSort = false;
+            for (String step : steps) {
+                final Matcher matcher = SCAN.matcher(step.trim());
+                if (matcher.matches()) {
+                    final String table = matcher.group(1);
+                    final String rest = matcher.group(3);
+                    if (!rest.contains("USING") && !table.equals("SUBQUERY") && !table.equals("CONSTANT")) {
+                        this.scans.add(new Scan(table, matcher.group(2)));
+                    }
+                } else if (step.contains("USE TEMP B-TREE")) {
+                    tempSort = true;
+                }
+            }
+            this.tempSort = tempSort;
+        }
+
+        Plan snapshot(QueryPlanAdvisor advisor) {
+            final List<String> largeScans = new ArrayList<>();
+            for (Scan scan : scans) {
+                final long rows = advisor.rowsOf(scan.table);
+                if (rows < 0 || rows >= advisor.largeTableRows) {
+                    largeScans.add(scan.table);
+                }
+            }
+            final LongAdder calls = advisor.calls.get(sql);
+            return new Plan(sql, steps, largeScans, tempSort, columns.hasLiterals, (calls != null) ? calls.sum() : 0);
+        }
+
+        /**
+         * Gets the index columns that belong to the given table: unqualified ones, or
+         * those qualified by its name or alias.
+         */
+        List<String> columnsOf(String table) {
+            String alias = null;
+            for (Scan scan : scans) {
+                if (scan.table.equals(table)) {
+                    alias = scan.alias;
+                }
+            }
+
+            final List<String> result = new ArrayList<>();
+            for (String column : columns.getIndexColumns()) {
+                final int dot = column.lastIndexOf('.');
+                if (dot < 0) {
+                    result.add(column);
+                } else {
+                    final String qualifier = column.substring(0, dot);
+                    if (qualifier.equalsIgnoreCase(table) || qualifier.equalsIgnoreCase(alias)) {
+                        result.add(column.substring(dot + 1));
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Immutable snapshot of one statement shape's plan.
+     */
+    public static final class Plan {
+        private final String sql;
+        private final List<String> steps;
+        private final List<String> largeScans;
+        private final boolean tempSort;
+        private final boolean literals;
+        private final long callCount;
+
+
+        Plan(String sql, List<String> steps, List<String> largeScans, boolean tempSort,
+             boolean literals, long callCount) {
+            this.sql = sql;
+            this.steps = Collections.unmodifiableList(steps);
+            this.largeScans = Collections.unmodifiableList(largeScans);
+            this.tempSort = tempSort;
+            this.literals = literals;
+            this.callCount = callCount;
+        }
+
+        @Override
+        public String toString() {
+            return sql + "\n  " + String.join("\n  ", steps);
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        /**
+         * Gets the steps of the plan, as reported by EXPLAIN QUERY PLAN.
+         */
+        public List<String> getSteps() {
+            return steps;
+        }
+
+        /**
+         * Gets the large tables this plan scans in full.
+         */
+        public List<String> getLargeScans() {
+            return largeScans;
+        }
+
+        /**
+         * Determines if this plan sorts or groups its rows in a temp b-tree.
+         */
+        public boolean usesTempSort() {
+            return tempSort;
+        }
+
+        /**
+         * Determines if the statement has values written into its SQL, instead of
+         * bound with '?'.
+         */
+        public boolean hasLiterals() {
+            return literals;
+        }
+
+        public long getCallCount() {
+            return callCount;
+        }
+
+        /**
+         * Determines if this plan scans a large table or sorts in a temp b-tree.
+         */
+        public boolean isFlagged() {
+            return !largeScans.isEmpty() || tempSort;
+        }
+    }
+
+    /**
+     * A suggested index, with how many shapes and calls would use it.
+     */
+    public static final class IndexSuggestion {
+        private final String table;
+        private final List<String> columns;
+        private final long estimatedRows;
+        private int shapeCount;
+        private long callCount;
+
+
+        IndexSuggestion(String table, List<String> columns, long estimatedRows) {
+            this.table = table;
+            this.columns = Collections.unmodifiableList(columns);
+            this.estimatedRows = estimatedRows;
+        }
+
+        @Override
+        public String toString() {
+            return getCreateStatement();
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        public List<String> getColumns() {
+            return columns;
+        }
+
+        /**
+         * Gets the estimated row count of the table.
+         * @return the row count, or -1 if unknown
+         */
+        public long getEstimatedRows() {
+            return estimatedRows;
+        }
+
+        public int getShapeCount() {
+            return shapeCount;
+        }
+
+        public long getCallCount() {
+            return callCount;
+        }
+
+        /**
+         * Gets the statement that creates the suggested index.
+         * @return the CREATE INDEX statement
+         */
+        public String getCreateStatement() {
+            final StringBuilder name = new StringBuilder("idx_").append(table);
+            final StringBuilder cols = new StringBuilder();
+            for (String column : columns) {
+                name.append('_').append(column);
+                if (cols.length() > 0) {
+                    cols.append(',');
+                }
+                cols.append('[').append(column).append(']');
+            }
+            return String.format(Locale.ROOT, "CREATE INDEX IF NOT EXISTS [%s] ON [%s](%s);", name, table, cols);
+        }
+    }
+}
@@ -0,0 +1,511 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.tylersuehr.sql;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Opt-in cache of query results, so identical queries repeated between writes skip
+ * SQLite entirely.
+ *
+ * Results are keyed by their normalized SQL and bound arguments, and kept as compact
+ * rows: one flat array of values per result. Every write made through the database
+ * bumps the version of the table it writes, both when it runs and once it's committed
+ * or rolled back; a cached result is only served while the versions of all the tables
+ * it read are unchanged, so it's never stale. Statements whose target can't be told
+ * from their SQL, such as schema changes, bump every table at once, as does any write
+ * while the schema has triggers or foreign keys, since those write other tables too.
+ *
+ * Only plain SELECTs over tables are cached. Queries on views, temporary or attached
+ * tables, table-valued functions or the schema, and queries calling functions like
+ * random() or datetime(), always run. So does every query made inside a transaction,
+ * every {@link SQLiteDatabase#stream(String, String, Object[], RowMapper)} and every
+ * {@link BulkExporter} export, which are meant to scan in constant memory. A
+ * cacheable query is read in full before its cursor is returned; a shape that returns
+ * more rows than the row limit isn't cached again.
+ *
+ * All cacheable queries are cached by default; individual queries can opt out (or in,
+ * if the default is off) with {@link #setCached(String, boolean)}. The memory used is
+ * bounded by the maximum size given when enabling the cache, an estimate in bytes.
+ *
+ * Writes made behind the database's back, such as by another process, are not seen.
+ *
+ * <pre>
+ *   ResultCache cache = db.enableResultCache(16 * 1024 * 1024);
+ *   cache.setCached("SELECT * FROM [audit] WHERE [id]=?;", false);
+ * </pre>
+ *
+ * Create one using {@link SQLiteDatabase#enableResultCache(long)}.
+ *
+ * @author Tyler Suehr
+ */
+public final class ResultCache {
+    private static final int MAX_PLANS = 512;
+    private static final String SCHEMA_SQL = "SELECT [type] FROM [sqlite_master] WHERE [name]=? COLLATE NOCASE;";
+    private static final String SIDE_EFFECTS_SQL = "SELECT COUNT(*) FROM [sqlite_master] WHERE [type]='trigger'"
+            + " OR ([type]='table' AND [sql] LIKE '%REFERENCES%');";
+    private static final Plan UNCACHEABLE = new Plan(null);
+
+    private final SQLiteDatabase db;
+    private final BoundedCache<Key, Rows> results;
+    private final Map<String, AtomicLong> tableVersions = new ConcurrentHashMap<>();
+    /* Bumped by writes that may touch any table */
+    private final AtomicLong epoch = new AtomicLong();
+    private final Map<String, Plan> plans = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> overrides = new ConcurrentHashMap<>();
+    /* Whether writes can change other tables, null until checked */
+    volatile Boolean sideEffects;
+    private volatile boolean cachedByDefault = true;
+    private volatile int maxRows = 10000;
+    private final LongAdder bypassCount = new LongAdder();
+
+
+    ResultCache(SQLiteDatabase db, long maxBytes) {
+        this.db = db;
+        this.results = new BoundedCache<Key, Rows>(maxBytes).setWeigher((key, rows) -> rows.weight);
+    }
+
+    /**
+     * Sets whether cacheable queries are cached unless opted out; true by default.
+     */
+    public ResultCache setCachedByDefault(boolean cachedByDefault) {
+        this.cachedByDefault = cachedByDefault;
+        return this;
+    }
+
+    /**
+     * Opts the given query in or out of the cache, whatever the default. Queries that
+     * can't be cached safely are never cached.
+     *
+     * @param sql the query, as passed to the database or generated by it
+     * @param cached true to cache its results, false to always run it
+     */
+    public ResultCache setCached(String sql, boolean cached) {
+        this.overrides.put(normalize(sql), cached);
+        return this;
+    }
+
+    /**
+     * Sets the most rows a result can have to be cached; 10000 by default.
+     */
+    public ResultCache setMaxRows(int maxRows) {
+        if (maxRows < 1) {
+            throw new IllegalArgumentException("Max rows must be at least 1!");
+        }
+        this.maxRows = maxRows;
+        return this;
+    }
+
+    /**
+     * Drops every cached result.
+     */
+    public void clear() {
+        this.results.clear();
+    }
+
+    /**
+     * Gets a snapshot of the cache's counters; the sizes are estimates in bytes.
+     */
+    public CacheStats getStats() {
+        return results.getStats();
+    }
+
+    /**
+     * Gets the number of queries that ran without the cache, because they could not
+     * be cached or were opted out.
+     */
+    public long getBypassCount() {
+        return bypassCount.sum();
+    }
+
+    /**
+     * Runs the given query, or serves it from the cache.
+     * @return a cursor over the results, which must be closed, or null if it failed
+     */
+    Cursor query(String sql, Object[] args) {
+        final String normalized = normalize(sql);
+        final Plan plan = planOf(normalized);
+        if (bypasses(normalized, plan)) {
+            this.bypassCount.increment();
+            return db.openCursor(sql, args);
+        }
+
+        this.db.acquireReference();
+        try {
+            // Versions are read before the query runs, so a write racing with it
+            // leaves the result under versions that are already out of date
+            final Key key = keyOf(normalized, args, plan);
+            final Rows cached = results.get(key);
+            if (cached != null) {
+                return new Cursor(db, sql, cached.columns, cached.values, cached.rowCount);
+            }
+
+            final Rows rows;
+            try (Cursor live = db.openCursor(sql, args)) {
+                if (live == null) {
+                    return null;
+                }
+                rows = read(live);
+                if (rows == null) {
+                    // Too many rows to cache; stop caching this shape and run it again
+                    plan.tooLarge = true;
+                    this.bypassCount.increment();
+                    return db.openCursor(sql, args);
+                }
+                if (live.hasFailed()) {
+                    return new Cursor(db, sql, rows.columns, rows.values, rows.rowCount);
+                }
+            }
+            this.results.put(key, rows);
+            return new Cursor(db, sql, rows.columns, rows.values, rows.rowCount);
+        } finally {
+            this.db.releaseReference();
+        }
+    }
+
+    /**
+     * Bumps the version of the given table, or of every table if writes to it can
+     * change others.
+     */
+    void invalidate(String table) {
+        if (!Boolean.FALSE.equals(sideEffects)) {
+            invalidateAll();
+            return;
+        }
+        versionOf(tableName(table)).incrementAndGet();
+    }
+
+    /**
+     * Bumps the version of every table.
+     */
+    void invalidateAll() {
+        this.epoch.incrementAndGet();
+    }
+
+    /**
+     * Forgets what is known about the schema, after a statement that may change it.
+     */
+    void schemaChanged() {
+        this.plans.clear();
+        this.sideEffects = null;
+        invalidateAll();
+    }
+
+    /**
+     * Bumps the versions a raw statement may change: its table for an INSERT, UPDATE
+     * or DELETE, otherwise every table, as it may change the schema.
+     *
+     * @return the table written, or null if it may be any
+     */
+    String invalidateStatement(String sql) {
+        final String table = StatementShape.parse(sql).writeTable;
+        if (table != null) {
+            invalidate(table);
+        } else {
+            schemaChanged();
+        }
+        return table;
+    }
+
+    /**
+     * Determines if a query must run without the cache: it can't be cached, returned
+     * too many rows before or was opted out.
+     */
+    boolean bypasses(String normalized, Plan plan) {
+        return plan.tables == null || plan.tooLarge || !isCached(normalized);
+    }
+
+    /**
+     * Gets the key of a query's result at the current versions of the tables it reads.
+     */
+    Key keyOf(String normalized, Object[] args, Plan plan) {
+        return new Key(normalized, args, epoch.get(), versionsOf(plan.tables));
+    }
+
+    private boolean isCached(String normalized) {
+        final Boolean cached = overrides.get(normalized);
+        return (cached != null) ? cached : cachedByDefault;
+    }
+
+    private Plan planOf(String normalized) {
+        Plan plan = plans.get(normalized);
+        if (plan == null) {
+            if (sideEffects == null) {
+                this.sideEffects = checkSideEffects();
+            }
+            plan = createPlan(normalized, this::isTable);
+            if (plans.size() >= MAX_PLANS) {
+                this.plans.clear();
+            }
+            this.plans.put(normalized, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * Finds the tables a query reads, if it can be cached.
+     *
+     * @param isTable determines if a name is a table of the main schema
+     */
+    static Plan createPlan(String normalized, Predicate<String> isTable) {
+        final StatementShape shape = StatementShape.parse(normalized);
+        if (!shape.isSelect || shape.isVolatile || shape.hasTableFunction || shape.tables.isEmpty()) {
+            return UNCACHEABLE;
+        }
+        final String[] tables = new String[shape.tables.size()];
+        int i = 0;
+        for (String name : shape.tables) {
+            String table = name.toLowerCase(Locale.ROOT);
+            if (table.startsWith("main.")) {
+                table = table.substring(5);
+            }
+            if (table.indexOf('.') >= 0 || table.startsWith("sqlite_") || !isTable.test(table)) {
+                return UNCACHEABLE;
+            }
+            tables[i++] = table;
+        }
+        return new Plan(tables);
+    }
+
+    /**
+     * Determines if the given name is a table of the main schema, not a view or a
+     * temporary table.
+     */
+    private boolean isTable(String name) {
+        try (Cursor c = db.openCursor(SCHEMA_SQL, new Object[] { name })) {
+            return c != null && c.moveToNext() && "table".equals(c.getString(0));
+        }
+    }
+
+    /**
+     * @return true if the schema has triggers or foreign keys, or couldn't be checked
+     */
+    private boolean checkSideEffects() {
+        try (Cursor c = db.openCursor(SIDE_EFFECTS_SQL, null)) {
+            return c == null || !c.moveToNext() || c.getLong(0) > 0;
+        }
+    }
+
+    private long[] versionsOf(String[] tables) {
+        final long[] versions = new long[tables.length];
+        for (int i = 0; i < tables.length; i++) {
+            final AtomicLong version = tableVersions.get(tables[i]);
+            versions[i] = (version != null) ? version.get() : 0;
+        }
+        return versions;
+    }
+
+    private AtomicLong versionOf(String table) {
+        AtomicLong version = tableVersions.get(table);
+        if (version == null) {
+            final AtomicLong created = new AtomicLong();
+            version = tableVersions.putIfAbsent(table, created);
+            if (version == null) {
+                version = created;
+            }
+        }
+        return version;
+    }
+
+    /**
+     * Copies every row of the cursor.
+     * @return the rows, or null if there are more than the row limit
+     */
+    private Rows read(Cursor live) {
+        final int columnCount = live.getColumnCount();
+        final String[] columns = live.getColumnNames();
+        final int limit = maxRows;
+        Object[] values = new Object[columnCount * 16];
+        int rowCount = 0;
+        long weight = 64;
+        for (String column : columns) {
+            weight += 40 + 2L * column.length();
+        }
+        while (live.moveToNext()) {
+            if (rowCount >= limit) {
+                return null;
+            }
+            final int offset = rowCount * columnCount;
+            if (offset + columnCount > values.length) {
+                values = Arrays.copyOf(values, Math.max(offset + columnCount, values.length * 2));
+            }
+            for (int i = 0; i < columnCount; i++) {
+                final Object value = live.getValue(i);
+                values[offset + i] = value;
+                weight += weightOf(value);
+            }
+            rowCount++;
+        }
+        values = Arrays.copyOf(values, rowCount * columnCount);
+        return new Rows(columns, values, rowCount, (int)Math.min(Integer.MAX_VALUE, weight));
+    }
+
+    /**
+     * Estimates the bytes taken by one value, including its slot in the row array.
+     */
+    private static long weightOf(Object value) {
+        if (value == null) {
+            return 4;
+        } else if (value instanceof String) {
+            return 4 + 40 + 2L * ((String)value).length();
+        } else if (value instanceof byte[]) {
+            return 4 + 16 + ((byte[])value).length;
+        }
+        return 4 + 16;
+    }
+
+    /**
+     * Gets the name a table is tracked by: lower-cased, without the "main." schema.
+     */
+    static String tableName(String table) {
+        final String name = table.toLowerCase(Locale.ROOT);
+        return name.startsWith("main.") ? name.substring(5) : name;
+    }
+
+    /**
+     * Trims the SQL, drops a trailing ';' and collapses whitespace outside of quotes,
+     * so trivially different spellings of a query share one cache entry.
+     */
+    static String normalize(String sql) {
+        final StringBuilder sb = new StringBuilder(sql.length());
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0; i < sql.length(); i++) {
+            final char c = sql.charAt(i);
+            if (quote != 0) {
+                sb.append(c);
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+            } else {
+                if (space) {
+                    sb.append(' ');
+                    space = false;
+                }
+                if (c == '\'' || c == '"' || c == '`') {
+                    quote = c;
+                } else if (c == '[') {
+                    quote = ']';
+                }
+                sb.append(c);
+            }
+        }
+        int end = sb.length();
+        while (quote == 0 && end > 0 && (sb.charAt(end - 1) == ';' || sb.charAt(end - 1) == ' ')) {
+            end--;
+        }
+        sb.setLength(end);
+        return sb.toString();
+    }
+
+
+    /**
+     * Tables read by a query shape, or null if it can't be cached.
+     */
+    static final class Plan {
+        final String[] tables;
+        /* Set once a result had too many rows to cache */
+        volatile boolean tooLarge;
+
+
+        Plan(String[] tables) {
+            this.tables = tables;
+        }
+    }
+
+
+    /**
+     * A query, its arguments and the table versions it was run at.
+     */
+    static final class Key {
+        final String sql;
+        final Object[] args;
+        final long epoch;
+        final long[] versions;
+        final int hash;
+
+
+        Key(String sql, Object[] args, long epoch, long[] versions) {
+            this.sql = sql;
+            this.args = (args != null) ? args.clone() : null;
+            this.epoch = epoch;
+            this.versions = versions;
+
+            int h = sql.hashCode();
+            h = 31 * h + Arrays.deepHashCode(this.args);
+            h = 31 * h + Long.hashCode(epoch);
+            h = 31 * h + Arrays.hashCode(versions);
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key)obj;
+            return hash == other.hash
+                    && epoch == other.epoch
+                    && sql.equals(other.sql)
+                    && Arrays.equals(versions, other.versions)
+                    && Arrays.deepEquals(args, other.args);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+
+    /**
+     * Compact copy of a result: every value, row after row.
+     */
+    private static final class Rows {
+        final String[] columns;
+        final Object[] values;
+        final int rowCount;
+        final int weight;
+
+
+        Rows(String[] columns, Object[] values, int rowCount, int weight) {
+            this.columns = columns;
+            this.values = values;
+            this.rowCount = rowCount;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tylersuehr.sql;
+
+/**
+ * Maps each row of a {@link Cursor} to an object.
+ *
+ * The columns a mapper reads are declared up front by {@link #getColumns()}. They are
+ * resolved to indexes once per cursor, and every row is then read purely by index,
+ * avoiding a column name lookup per field per row.
+ *
+ * <pre>
+ *   public User map(Cursor c, int[] columns) {
+ *       User user = new User();
+ *       user.setId(c.getLong(columns[0]));
+ *       user.setName(c.getString(columns[1]));
+ *       return user;
+ *   }
+ * </pre>
+ *
+ * @param <T> the type of object mapped
+ * @author Tyler Suehr
+ */
+public interface RowMapper<T> {
+    /**
+     * Gets the names of the columns this mapper reads, in the order they should be
+     * resolved into the column index table.
+     *
+     * @return the column names
+     */
+    String[] getColumns();
+
+    /**
+     * Maps the current row of the cursor to an object.
+     *
+     * @param c the cursor, positioned on the row to map
+     * @param columns the index of each column from {@link #getColumns()}, in order
+     * @return the mapped object
+     */
+    T map(Cursor c, int[] columns);
+}
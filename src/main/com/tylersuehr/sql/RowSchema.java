@@ -0,0 +1,82 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tylersuehr.sql;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fixed, ordered set of column names shared by many {@link RowValues}.
+ *
+ * Resolving column names to slots happens once, here, instead of once per row. Create
+ * one schema per statement shape and reuse it for every row.
+ *
+ * @author Tyler Suehr
+ */
+public final class RowSchema {
+    private final String[] columns;
+    private final List<String> columnList;
+    private final Map<String, Integer> slots;
+
+
+    public RowSchema(final String... columns) {
+        if (columns.length == 0) {
+            throw new IllegalArgumentException("Schema must have at least 1 column!");
+        }
+        this.columns = columns.clone();
+        this.columnList = Collections.unmodifiableList(Arrays.asList(this.columns));
+        this.slots = new HashMap<>(columns.length * 2);
+        for (int i = 0; i < columns.length; i++) {
+            if (slots.put(columns[i], i) != null) {
+                throw new IllegalArgumentException("Duplicate column '" + columns[i] + "'!");
+            }
+        }
+    }
+
+    public int size() {
+        return columns.length;
+    }
+
+    public String getColumn(final int slot) {
+        return columns[slot];
+    }
+
+    /**
+     * Gets the slot of the given column.
+     *
+     * @param column the name of the column
+     * @return the slot, or -1 if the column isn't part of this schema
+     */
+    public int getSlot(final String column) {
+        final Integer slot = slots.get(column);
+        return (slot != null) ? slot : -1;
+    }
+
+    List<String> getColumns() {
+        return columnList;
+    }
+}
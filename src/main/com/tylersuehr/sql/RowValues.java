@@ -0,0 +1,218 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tylersuehr.sql;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+
+/**
+ * Reusable, primitive-specialized alternative to {@link ContentValues}.
+ *
+ * Column names live in a shared {@link RowSchema}, and values are kept in parallel
+ * primitive arrays with a type tag per slot, so putting a number never boxes it. Call
+ * {@link #clear()} to reuse the same object for the next row, which makes loading many
+ * rows allocation-free:
+ *
+ * <pre>
+ *   RowSchema schema = new RowSchema("id", "name", "score");
+ *   RowValues row = new RowValues(schema);
+ *   for (...) {
+ *       row.clear().put("id", id).put("name", name).put("score", score);
+ *       db.insert("users", row);
+ *   }
+ * </pre>
+ *
+ * For bulk loads, keep one RowValues per row and pass them all to
+ * {@link SQLiteDatabase#insertRows(String, java.util.List, int)}, which binds them in
+ * JDBC batches instead of committing each row.
+ *
+ * Every column of the schema is written; any slot left unset is written as NULL.
+ *
+ * @author Tyler Suehr
+ */
+public final class RowValues {
+    static final byte TYPE_NULL = 0;
+    static final byte TYPE_LONG = 1;
+    static final byte TYPE_DOUBLE = 2;
+    static final byte TYPE_TEXT = 3;
+    static final byte TYPE_BLOB = 4;
+
+    private final RowSchema schema;
+    private final byte[] types;
+    private final long[] longs;
+    private final double[] doubles;
+    private final Object[] refs;
+
+
+    public RowValues(final RowSchema schema) {
+        this.schema = schema;
+        this.types = new byte[schema.size()];
+        this.longs = new long[schema.size()];
+        this.doubles = new double[schema.size()];
+        this.refs = new Object[schema.size()];
+    }
+
+    public RowSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Resets every slot to NULL, so this object can be reused for the next row.
+     * @return this object
+     */
+    public RowValues clear() {
+        Arrays.fill(types, TYPE_NULL);
+        Arrays.fill(refs, null);
+        return this;
+    }
+
+    public RowValues put(final String key, final String value) {
+        final int slot = slotOf(key);
+        this.types[slot] = (value != null) ? TYPE_TEXT : TYPE_NULL;
+        this.refs[slot] = value;
+        return this;
+    }
+
+    public RowValues put(final String key, final int value) {
+        return put(key, (long)value);
+    }
+
+    public RowValues put(final String key, final short value) {
+        return put(key, (long)value);
+    }
+
+    public RowValues put(final String key, final long value) {
+        final int slot = slotOf(key);
+        this.types[slot] = TYPE_LONG;
+        this.longs[slot] = value;
+        this.refs[slot] = null;
+        return this;
+    }
+
+    public RowValues put(final String key, final float value) {
+        return put(key, (double)value);
+    }
+
+    public RowValues put(final String key, final double value) {
+        final int slot = slotOf(key);
+        this.types[slot] = TYPE_DOUBLE;
+        this.doubles[slot] = value;
+        this.refs[slot] = null;
+        return this;
+    }
+
+    public RowValues put(final String key, final boolean value) {
+        return put(key, value ? 1L : 0L);
+    }
+
+    public RowValues put(final String key, final byte[] value) {
+        final int slot = slotOf(key);
+        this.types[slot] = (value != null) ? TYPE_BLOB : TYPE_NULL;
+        this.refs[slot] = value;
+        return this;
+    }
+
+    public RowValues putNull(final String key) {
+        final int slot = slotOf(key);
+        this.types[slot] = TYPE_NULL;
+        this.refs[slot] = null;
+        return this;
+    }
+
+    public int size() {
+        return types.length;
+    }
+
+    byte getType(final int slot) {
+        return types[slot];
+    }
+
+    long getLong(final int slot) {
+        return longs[slot];
+    }
+
+    double getDouble(final int slot) {
+        return doubles[slot];
+    }
+
+    Object getReference(final int slot) {
+        return refs[slot];
+    }
+
+    /**
+     * Gets the value of a slot, boxed; only used where one value is needed.
+     */
+    Object getValue(final int slot) {
+        switch (types[slot]) {
+            case TYPE_LONG:
+                return longs[slot];
+            case TYPE_DOUBLE:
+                return doubles[slot];
+            default:
+                return refs[slot];
+        }
+    }
+
+    /**
+     * Binds every slot, in schema order, to the given statement.
+     *
+     * @param stmt the statement to bind to
+     * @param start the first bind index to use
+     * @return the next unused bind index
+     * @throws SQLException if a value could not be bound
+     */
+    int bindAll(final PreparedStatement stmt, final int start) throws SQLException {
+        int index = start;
+        for (int slot = 0; slot < types.length; slot++, index++) {
+            switch (types[slot]) {
+                case TYPE_LONG:
+                    stmt.setLong(index, longs[slot]);
+                    break;
+                case TYPE_DOUBLE:
+                    stmt.setDouble(index, doubles[slot]);
+                    break;
+                case TYPE_TEXT:
+                    stmt.setString(index, (String)refs[slot]);
+                    break;
+                case TYPE_BLOB:
+                    stmt.setBytes(index, (byte[])refs[slot]);
+                    break;
+                default:
+                    stmt.setNull(index, Types.NULL);
+                    break;
+            }
+        }
+        return index;
+    }
+
+    private int slotOf(final String key) {
+        final int slot = schema.getSlot(key);
+        if (slot < 0) {
+            throw new IllegalArgumentException("Column '" + key + "' is not part of the schema!");
+        }
+        return slot;
+    }
+}
@@ -23,47 +23,45 @@
  */
 
 package com.tylersuehr.sql;
+import com.tylersuehr.sql.SQLiteDatabase.ConflictAlgorithm;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Utility to help construct SQL queries and commands.
+ *
+ * Statements that don't inline any values are templates; the same shape always
+ * generates the same SQL, so those are kept in a {@link SQLTemplateCache} and
+ * repeated calls are a lookup instead of string building.
+ *
  * @author Tyler Suehr
  */
 final class SQLBuilder {
+    private static final SQLTemplateCache TEMPLATES = new SQLTemplateCache();
+
+
     // SELECT * FROM [table] WHERE [col1] = value ORDER BY [col] LIMIT 0;
     static String createQuery(String table, String selection, String order, String limit) {
-        final StringBuilder sb = new StringBuilder();
-        sb.append("SELECT * FROM ").append("[").append(table).append("]");
-        sb.append(selection != null ? " WHERE " + selection : "");
-        sb.append(order != null ? " ORDER BY " + order : "");
-        sb.append(limit != null ? " LIMIT " + limit : "");
-        sb.append(";");
-        return sb.toString();
+        String sql = TEMPLATES.get(SQLTemplateCache.QUERY, table, (String[])null, selection, order, limit);
+        if (sql == null) {
+            sql = buildQuery(table, null, selection, order, limit);
+            TEMPLATES.put(SQLTemplateCache.QUERY, table, (String[])null, selection, order, limit, sql);
+        }
+        return sql;
     }
 
     // SELECT ([col1],[col2],[col3]) FROM [table] WHERE [col] = value ORDER BY [col] LIMIT 0;
     static String createQuery(String table, String[] cols, String selection, String order, String limit) {
-        final StringBuilder sb = new StringBuilder();
-        sb.append("SELECT ");
-
-        if (cols != null) {
-            sb.append("(");
-            int i = 0;
-            for (String c : cols) {
-                sb.append((i > 0) ? "," : "");
-                sb.append("[").append(c).append("]");
-                i++;
-            }
-            sb.append(") FROM ");
-        } else {
-            sb.append("* FROM ");
+        if (cols == null) {
+            return createQuery(table, selection, order, limit);
         }
-        sb.append("[").append(table).append("]");
-
-        sb.append(selection != null ? " WHERE "  + selection : "");
-        sb.append(order != null ? " ORDER BY " + order : "");
-        sb.append(limit != null ? " LIMIT " + limit : "");
-        sb.append(";");
-        return sb.toString();
+        String sql = TEMPLATES.get(SQLTemplateCache.QUERY, table, cols, selection, order, limit);
+        if (sql == null) {
+            sql = buildQuery(table, cols, selection, order, limit);
+            TEMPLATES.put(SQLTemplateCache.QUERY, table, cols, selection, order, limit, sql);
+        }
+        return sql;
     }
 
     // INSERT INTO [table] ([col1],[col2],[col3],[col4]) VALUES ('test', 'test2', 123, 12.123);
@@ -115,18 +113,197 @@ final class SQLBuilder {
             i++;
         }
 
-        sb.append(selection != null ? " WHERE " + selection : "");
+        appendClause(sb, " WHERE ", selection);
         sb.append(";");
         return sb.toString();
     }
 
+    // INSERT INTO [table] ([col1],[col2],[col3]) VALUES (?,?,?);
+    static String createInsertTemplate(String table, Iterable<String> cols) {
+        return createInsertTemplate(table, cols, null);
+    }
+
+    // INSERT OR REPLACE INTO [table] ([col1],[col2],[col3]) VALUES (?,?,?);
+    static String createInsertTemplate(String table, Iterable<String> cols, ConflictAlgorithm conflict) {
+        final String or = (conflict != null) ? conflict.name() : null;
+        String sql = TEMPLATES.get(SQLTemplateCache.INSERT, table, cols, or, null, null);
+        if (sql == null) {
+            sql = buildInsert(table, cols, 1, conflict, null);
+            TEMPLATES.put(SQLTemplateCache.INSERT, table, cols, or, null, null, sql);
+        }
+        return sql;
+    }
+
+    // INSERT INTO [table] ([col1],[col2]) VALUES (?,?) ON CONFLICT([col1]) DO UPDATE SET [col2]=excluded.[col2];
+    static String createUpsertTemplate(String table, Iterable<String> cols, String[] conflictCols) {
+        final String target = String.join(",", conflictCols);
+        String sql = TEMPLATES.get(SQLTemplateCache.UPSERT, table, cols, target, null, null);
+        if (sql == null) {
+            sql = buildInsert(table, cols, 1, null, conflictCols);
+            TEMPLATES.put(SQLTemplateCache.UPSERT, table, cols, target, null, null, sql);
+        }
+        return sql;
+    }
+
+    // UPDATE [table] SET [col2]=? WHERE [col1]=?; the second half of an upsert before SQLite 3.24
+    static String createUpsertUpdateTemplate(String table, Iterable<String> cols, String[] conflictCols) {
+        final List<String> conflicts = Arrays.asList(conflictCols);
+        final List<String> updated = new ArrayList<>();
+        for (String col : cols) {
+            if (!conflicts.contains(col)) {
+                updated.add(col);
+            }
+        }
+        if (updated.isEmpty()) {
+            return null;
+        }
+
+        final StringBuilder selection = new StringBuilder();
+        for (int i = 0; i < conflictCols.length; i++) {
+            selection.append((i > 0) ? " AND " : "");
+            selection.append("[").append(conflictCols[i]).append("]=?");
+        }
+        return createUpdateTemplate(table, updated, selection.toString());
+    }
+
+    // UPDATE [table] SET [col1]=?,[col2]=? WHERE [col3] = 3;
+    static String createUpdateTemplate(String table, Iterable<String> cols, String selection) {
+        String sql = TEMPLATES.get(SQLTemplateCache.UPDATE, table, cols, selection, null, null);
+        if (sql == null) {
+            sql = buildUpdateTemplate(table, cols, selection);
+            TEMPLATES.put(SQLTemplateCache.UPDATE, table, cols, selection, null, null, sql);
+        }
+        return sql;
+    }
+
     // DELETE FROM [table] WHERE [col1] = 23;
     static String createDelete(String table, String selection) {
+        String sql = TEMPLATES.get(SQLTemplateCache.DELETE, table, (String[])null, selection, null, null);
+        if (sql == null) {
+            sql = buildDelete(table, selection);
+            TEMPLATES.put(SQLTemplateCache.DELETE, table, (String[])null, selection, null, null, sql);
+        }
+        return sql;
+    }
+
+    /**
+     * Clears all the cached SQL templates.
+     */
+    static void clearTemplates() {
+        TEMPLATES.clear();
+    }
+
+    static String buildQuery(String table, String[] cols, String selection, String order, String limit) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("SELECT ");
+
+        if (cols != null) {
+            sb.append("(");
+            int i = 0;
+            for (String c : cols) {
+                sb.append((i > 0) ? "," : "");
+                sb.append("[").append(c).append("]");
+                i++;
+            }
+            sb.append(") FROM ");
+        } else {
+            sb.append("* FROM ");
+        }
+        sb.append("[").append(table).append("]");
+
+        appendClause(sb, " WHERE ", selection);
+        appendClause(sb, " ORDER BY ", order);
+        appendClause(sb, " LIMIT ", limit);
+        sb.append(";");
+        return sb.toString();
+    }
+
+    // INSERT [OR ...] INTO [table] ([col1],[col2]) VALUES (?,?),(?,?) [ON CONFLICT(...) DO ...];
+    static String buildInsert(String table, Iterable<String> cols, int rows,
+                              ConflictAlgorithm conflict, String[] conflictCols) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("INSERT ");
+        if (conflict != null) {
+            sb.append("OR ").append(conflict.name()).append(" ");
+        }
+        sb.append("INTO ");
+        sb.append("[").append(table).append("] (");
+
+        int i = 0;
+        for (String col : cols) {
+            sb.append((i > 0) ? "," : "");
+            sb.append("[").append(col).append("]");
+            i++;
+        }
+        sb.append(") VALUES ");
+
+        for (int r = 0; r < rows; r++) {
+            sb.append((r > 0) ? ",(" : "(");
+            for (int j = 0; j < i; j++) {
+                sb.append((j > 0) ? ",?" : "?");
+            }
+            sb.append(")");
+        }
+
+        if (conflictCols != null) {
+            appendUpsert(sb, cols, conflictCols);
+        }
+        sb.append(";");
+        return sb.toString();
+    }
+
+    static String buildUpdateTemplate(String table, Iterable<String> cols, String selection) {
+        final StringBuilder sb = new StringBuilder(120);
+        sb.append("UPDATE ");
+        sb.append("[").append(table).append("]");
+        sb.append(" SET ");
+
+        int i = 0;
+        for (String col : cols) {
+            sb.append((i > 0) ? "," : "");
+            sb.append("[").append(col).append("]=?");
+            i++;
+        }
+
+        appendClause(sb, " WHERE ", selection);
+        sb.append(";");
+        return sb.toString();
+    }
+
+    static String buildDelete(String table, String selection) {
         final StringBuilder sb = new StringBuilder();
         sb.append("DELETE FROM ");
         sb.append("[").append(table).append("]");
-        sb.append(selection != null ? " WHERE " + selection : "");
+        appendClause(sb, " WHERE ", selection);
         sb.append(";");
         return sb.toString();
     }
-}
\ No newline at end of file
+
+    private static void appendUpsert(StringBuilder sb, Iterable<String> cols, String[] conflictCols) {
+        sb.append(" ON CONFLICT(");
+        for (int i = 0; i < conflictCols.length; i++) {
+            sb.append((i > 0) ? "," : "");
+            sb.append("[").append(conflictCols[i]).append("]");
+        }
+        sb.append(")");
+
+        int i = 0;
+        for (String col : cols) {
+            if (Arrays.asList(conflictCols).contains(col)) {
+                continue;
+            }
+            sb.append((i > 0) ? "," : " DO UPDATE SET ");
+            sb.append("[").append(col).append("]=excluded.[").append(col).append("]");
+            i++;
+        }
+        if (i == 0) {
+            sb.append(" DO NOTHING");
+        }
+    }
+
+    private static void appendClause(StringBuilder sb, String keyword, String clause) {
+        if (clause != null) {
+            sb.append(keyword).append(clause);
+        }
+    }
+}
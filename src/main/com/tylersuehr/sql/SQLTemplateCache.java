@@ -0,0 +1,254 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tylersuehr.sql;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of generated SQL templates, keyed by the shape of the statement: operation,
+ * table, ordered column set and clauses. What each clause holds depends on the
+ * operation; for queries they are the WHERE, ORDER BY and LIMIT clauses.
+ *
+ * The most recent template of each operation is checked first by comparing its parts
+ * in place; repeated calls with the same table and columns, the common case, never get
+ * past it. Columns given as an array or a random access list are compared by index,
+ * which doesn't allocate; any other collection, such as the key set of
+ * {@link ContentValues}, costs one iterator. Other shapes are looked up in a bounded
+ * map, which is simply cleared once it fills up.
+ *
+ * @author Tyler Suehr
+ */
+final class SQLTemplateCache {
+    static final int QUERY = 0;
+    static final int INSERT = 1;
+    static final int UPDATE = 2;
+    static final int DELETE = 3;
+    static final int UPSERT = 4;
+    private static final int MAX_SIZE = 512;
+
+    /*
+     * Stores the most recent template of each operation. Read and written without
+     * synchronization: templates are immutable with final fields, so a thread sees a
+     * whole template or a stale one, which only costs a map lookup.
+     */
+    private final Template[] recent = new Template[5];
+    private final Map<Template, Template> templates = new ConcurrentHashMap<>();
+
+
+    /**
+     * Gets the cached template matching the given shape.
+     *
+     * @return the cached template's SQL, or null if not cached
+     */
+    String get(int op, String table, Iterable<String> cols, String selection, String order, String limit) {
+        final Template last = recent[op];
+        if (last != null && last.matches(op, table, selection, order, limit) && last.matchesColumns(cols)) {
+            return last.sql;
+        }
+        return find(new Template(op, table, toArray(cols), selection, order, limit, null));
+    }
+
+    /**
+     * Gets the cached template matching the given shape, whose columns are an array.
+     *
+     * @return the cached template's SQL, or null if not cached
+     */
+    String get(int op, String table, String[] cols, String selection, String order, String limit) {
+        final Template last = recent[op];
+        if (last != null && last.matches(op, table, selection, order, limit) && last.matchesColumns(cols)) {
+            return last.sql;
+        }
+        return find(new Template(op, table, (cols != null) ? cols.clone() : null, selection, order, limit, null));
+    }
+
+    /**
+     * Caches the SQL generated for the given shape.
+     */
+    void put(int op, String table, Iterable<String> cols, String selection, String order, String limit, String sql) {
+        add(new Template(op, table, toArray(cols), selection, order, limit, sql));
+    }
+
+    /**
+     * Caches the SQL generated for the given shape, whose columns are an array.
+     */
+    void put(int op, String table, String[] cols, String selection, String order, String limit, String sql) {
+        add(new Template(op, table, (cols != null) ? cols.clone() : null, selection, order, limit, sql));
+    }
+
+    int size() {
+        return templates.size();
+    }
+
+    void clear() {
+        this.templates.clear();
+        Arrays.fill(recent, null);
+    }
+
+    private String find(Template shape) {
+        final Template found = templates.get(shape);
+        if (found != null) {
+            this.recent[found.op] = found;
+            return found.sql;
+        }
+        return null;
+    }
+
+    private void add(Template template) {
+        if (templates.size() >= MAX_SIZE) {
+            this.templates.clear();
+        }
+        this.templates.put(template, template);
+        this.recent[template.op] = template;
+    }
+
+    private static String[] toArray(Iterable<String> cols) {
+        if (cols == null) {
+            return null;
+        }
+        int count = 0;
+        for (Iterator<String> it = cols.iterator(); it.hasNext(); it.next()) {
+            count++;
+        }
+        final String[] array = new String[count];
+        int i = 0;
+        for (String col : cols) {
+            array[i++] = col;
+        }
+        return array;
+    }
+
+
+    /**
+     * Immutable shape of a statement and, once generated, its SQL.
+     */
+    private static final class Template {
+        final int op;
+        final String table;
+        final String[] cols;
+        final String selection;
+        final String order;
+        final String limit;
+        final String sql;
+        final int hash;
+
+
+        /**
+         * @param cols the columns, owned by the template from now on
+         */
+        Template(int op, String table, String[] cols, String selection, String order, String limit, String sql) {
+            this.op = op;
+            this.table = table;
+            this.cols = cols;
+            this.selection = selection;
+            this.order = order;
+            this.limit = limit;
+            this.sql = sql;
+
+            int h = op;
+            h = 31 * h + Objects.hashCode(table);
+            h = 31 * h + Arrays.hashCode(this.cols);
+            h = 31 * h + Objects.hashCode(selection);
+            h = 31 * h + Objects.hashCode(order);
+            h = 31 * h + Objects.hashCode(limit);
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Template)) {
+                return false;
+            }
+            final Template other = (Template)obj;
+            return op == other.op
+                    && Objects.equals(table, other.table)
+                    && Arrays.equals(cols, other.cols)
+                    && Objects.equals(selection, other.selection)
+                    && Objects.equals(order, other.order)
+                    && Objects.equals(limit, other.limit);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        boolean matches(int op, String table, String selection, String order, String limit) {
+            return this.op == op
+                    && Objects.equals(this.table, table)
+                    && Objects.equals(this.selection, selection)
+                    && Objects.equals(this.order, order)
+                    && Objects.equals(this.limit, limit);
+        }
+
+        boolean matchesColumns(String[] cols) {
+            if (cols == null || this.cols == null) {
+                return cols == null && this.cols == null;
+            }
+            if (cols.length != this.cols.length) {
+                return false;
+            }
+            for (int i = 0; i < cols.length; i++) {
+                if (!this.cols[i].equals(cols[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean matchesColumns(Iterable<String> cols) {
+            if (cols == null || this.cols == null) {
+                return cols == null && this.cols == null;
+            }
+            if (cols instanceof List && cols instanceof RandomAccess) {
+                final List<String> list = (List<String>)cols;
+                if (list.size() != this.cols.length) {
+                    return false;
+                }
+                for (int i = 0; i < this.cols.length; i++) {
+                    if (!this.cols[i].equals(list.get(i))) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            int i = 0;
+            for (String col : cols) {
+                if (i >= this.cols.length || !this.cols[i].equals(col)) {
+                    return false;
+                }
+                i++;
+            }
+            return i == this.cols.length;
+        }
+    }
+}
@@ -22,60 +22,185 @@
  * SOFTWARE.
  */
 
+
 package com.tylersuehr.sql;
 import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
- * Stores a count of references to this object.
+ * Tracks the operations in flight on this object (leases), so it's never closed while
+ * another thread may still be using it.
+ *
+ * Leases are counted in striped cells, each on its own cache line, and a thread always
+ * uses the same cell; so acquiring and releasing from many threads at once doesn't
+ * contend on one shared counter. A lease can be released on another thread than the one
+ * that acquired it, since only the sum of the cells matters.
  *
- * This prevents a thread from actually closing the database while another thread may
- * still be using it. This will close itself after the last reference has been released.
+ * Closing happens in three phases:
+ * (1) Open: leases can be acquired.
+ * (2) Closing: {@link #close()} was called; new leases are refused with an
+ *     {@link IllegalStateException}, and close waits for the ones in flight to drain.
+ * (3) Closed: the last lease was released; {@link #onAllReferencesReleased()} was called,
+ *     exactly once.
  *
- * {@link #onAllReferencesReleased()} is called when the last reference is released.
+ * If leases are still held when the drain times out (i.e. a cursor that was never
+ * closed), close returns anyway, and the last release finishes the close.
  *
  * @author Tyler Suehr
  */
 abstract class SQLiteCloseable implements Closeable {
-    private final AtomicInteger refs = new AtomicInteger(0);
+    private static final int OPEN = 0;
+    private static final int CLOSING = 1;
+    private static final int CLOSED = 2;
+    /* Longs per cell, so each cell sits on its own 128-byte line */
+    private static final int PADDING = 16;
+    private static final int CELLS = cellCount();
+    private static final long DEFAULT_DRAIN_TIMEOUT_MILLIS = 30000;
+
+    private final AtomicLongArray leases = new AtomicLongArray(CELLS * PADDING);
+    private final AtomicInteger state = new AtomicInteger(OPEN);
+    private final Object drained = new Object();
 
 
+    /**
+     * Closes this object, waiting up to 30 seconds for operations in flight to finish.
+     */
     @Override
     public final void close() {
-        releaseReference();
+        close(DEFAULT_DRAIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Closes this object, waiting up to the given time for operations in flight to
+     * finish. New operations are refused right away. Does nothing if already closing.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @return true if this object is now closed, false if leases are still held
+     */
+    public final boolean close(long timeout, TimeUnit unit) {
+        if (!state.compareAndSet(OPEN, CLOSING)) {
+            return state.get() == CLOSED;
+        }
+
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (drained) {
+            while (!tryFinish()) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(drained, remaining);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
     }
 
     /**
-     * Called when the last reference to this object is released.
+     * Called once, when this object is closed and the last lease is released.
      * This method is to be used for actual database cleanup.
      */
     protected abstract void onAllReferencesReleased();
 
     /**
-     * Acquires a reference to this object.
+     * Acquires a lease on this object, which must be released after use.
+     * @throws IllegalStateException if this object is closing or closed
      */
     protected final void acquireReference() {
-        this.refs.getAndIncrement();
+        final int cell = cellOfCurrentThread();
+        this.leases.getAndIncrement(cell);
+        if (state.get() != OPEN) {
+            // Back out; this object may be waiting for this cell to drain
+            this.leases.getAndDecrement(cell);
+            signalDrain();
+            throw new IllegalStateException("Database is closed!");
+        }
+    }
+
+    /**
+     * Acquires another lease while already holding one, such as for a cursor opened by
+     * a query in flight. Succeeds even while closing, since the close can't finish
+     * until the lease already held is released.
+     */
+    protected final void acquireNestedReference() {
+        this.leases.getAndIncrement(cellOfCurrentThread());
     }
 
     /**
-     * Releases a single reference from this object.
-     * Determines if this object should invoke {@link #onAllReferencesReleased()}.
+     * Releases a lease acquired by {@link #acquireReference()}.
      */
     protected final void releaseReference() {
-        final int count = refs.decrementAndGet();
-        if (count < 0) {
-            throw new IllegalStateException("Cannot have less than 0 references!");
-        } else if (count == 0) {
-            onAllReferencesReleased();
+        this.leases.getAndDecrement(cellOfCurrentThread());
+        if (state.get() != OPEN) {
+            signalDrain();
         }
     }
 
     /**
-     * Determines if there is at least 1 reference to this object.
-     * @return true if at least 1 reference exists, otherwise false
+     * Determines if this object is open, so leases can be acquired.
+     * @return true if open, otherwise false
      */
     protected final boolean hasReference() {
-        return refs.get() > 0;
+        return state.get() == OPEN;
+    }
+
+    /**
+     * Wakes up a close waiting for leases to drain, or finishes the close itself if
+     * that already gave up.
+     */
+    private void signalDrain() {
+        if (tryFinish()) {
+            synchronized (drained) {
+                this.drained.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Finishes the close if closing and no leases are left.
+     * @return true if this object is closed, otherwise false
+     */
+    private boolean tryFinish() {
+        final int current = state.get();
+        if (current == CLOSED) {
+            return true;
+        }
+        if (current != CLOSING || countLeases() != 0) {
+            return false;
+        }
+        if (state.compareAndSet(CLOSING, CLOSED)) {
+            onAllReferencesReleased();
+        }
+        return true;
+    }
+
+    private long countLeases() {
+        long sum = 0;
+        for (int i = 0; i < CELLS; i++) {
+            sum += leases.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    private static int cellOfCurrentThread() {
+        // Fibonacci hashing spreads sequential thread ids across the cells
+        final int hash = (int)Thread.currentThread().getId() * 0x9E3779B9;
+        return ((hash >>> 16) & (CELLS - 1)) * PADDING;
+    }
+
+    private static int cellCount() {
+        final int cpus = Runtime.getRuntime().availableProcessors();
+        int cells = 1;
+        while (cells < cpus * 2 && cells < 64) {
+            cells <<= 1;
+        }
+        return cells;
     }
-}
\ No newline at end of file
+}
@@ -23,11 +23,40 @@
  */
 
 package com.tylersuehr.sql;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 /**
  * The SQLite database itself.
@@ -38,35 +67,115 @@ import java.sql.Statement;
  *
  * The following operations are supported:
  * (1) Insert data into the database. {@link #insert(String, ContentValues)}
- * (2) Update data in the database. {@link #update(String, ContentValues, String)}
- * (3) Delete data in the database. {@link #delete(String, String)}
- * (4) Query data in the database. {@link #query(String, String, String, String)}
- * (5) Raw query data in the database. {@link #rawQuery(String)}
+ * (2) Update data in the database. {@link #update(String, ContentValues, String, Object[])}
+ * (3) Delete data in the database. {@link #delete(String, String, Object[])}
+ * (4) Query data in the database. {@link #queryCursor(String, String, Object[], String, String)}
+ * (5) Raw query data in the database. {@link #rawQueryCursor(String, Object[])}
  * (6) Raw command on the database. {@link #execSql(String)}
+ * (7) Compile a reusable statement. {@link #compileInsert(String, String...)}
+ * (8) Bulk insert data into the database. {@link #insertAll(String, List, int, InsertStrategy)}
+ *     or, without boxing, {@link #insertRows(String, List, int)}
+ * (9) Group work into a transaction. {@link #beginTransaction()}
+ * (10) Coalesce concurrent writes into one commit. {@link #createGroupCommitWriter(int, long)}
+ * (11) Run any of the above asynchronously. {@link #createAsync()}
+ * (12) Bulk import CSV or NDJSON files. {@link #createBulkImporter(String, TextFormat)}
+ * (13) Stream tables or queries out as CSV or NDJSON. {@link #createBulkExporter(TextFormat)}
+ * (14) Measure every statement or log slow ones. {@link #enableMetrics()}
+ * (15) Find full table scans and suggest indexes. {@link #enableQueryPlanAdvisor()}
+ * (16) Rule out missing keys without a query. {@link #createKeyFilter(String, String, double)}
+ * (17) Serve repeated queries from memory between writes. {@link #enableResultCache(long)}
+ *
+ * Insert, update, delete and query statements are compiled once per statement shape
+ * and kept in a bounded LRU cache, so repeated calls skip SQLite's parse and plan step.
+ * See {@link #setMaxSqlCacheSize(int)} and {@link #getStatementCacheStats()}.
+ *
+ * Prefer the overloads that take selection arguments: use '?' in the WHERE clause and
+ * pass the values separately, so every value shares the same cached statement.
+ *
+ * Every mutating method commits right away, unless it's called inside a transaction;
+ * then the changes are committed once, when the outermost transaction ends.
+ *
+ * When opened with reader connections, the database runs in WAL mode with one writer
+ * connection and a pool of read-only connections. Queries are routed to a reader so
+ * they can run concurrently with each other and with writes; queries made by the thread
+ * that owns a transaction still go to the writer, so they see its uncommitted changes.
+ * Each cursor keeps its reader to itself until closed, so the pool size bounds how
+ * many queries run at once.
+ *
+ * Errors are logged to the "com.tylersuehr.sql" {@link Logger}, and the methods that
+ * failed return null, -1 or nothing as documented. Register a {@link StatementListener}
+ * to observe every statement as well.
+ *
+ * Closing waits for operations in flight on other threads to finish, and refuses new
+ * ones with an {@link IllegalStateException}. Close cursors and group commit writers
+ * before the database, since each holds a lease until it's closed.
+ * See {@link #close(long, TimeUnit)}.
  *
  * @author Tyler Suehr
  */
 public final class SQLiteDatabase extends SQLiteCloseable {
+    static final Logger LOG = Logger.getLogger("com.tylersuehr.sql");
     private static final String DRIVER = "org.sqlite.JDBC";
     private static final String PATH = "jdbc:sqlite:";
+    private static final int DEFAULT_SQL_CACHE_SIZE = 25;
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    private static final int SQLITE_OPEN_READONLY = 0x00000001;
+    private static final String[] EXPLAINABLE = { "SELECT", "WITH", "INSERT", "UPDATE", "DELETE", "REPLACE" };
+    /* SQLITE_MAX_VARIABLE_NUMBER of SQLite before 3.32, the lowest a driver may use */
+    private static final int MAX_VARIABLE_NUMBER = 999;
+    /* SQLITE_VERSION_NUMBER of 3.24.0, the first release with UPSERT */
+    private static final int UPSERT_VERSION_NUMBER = 3024000;
     private Connection connection;
     private Statement statement;
+    private StatementCache statementCache;
+    /* Stores the idle read-only connections, null if not pooled */
+    private BlockingQueue<Connection> readers;
+    private final List<Connection> allReaders = new ArrayList<>();
+    /* Serializes writes, held by the owning thread for the length of a transaction */
+    private final ReentrantLock writeLock = new ReentrantLock();
+    /* Stores the open transactions of the owning thread, innermost first */
+    private final Deque<TransactionState> transactions = new ArrayDeque<>();
+    private final Instrumentation instrumentation = new Instrumentation();
+    private StatementMetrics metrics;
+    private QueryPlanAdvisor advisor;
+    private volatile ResultCache resultCache;
+    /* Tables written while holding the write lock, guarded by writeLock */
+    private final Set<String> writtenTables = new HashSet<>();
+    private boolean wroteSchema;
+    /* Stores the key filters created on this database */
+    private final List<KeyFilter> keyFilters = new CopyOnWriteArrayList<>();
+    /* Keys written while holding the write lock, by filter, guarded by writeLock */
+    private final Map<KeyFilter, List<String>> writtenKeys = new IdentityHashMap<>();
+    /* Filters written keys they can't know while holding the write lock, guarded by writeLock */
+    private final Set<KeyFilter> staleFilters = Collections.newSetFromMap(new IdentityHashMap<>());
+    /* True if SQLite supports INSERT ... ON CONFLICT ... DO UPDATE */
+    private boolean nativeUpsert;
 
 
     SQLiteDatabase(String dbName) {
-        openConnection(dbName);
+        this(dbName, 0, null);
+    }
+
+    SQLiteDatabase(String dbName, int readerConnections, SQLitePragmas pragmas) {
+        openConnection(dbName, readerConnections, pragmas);
     }
 
     @Override
     protected void onAllReferencesReleased() {
         try {
+            if (statementCache != null) {
+                this.statementCache.clear();
+            }
             if (statement != null) {
                 this.statement.close();
             }
+            for (Connection reader : allReaders) {
+                reader.close();
+            }
             if (connection != null) {
                 this.connection.close();
             }
-            System.out.println("All references released!");
+            LOG.fine("All references released!");
         } catch (SQLException ex) {
             logException(ex);
         }
@@ -79,14 +188,138 @@ public final class SQLiteDatabase extends SQLiteCloseable {
      * @param selection the WHERE clause (i.e. "[id]=12")
      * @param order the ORDER BY clause (i.e. "[timestamp ASC]")
      * @param limit the LIMIT clause (i.e. "4")
-     * @return the results
+     * @return the results, which should be closed once read
+     * @deprecated use {@link #queryCursor(String, String, Object[], String, String)}
      */
+    @Deprecated
     public ResultSet query(String table, String selection, String order, String limit) {
+        return query(table, selection, null, order, limit);
+    }
+
+    /**
+     * Queries data from the SQLite database, binding the selection arguments.
+     *
+     * @param table the name of the table to query
+     * @param selection the WHERE clause (i.e. "[id]=?")
+     * @param selectionArgs the values bound to each '?' in the selection
+     * @param order the ORDER BY clause (i.e. "[timestamp ASC]")
+     * @param limit the LIMIT clause (i.e. "4")
+     * @return the results, which should be closed once read
+     * @deprecated use {@link #queryCursor(String, String, Object[], String, String)}
+     */
+    @Deprecated
+    public ResultSet query(String table, String selection, Object[] selectionArgs, String order, String limit) {
         acquireReference();
         try {
             final String SQL = SQLBuilder.createQuery(table, selection, order, limit);
-            return statement.executeQuery(SQL);
+            return executeQuery(SQL, selectionArgs);
+        } catch (SQLException ex) {
+            logException(ex);
+            return null;
+        } finally {
+            releaseReference();
+        }
+    }
+
+    /**
+     * Queries data from the SQLite database, binding the selection arguments.
+     *
+     * @param table the name of the table to query
+     * @param selection the WHERE clause (i.e. "[id]=?")
+     * @param selectionArgs the values bound to each '?' in the selection
+     * @param order the ORDER BY clause (i.e. "[timestamp ASC]")
+     * @param limit the LIMIT clause (i.e. "4")
+     * @return a cursor over the results, which must be closed, or null if it failed
+     */
+    public Cursor queryCursor(String table, String selection, Object[] selectionArgs, String order, String limit) {
+        return rawQueryCursor(SQLBuilder.createQuery(table, selection, order, limit), selectionArgs);
+    }
+
+    /**
+     * Queries data from the SQLite database and maps every row to an object.
+     * The mapper's columns are resolved to indexes once, not once per row.
+     *
+     * @param table the name of the table to query
+     * @param selection the WHERE clause (i.e. "[id]=?")
+     * @param selectionArgs the values bound to each '?' in the selection
+     * @param order the ORDER BY clause (i.e. "[timestamp ASC]")
+     * @param limit the LIMIT clause (i.e. "4")
+     * @param mapper the row mapper
+     * @param <T> the type of object mapped
+     * @return the mapped objects, or null if the query failed
+     */
+    public <T> List<T> query(String table, String selection, Object[] selectionArgs, String order,
+                             String limit, RowMapper<T> mapper) {
+        try (Cursor c = queryCursor(table, selection, selectionArgs, order, limit)) {
+            return (c != null) ? c.mapAll(mapper) : null;
+        }
+    }
+
+    /**
+     * Queries data from the SQLite database as a lazy stream of mapped objects.
+     *
+     * Rows are pulled from a live cursor on demand, so large tables are scanned in
+     * constant memory. The cursor is closed when the stream is closed or exhausted;
+     * use try-with-resources if the stream might not be fully consumed.
+     *
+     * @param table the name of the table to query
+     * @param selection the WHERE clause (i.e. "[id]=?")
+     * @param selectionArgs the values bound to each '?' in the selection
+     * @param mapper the row mapper
+     * @param <T> the type of object mapped
+     * @return the stream of mapped objects, empty if the query failed
+     */
+    public <T> Stream<T> stream(String table, String selection, Object[] selectionArgs, RowMapper<T> mapper) {
+        // Never cached, since the whole point is not to hold every row at once
+        final Cursor c = openCursor(SQLBuilder.createQuery(table, selection, null, null), selectionArgs);
+        return (c != null) ? c.stream(mapper) : Stream.<T>empty();
+    }
+
+    /**
+     * Queries data from the SQLite database using a raw SQL query, binding the
+     * selection arguments.
+     *
+     * @param sql the SQL query to run, using '?' for each argument
+     * @param selectionArgs the values bound to each '?' in the query
+     * @return a cursor over the results, which must be closed, or null if it failed
+     */
+    public Cursor rawQueryCursor(String sql, Object[] selectionArgs) {
+        final ResultCache cache = resultCache;
+        if (cache != null && !inTransaction()) {
+            return cache.query(sql, selectionArgs);
+        }
+        return openCursor(sql, selectionArgs);
+    }
+
+    /**
+     * Runs a query on SQLite, never using the result cache.
+     * @return a cursor over the results, which must be closed, or null if it failed
+     */
+    Cursor openCursor(String sql, Object[] selectionArgs) {
+        acquireReference();
+        final long start = instrumentation.start();
+        try {
+            final Connection conn = (readers == null || inTransaction()) ? connection : borrowReader();
+            Cursor cursor = null;
+            try {
+                final PreparedStatement stmt = conn.prepareStatement(sql);
+                try {
+                    SQLiteStatement.bindArgs(stmt, selectionArgs, 1);
+                    // The reader stays borrowed until the cursor is closed
+                    cursor = new Cursor(this, sql, stmt, stmt.executeQuery(), start,
+                            (conn != connection) ? () -> giveBack(conn) : null);
+                    return cursor;
+                } catch (SQLException ex) {
+                    stmt.close();
+                    throw ex;
+                }
+            } finally {
+                if (cursor == null) {
+                    giveBack(conn);
+                }
+            }
         } catch (SQLException ex) {
+            this.instrumentation.error(sql, ex);
             logException(ex);
             return null;
         } finally {
@@ -101,36 +334,311 @@ public final class SQLiteDatabase extends SQLiteCloseable {
      * @param values the content to be inserted
      */
     public void insert(String table, ContentValues values) {
+        insert(table, values, null);
+    }
+
+    /**
+     * Convenience method for inserting data into the SQLite database, resolving
+     * constraint conflicts with the given algorithm (i.e. INSERT OR REPLACE).
+     *
+     * @param table the name of the table
+     * @param values the content to be inserted
+     * @param conflict the conflict algorithm, null for SQLite's default (ABORT)
+     */
+    public void insert(String table, ContentValues values, ConflictAlgorithm conflict) {
+        final String SQL = SQLBuilder.createInsertTemplate(table, values.getKeys(), conflict);
+        executeWrite(table, SQL, values, true, (stmt, row) -> SQLiteStatement.bindAll(stmt, row, 1));
+    }
+
+    /**
+     * Inserts a row, or updates the existing row if it conflicts on the given columns,
+     * in a single statement (INSERT ... ON CONFLICT ... DO UPDATE). Every column that
+     * isn't a conflict column is updated.
+     *
+     * SQLite before 3.24 has no native UPSERT; there, the row is inserted with INSERT OR
+     * IGNORE and then updated, both under one savepoint. A row ignored for any other
+     * constraint than the conflict columns is then skipped instead of failing.
+     *
+     * @param table the name of the table
+     * @param values the content to be inserted or updated
+     * @param conflictColumns the columns of the UNIQUE or PRIMARY KEY constraint
+     */
+    public void upsert(String table, ContentValues values, String... conflictColumns) {
+        if (nativeUpsert) {
+            final String SQL = SQLBuilder.createUpsertTemplate(table, values.getKeys(), conflictColumns);
+            executeWrite(table, SQL, values, true, (stmt, row) -> SQLiteStatement.bindAll(stmt, row, 1));
+            return;
+        }
         acquireReference();
+        lockWrites();
+        invalidateTable(table);
+        recordKeys(table, values, true);
         try {
-            final String SQL = SQLBuilder.createInsert(table, values);
-            this.statement.executeUpdate(SQL);
-            this.connection.commit();
+            upsertBatched(table, Collections.singletonList(values), Collections.singletonList(0),
+                    1, conflictColumns, new int[1]);
         } catch (SQLException ex) {
-            logException(ex);
+            statementFailed(ex);
         } finally {
+            unlockWrites();
             releaseReference();
         }
     }
 
     /**
-     * Convenience method for updating data in the SQLite database.
+     * Inserts a row of primitive-specialized values into the SQLite database, binding
+     * every value without boxing. The values can be cleared and reused afterwards.
      *
      * @param table the name of the table
-     * @param values the content to be updated
-     * @param selection the WHERE clause
+     * @param values the content to be inserted
      */
-    public void update(String table, ContentValues values, String selection) {
+    public void insert(String table, RowValues values) {
+        final String SQL = SQLBuilder.createInsertTemplate(table, values.getSchema().getColumns());
+        executeWrite(table, SQL, values, true, (stmt, row) -> row.bindAll(stmt, 1));
+    }
+
+    /**
+     * Convenience method for inserting many rows into the SQLite database.
+     * Uses the default batch size of 500 rows.
+     *
+     * @param table the name of the table
+     * @param rows the content to be inserted, one per row
+     * @return the insert count of each row, in input order
+     * @see #insertAll(String, List, int)
+     */
+    public int[] insertAll(String table, List<ContentValues> rows) {
+        return insertAll(table, rows, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Convenience method for inserting many rows into the SQLite database, using
+     * {@link InsertStrategy#BATCH}.
+     *
+     * @param table the name of the table
+     * @param rows the content to be inserted, one per row
+     * @param batchSize the maximum number of rows per batch
+     * @return the insert count of each row, in input order
+     * @see #insertAll(String, List, int, InsertStrategy)
+     */
+    public int[] insertAll(String table, List<ContentValues> rows, int batchSize) {
+        return insertAll(table, rows, batchSize, InsertStrategy.BATCH);
+    }
+
+    /**
+     * Convenience method for inserting many rows into the SQLite database.
+     *
+     * Rows are grouped by their column shape, and each group is written in batches of
+     * at most the given size, using the given strategy. Each batch is committed once,
+     * instead of committing every row. Inside a transaction, nothing is committed until
+     * the transaction ends.
+     *
+     * If a batch fails it is rolled back and it, along with every row not yet inserted,
+     * is reported as {@link Statement#EXECUTE_FAILED}. Batches committed before the
+     * failure are kept. Inside a transaction, the failed batch is rolled back to a
+     * savepoint, so only the rows reported as inserted are left in the transaction.
+     *
+     * @param table the name of the table
+     * @param rows the content to be inserted, one per row
+     * @param batchSize the maximum number of rows per batch
+     * @param strategy how each batch is written
+     * @return the insert count of each row, in input order
+     */
+    public int[] insertAll(String table, List<ContentValues> rows, int batchSize, InsertStrategy strategy) {
+        return insertAll(table, rows, batchSize, strategy, null, null);
+    }
+
+    /**
+     * Convenience method for inserting many rows into the SQLite database, resolving
+     * constraint conflicts with the given algorithm (i.e. INSERT OR REPLACE).
+     *
+     * @param table the name of the table
+     * @param rows the content to be inserted, one per row
+     * @param batchSize the maximum number of rows per batch
+     * @param strategy how each batch is written
+     * @param conflict the conflict algorithm, null for SQLite's default (ABORT)
+     * @return the insert count of each row, in input order
+     * @see #insertAll(String, List, int, InsertStrategy)
+     */
+    public int[] insertAll(String table, List<ContentValues> rows, int batchSize,
+                           InsertStrategy strategy, ConflictAlgorithm conflict) {
+        return insertAll(table, rows, batchSize, strategy, conflict, null);
+    }
+
+    /**
+     * Convenience method for upserting many rows into the SQLite database: each row is
+     * inserted, or updates the existing row if it conflicts on the given columns.
+     * Before SQLite 3.24, every batch is written as INSERT OR IGNORE then UPDATE, in
+     * JDBC batches whatever the strategy.
+     *
+     * @param table the name of the table
+     * @param rows the content to be inserted or updated, one per row
+     * @param batchSize the maximum number of rows per batch
+     * @param strategy how each batch is written
+     * @param conflictColumns the columns of the UNIQUE or PRIMARY KEY constraint
+     * @return the change count of each row, in input order
+     * @see #upsert(String, ContentValues, String...)
+     */
+    public int[] upsertAll(String table, List<ContentValues> rows, int batchSize,
+                           InsertStrategy strategy, String... conflictColumns) {
+        return insertAll(table, rows, batchSize, strategy, null, conflictColumns);
+    }
+
+    /**
+     * Convenience method for inserting many rows of primitive-specialized values into the
+     * SQLite database, binding every value without boxing. Uses the default batch size of
+     * 500 rows.
+     *
+     * @param table the name of the table
+     * @param rows the content to be inserted, one per row
+     * @return the insert count of each row, in input order
+     * @see #insertRows(String, List, int)
+     */
+    public int[] insertRows(String table, List<RowValues> rows) {
+        return insertRows(table, rows, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Convenience method for inserting many rows of primitive-specialized values into the
+     * SQLite database, binding every value without boxing.
+     *
+     * Rows are grouped by their schema's columns, and each group is written in JDBC
+     * batches of at most the given size. Batches are committed, and failures reported,
+     * the same way as {@link #insertAll(String, List, int, InsertStrategy)} with
+     * {@link InsertStrategy#BATCH}.
+     *
+     * @param table the name of the table
+     * @param rows the content to be inserted, one per row
+     * @param batchSize the maximum number of rows per batch
+     * @return the insert count of each row, in input order
+     */
+    public int[] insertRows(String table, List<RowValues> rows, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1!");
+        }
+
+        final int[] results = new int[rows.size()];
+        Arrays.fill(results, Statement.EXECUTE_FAILED);
+
+        // Group the row indexes by statement shape, keeping first-seen order
+        final Map<String, List<Integer>> shapes = new LinkedHashMap<>();
+        for (int i = 0; i < rows.size(); i++) {
+            final String SQL = SQLBuilder.createInsertTemplate(table, rows.get(i).getSchema().getColumns());
+            List<Integer> group = shapes.get(SQL);
+            if (group == null) {
+                group = new ArrayList<>();
+                shapes.put(SQL, group);
+            }
+            group.add(i);
+        }
+
         acquireReference();
+        lockWrites();
+        invalidateTable(table);
+        for (RowValues row : rows) {
+            recordKeys(table, row, true);
+        }
         try {
-            final String SQL = SQLBuilder.createUpdate(table, values, selection);
-            this.statement.executeUpdate(SQL);
-            this.connection.commit();
+            for (Map.Entry<String, List<Integer>> shape : shapes.entrySet()) {
+                insertBatched(shape.getKey(), rows, shape.getValue(), batchSize, results,
+                        (stmt, row) -> row.bindAll(stmt, 1));
+            }
+        } catch (SQLException ex) {
+            logException(ex);
+        } finally {
+            unlockWrites();
+            releaseReference();
+        }
+        return results;
+    }
+
+    private int[] insertAll(String table, List<ContentValues> rows, int batchSize, InsertStrategy strategy,
+                            ConflictAlgorithm conflict, String[] conflictColumns) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1!");
+        }
+
+        final int[] results = new int[rows.size()];
+        Arrays.fill(results, Statement.EXECUTE_FAILED);
+
+        // Group the row indexes by statement shape, keeping first-seen order
+        final Map<String, List<Integer>> shapes = new LinkedHashMap<>();
+        for (int i = 0; i < rows.size(); i++) {
+            final Set<String> cols = rows.get(i).getKeys();
+            final String SQL = (conflictColumns != null)
+                    ? SQLBuilder.createUpsertTemplate(table, cols, conflictColumns)
+                    : SQLBuilder.createInsertTemplate(table, cols, conflict);
+            List<Integer> group = shapes.get(SQL);
+            if (group == null) {
+                group = new ArrayList<>();
+                shapes.put(SQL, group);
+            }
+            group.add(i);
+        }
+
+        acquireReference();
+        lockWrites();
+        invalidateTable(table);
+        for (ContentValues row : rows) {
+            recordKeys(table, row, true);
+        }
+        try {
+            for (Map.Entry<String, List<Integer>> shape : shapes.entrySet()) {
+                if (conflictColumns != null && !nativeUpsert) {
+                    upsertBatched(table, rows, shape.getValue(), batchSize, conflictColumns, results);
+                } else if (strategy == InsertStrategy.MULTI_ROW) {
+                    insertMultiRow(table, rows, shape.getValue(), batchSize, conflict, conflictColumns, results);
+                } else {
+                    insertBatched(shape.getKey(), rows, shape.getValue(), batchSize, results,
+                            (stmt, row) -> SQLiteStatement.bindAll(stmt, row, 1));
+                }
+            }
         } catch (SQLException ex) {
             logException(ex);
         } finally {
+            unlockWrites();
             releaseReference();
         }
+        return results;
+    }
+
+    /**
+     * Convenience method for updating data in the SQLite database.
+     *
+     * @param table the name of the table
+     * @param values the content to be updated
+     * @param selection the WHERE clause
+     */
+    public void update(String table, ContentValues values, String selection) {
+        update(table, values, selection, null);
+    }
+
+    /**
+     * Convenience method for updating data in the SQLite database, binding the
+     * selection arguments after the content values.
+     *
+     * @param table the name of the table
+     * @param values the content to be updated
+     * @param selection the WHERE clause (i.e. "[id]=?")
+     * @param selectionArgs the values bound to each '?' in the selection
+     */
+    public void update(String table, ContentValues values, String selection, Object[] selectionArgs) {
+        final String SQL = SQLBuilder.createUpdateTemplate(table, values.getKeys(), selection);
+        executeWrite(table, SQL, values, false, (stmt, row) ->
+                SQLiteStatement.bindArgs(stmt, selectionArgs, SQLiteStatement.bindAll(stmt, row, 1)));
+    }
+
+    /**
+     * Updates data in the SQLite database using primitive-specialized values, binding
+     * every value without boxing, then the selection arguments.
+     *
+     * @param table the name of the table
+     * @param values the content to be updated
+     * @param selection the WHERE clause (i.e. "[id]=?")
+     * @param selectionArgs the values bound to each '?' in the selection
+     */
+    public void update(String table, RowValues values, String selection, Object[] selectionArgs) {
+        final String SQL = SQLBuilder.createUpdateTemplate(table, values.getSchema().getColumns(), selection);
+        executeWrite(table, SQL, values, false, (stmt, row) ->
+                SQLiteStatement.bindArgs(stmt, selectionArgs, row.bindAll(stmt, 1)));
     }
 
     /**
@@ -140,28 +648,56 @@ public final class SQLiteDatabase extends SQLiteCloseable {
      * @param selection the WHERE clause
      */
     public void delete(String table, String selection) {
+        delete(table, selection, null);
+    }
+
+    /**
+     * Convenience method for deleting data in the SQLite database, binding the
+     * selection arguments.
+     *
+     * @param table the name of the table
+     * @param selection the WHERE clause (i.e. "[id]=?")
+     * @param selectionArgs the values bound to each '?' in the selection
+     */
+    public void delete(String table, String selection, Object[] selectionArgs) {
+        final String SQL = SQLBuilder.createDelete(table, selection);
+        executeWrite(table, SQL, selectionArgs, false, (stmt, args) -> SQLiteStatement.bindArgs(stmt, args, 1));
+    }
+
+    /**
+     * Queries data from the SQLite database using a raw SQL query.
+     *
+     * @param sql the SQL query to run
+     * @return the results, which should be closed once read
+     * @deprecated use {@link #rawQueryCursor(String, Object[])}
+     */
+    @Deprecated
+    public ResultSet rawQuery(String sql) {
         acquireReference();
         try {
-            final String SQL = SQLBuilder.createDelete(table, selection);
-            this.statement.executeUpdate(SQL);
-            this.connection.commit();
+            return executeQuery(sql, null);
         } catch (SQLException ex) {
             logException(ex);
+            return null;
         } finally {
             releaseReference();
         }
     }
 
     /**
-     * Queries data from the SQLite database using a raw SQL query.
+     * Queries data from the SQLite database using a raw SQL query, binding the
+     * selection arguments.
      *
-     * @param sql the SQL query to run
-     * @return the results
+     * @param sql the SQL query to run, using '?' for each argument
+     * @param selectionArgs the values bound to each '?' in the query
+     * @return the results, which should be closed once read
+     * @deprecated use {@link #rawQueryCursor(String, Object[])}
      */
-    public ResultSet rawQuery(String sql) {
+    @Deprecated
+    public ResultSet rawQuery(String sql, Object[] selectionArgs) {
         acquireReference();
         try {
-            return statement.executeQuery(sql);
+            return executeQuery(sql, selectionArgs);
         } catch (SQLException ex) {
             logException(ex);
             return null;
@@ -176,73 +712,1246 @@ public final class SQLiteDatabase extends SQLiteCloseable {
      */
     public void execSql(String sql) {
         acquireReference();
+        lockWrites();
+        invalidateStatement(sql);
+        final long start = instrumentation.start();
         try {
-            this.statement.executeUpdate(sql);
-            this.connection.commit();
+            final int count = statement.executeUpdate(sql);
+            this.instrumentation.statement(sql, start, 0, Math.max(count, 0));
+            commit();
         } catch (SQLException ex) {
-            logException(ex);
+            this.instrumentation.error(sql, ex);
+            statementFailed(ex);
         } finally {
+            unlockWrites();
             releaseReference();
         }
     }
 
     /**
-     * Sets the user version of the SQLite database.
-     * @param version the user version to be set
+     * Begins a transaction, which must be ended with {@link #endTransaction()}.
+     *
+     * Other threads can't write to the database until the transaction ends. Changes
+     * made inside the transaction are committed if {@link #setTransactionSuccessful()}
+     * was called before it ends, otherwise they are rolled back.
+     *
+     * Transactions can be nested, in which case each nested transaction maps to a
+     * SQLite SAVEPOINT: an unsuccessful nested transaction only rolls back its own
+     * changes, and nothing is committed until the outermost transaction ends.
+     *
+     * If an insert, update, delete or raw command fails inside a transaction, the
+     * innermost transaction is rolled back when it ends, even if it was marked
+     * successful. Bulk inserts report failures through their results instead.
+     *
+     * <pre>
+     *   db.beginTransaction();
+     *   try {
+     *       ...
+     *       db.setTransactionSuccessful();
+     *   } finally {
+     *       db.endTransaction();
+     *   }
+     * </pre>
      */
-    void setVersion(int version) {
+    public void beginTransaction() {
         acquireReference();
+        lockWrites();
         try {
-            final String SQL = "PRAGMA user_version=" + version;
-            this.statement.executeUpdate(SQL);
-            this.connection.commit();
+            final Savepoint savepoint = transactions.isEmpty()
+                    ? null : connection.setSavepoint("sp" + transactions.size());
+            this.transactions.push(new TransactionState(savepoint));
         } catch (SQLException ex) {
-            logException(ex);
-        } finally {
+            unlockWrites();
             releaseReference();
+            throw new IllegalStateException("Could not begin transaction!", ex);
         }
     }
 
     /**
-     * Gets the user version of the SQLite database.
-     * @return the user version of the database
+     * Marks the current transaction as successful, so its changes are kept when it ends.
+     * Don't do any more database work between calling this and ending the transaction.
      */
-    int getVersion() {
-        acquireReference();
+    public void setTransactionSuccessful() {
+        checkTransaction();
+        this.transactions.peek().successful = true;
+    }
+
+    /**
+     * Ends the current transaction, committing or rolling back its changes.
+     * @see #beginTransaction()
+     */
+    public void endTransaction() {
+        finishTransaction();
+    }
+
+    /**
+     * Runs the given work inside a transaction.
+     *
+     * The transaction is marked successful if the work completes normally, and
+     * rolled back if it throws. If a statement failed inside the work, the transaction
+     * is rolled back and an {@link IllegalStateException} is thrown, caused by the
+     * statement's {@link SQLException}.
+     *
+     * @param work the database work to run
+     */
+    public void inTransaction(Consumer<SQLiteDatabase> work) {
+        beginTransaction();
         try {
-            final String SQL = "PRAGMA user_version";
-            ResultSet c = statement.executeQuery(SQL);
-            return c.getInt("user_version");
-        } catch (SQLException ex) {
-            logException(ex);
-            return -1;
+            work.accept(this);
+            final SQLException failure = transactions.peek().failure;
+            if (failure != null) {
+                throw new IllegalStateException("Transaction failed!", failure);
+            }
+            setTransactionSuccessful();
         } finally {
-            releaseReference();
+            endTransaction();
         }
     }
 
     /**
-     * Opens a connection to the SQLite database.
-     * @param dbName the name of the database file (don't include file extension)
+     * Determines if the calling thread has a transaction in progress.
+     * @return true if in a transaction, otherwise false
      */
-    private void openConnection(String dbName) {
-        try {
-            Class.forName(DRIVER);
-            this.connection = DriverManager.getConnection(PATH + dbName);
-            this.connection.setAutoCommit(false);
-            this.statement = connection.createStatement();
-            acquireReference();
-        } catch (ClassNotFoundException|SQLException ex) {
-            logException(ex);
-        }
+    public boolean inTransaction() {
+        return writeLock.isHeldByCurrentThread() && !transactions.isEmpty();
     }
 
     /**
-     * Convenience method to log an exception and print its stacktrace.
-     * @param ex the exception
+     * Creates a writer that coalesces writes from many threads into one commit.
+     * The writer should be closed once it's no longer needed.
+     *
+     * @param maxBatchSize the maximum number of writes per commit
+     * @param maxLingerMillis how long to wait for more writes before committing
+     * @return the group-commit writer
+     * @see GroupCommitWriter
+     */
+    public GroupCommitWriter createGroupCommitWriter(int maxBatchSize, long maxLingerMillis) {
+        return new GroupCommitWriter(this, maxBatchSize, maxLingerMillis);
+    }
+
+    /**
+     * Creates an asynchronous facade over this database, running on virtual threads
+     * when available. The facade should be closed once it's no longer needed.
+     *
+     * @return the asynchronous database
+     * @see AsyncSQLiteDatabase
      */
-    private void logException(final Exception ex) {
-        System.err.println("SQLite > " + ex.getMessage());
-        ex.printStackTrace();
+    public AsyncSQLiteDatabase createAsync() {
+        return new AsyncSQLiteDatabase(this, null);
+    }
+
+    /**
+     * Creates an asynchronous facade over this database, running on the given executor.
+     *
+     * @param executor the executor to run database work on
+     * @return the asynchronous database
+     * @see AsyncSQLiteDatabase
+     */
+    public AsyncSQLiteDatabase createAsync(Executor executor) {
+        return new AsyncSQLiteDatabase(this, executor);
+    }
+
+    /**
+     * Creates an importer that streams CSV or NDJSON input into the given table.
+     *
+     * @param table the name of the table
+     * @param format the format of the input
+     * @return the bulk importer
+     * @see BulkImporter
+     */
+    public BulkImporter createBulkImporter(String table, TextFormat format) {
+        return new BulkImporter(this, table, format);
+    }
+
+    /**
+     * Creates an exporter that streams tables or query results out in the given format.
+     *
+     * @param format the format of the output
+     * @return the bulk exporter
+     * @see BulkExporter
+     */
+    public BulkExporter createBulkExporter(TextFormat format) {
+        return new BulkExporter(this, format);
+    }
+
+    /**
+     * Creates a Bloom filter over the keys of the given column, built by scanning it.
+     * It learns the keys written through this database as they commit; keys written by
+     * other connections must be added to it.
+     *
+     * @param table the name of the table
+     * @param keyColumn the key column, usually the primary key
+     * @param falsePositiveRate the share of absent keys that may be reported as stored
+     * @return the key filter
+     * @see KeyFilter
+     */
+    public KeyFilter createKeyFilter(String table, String keyColumn, double falsePositiveRate) {
+        final KeyFilter filter = new KeyFilter(this, table, keyColumn, falsePositiveRate);
+        // Registered before the scan, so keys committed during it are kept aside
+        this.keyFilters.add(filter);
+        filter.rebuild();
+        return filter;
+    }
+
+    /**
+     * Compiles a reusable INSERT statement for the given columns.
+     *
+     * The returned statement has one bind parameter per column, in the given order,
+     * and should be closed once it's no longer needed.
+     *
+     * @param table the name of the table
+     * @param columns the columns to insert into
+     * @return the compiled statement, or null if it could not be compiled
+     */
+    public SQLiteStatement compileInsert(String table, String... columns) {
+        return compileStatement(SQLBuilder.createInsertTemplate(table, Arrays.asList(columns)));
+    }
+
+    /**
+     * Compiles a reusable statement from raw SQL, using '?' for bind parameters.
+     * The returned statement should be closed once it's no longer needed.
+     *
+     * @param sql the SQL statement to compile
+     * @return the compiled statement, or null if it could not be compiled
+     */
+    public SQLiteStatement compileStatement(String sql) {
+        acquireReference();
+        try {
+            return new SQLiteStatement(this, sql, connection.prepareStatement(sql));
+        } catch (SQLException ex) {
+            logException(ex);
+            return null;
+        } finally {
+            releaseReference();
+        }
+    }
+
+    /**
+     * Sets the maximum number of compiled statements kept in the statement cache.
+     * The least recently used statements are closed when the cache is full.
+     *
+     * @param cacheSize the maximum cache size (must be at least 1)
+     */
+    public void setMaxSqlCacheSize(int cacheSize) {
+        this.statementCache.setMaxSize(cacheSize);
+    }
+
+    /**
+     * Gets a snapshot of the statement cache hits, misses and evictions.
+     * @return the statement cache stats
+     */
+    public CacheStats getStatementCacheStats() {
+        return statementCache.getStats();
+    }
+
+    /**
+     * Gets the current value of each supported PRAGMA on the writer connection,
+     * to verify which settings actually took effect.
+     *
+     * @return the PRAGMA names mapped to their current values
+     * @see SQLitePragmas
+     */
+    public Map<String, String> getPragmas() {
+        acquireReference();
+        try {
+            return SQLitePragmas.read(connection);
+        } catch (SQLException ex) {
+            logException(ex);
+            return Collections.emptyMap();
+        } finally {
+            releaseReference();
+        }
+    }
+
+    /**
+     * Registers a listener to be told about every statement run, every failure and
+     * every commit.
+     *
+     * @param listener the listener
+     * @see StatementListener
+     */
+    public void addStatementListener(StatementListener listener) {
+        this.instrumentation.add(listener);
+    }
+
+    public void removeStatementListener(StatementListener listener) {
+        this.instrumentation.remove(listener);
+    }
+
+    /**
+     * Starts collecting per-statement metrics, if not already collecting.
+     * @return the metrics registry
+     * @see StatementMetrics
+     */
+    public StatementMetrics enableMetrics() {
+        synchronized (instrumentation) {
+            if (metrics == null) {
+                this.metrics = new StatementMetrics();
+                this.instrumentation.add(metrics);
+            }
+            return metrics;
+        }
+    }
+
+    /**
+     * Starts logging every statement that takes longer than the given threshold.
+     *
+     * @param threshold the time a statement must take to be logged
+     * @param unit the unit of the threshold
+     * @return the slow-query log
+     * @see SlowQueryLog
+     */
+    public SlowQueryLog enableSlowQueryLog(long threshold, TimeUnit unit) {
+        final SlowQueryLog log = new SlowQueryLog(this, unit.toNanos(threshold));
+        this.instrumentation.add(log);
+        return log;
+    }
+
+    /**
+     * Starts capturing the query plan of every statement shape, if not already capturing,
+     * to flag full table scans and suggest indexes.
+     *
+     * @return the query plan advisor
+     * @see QueryPlanAdvisor
+     */
+    public QueryPlanAdvisor enableQueryPlanAdvisor() {
+        synchronized (instrumentation) {
+            if (advisor == null) {
+                this.advisor = new QueryPlanAdvisor(this);
+                this.instrumentation.add(advisor);
+            }
+            return advisor;
+        }
+    }
+
+    /**
+     * Starts caching query results, if not already caching. Results are served until
+     * a table they read is written through this database.
+     *
+     * @param maxBytes the most memory the cached results may take, estimated in bytes
+     * @return the result cache
+     * @see ResultCache
+     */
+    public ResultCache enableResultCache(long maxBytes) {
+        synchronized (instrumentation) {
+            if (resultCache == null) {
+                this.resultCache = new ResultCache(this, maxBytes);
+            }
+            return resultCache;
+        }
+    }
+
+    /**
+     * Gets the query plan SQLite would use for the given statement.
+     * Any '?' in the statement is treated as NULL.
+     *
+     * @param sql the statement to explain
+     * @return the steps of the query plan, or null if it could not be explained
+     */
+    public List<String> explainQueryPlan(String sql) {
+        acquireReference();
+        try {
+            final Connection conn = (readers == null || inTransaction()) ? connection : borrowReader();
+            try (PreparedStatement stmt = conn.prepareStatement("EXPLAIN QUERY PLAN " + sql)) {
+                final int params = stmt.getParameterMetaData().getParameterCount();
+                for (int i = 1; i <= params; i++) {
+                    stmt.setNull(i, Types.NULL);
+                }
+                try (ResultSet results = stmt.executeQuery()) {
+                    final List<String> steps = new ArrayList<>();
+                    while (results.next()) {
+                        steps.add(results.getString("detail"));
+                    }
+                    return steps;
+                }
+            } finally {
+                // The plan is read in full and its statement closed by now
+                giveBack(conn);
+            }
+        } catch (SQLException ex) {
+            logException(ex);
+            return null;
+        } finally {
+            releaseReference();
+        }
+    }
+
+    /**
+     * Determines if the given statement can be run through EXPLAIN QUERY PLAN.
+     * @param sql the statement
+     * @return true if it's a query or a data change, otherwise false
+     */
+    static boolean isExplainable(String sql) {
+        final String start = sql.trim().toUpperCase(Locale.ROOT);
+        for (String keyword : EXPLAINABLE) {
+            if (start.startsWith(keyword)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    Instrumentation getInstrumentation() {
+        return instrumentation;
+    }
+
+    /**
+     * Gets the number of connections open to the database, the writer included.
+     * @return the connection count
+     */
+    int getConnectionCount() {
+        return 1 + allReaders.size();
+    }
+
+    /**
+     * Gets the number of reader connections in the pool, not held by a query.
+     * @return the idle reader count, 0 without readers
+     */
+    int getIdleReaderCount() {
+        return (readers == null) ? 0 : readers.size();
+    }
+
+    /**
+     * Sets the user version of the SQLite database.
+     * @param version the user version to be set
+     */
+    void setVersion(int version) {
+        acquireReference();
+        lockWrites();
+        try {
+            final String SQL = "PRAGMA user_version=" + version;
+            this.statement.executeUpdate(SQL);
+            commit();
+        } catch (SQLException ex) {
+            logException(ex);
+        } finally {
+            unlockWrites();
+            releaseReference();
+        }
+    }
+
+    /**
+     * Gets the user version of the SQLite database.
+     * @return the user version of the database
+     */
+    int getVersion() {
+        acquireReference();
+        try {
+            final String SQL = "PRAGMA user_version";
+            ResultSet c = statement.executeQuery(SQL);
+            return c.getInt("user_version");
+        } catch (SQLException ex) {
+            logException(ex);
+            return -1;
+        } finally {
+            releaseReference();
+        }
+    }
+
+    /**
+     * Opens a connection to the SQLite database.
+     *
+     * @param dbName the name of the database file (don't include file extension)
+     * @param readerConnections the number of read-only connections to pool, 0 for none
+     * @param pragmas the PRAGMA settings to apply to every connection, can be null
+     */
+    private void openConnection(String dbName, int readerConnections, SQLitePragmas pragmas) {
+        try {
+            Class.forName(DRIVER);
+            if (readerConnections > 0) {
+                // Readers can only run alongside the writer in WAL mode
+                pragmas = new SQLitePragmas(pragmas != null ? pragmas : new SQLitePragmas())
+                        .setJournalMode(SQLitePragmas.JournalMode.WAL);
+            }
+
+            this.connection = DriverManager.getConnection(PATH + dbName);
+            if (pragmas != null) {
+                pragmas.apply(connection, true);
+            }
+            this.connection.setAutoCommit(false);
+            this.statement = connection.createStatement();
+            this.statementCache = new StatementCache(connection, DEFAULT_SQL_CACHE_SIZE);
+            try (ResultSet version = statement.executeQuery("SELECT sqlite_version()")) {
+                this.nativeUpsert = versionNumber(version.getString(1)) >= UPSERT_VERSION_NUMBER;
+            }
+
+            if (readerConnections > 0) {
+                final Properties readProps = new Properties();
+                readProps.setProperty("open_mode", String.valueOf(SQLITE_OPEN_READONLY));
+                this.readers = new ArrayBlockingQueue<>(readerConnections);
+                for (int i = 0; i < readerConnections; i++) {
+                    final Connection reader = DriverManager.getConnection(PATH + dbName, readProps);
+                    pragmas.apply(reader, false);
+                    this.allReaders.add(reader);
+                    this.readers.add(reader);
+                }
+            }
+        } catch (ClassNotFoundException|SQLException ex) {
+            logException(ex);
+        }
+    }
+
+    /**
+     * Converts a SQLite version string to the form of SQLITE_VERSION_NUMBER, so versions
+     * can be compared (i.e. "3.24.0" to 3024000).
+     *
+     * @param version the version, as returned by sqlite_version()
+     * @return the version number, or 0 if it could not be parsed
+     */
+    static int versionNumber(String version) {
+        final String[] parts = version.trim().split("\\.");
+        int number = 0;
+        try {
+            for (int i = 0; i < 3; i++) {
+                number = number * 1000 + ((i < parts.length) ? Integer.parseInt(parts[i]) : 0);
+            }
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+        return number;
+    }
+
+    /**
+     * Runs a query on a reader connection if pooled, otherwise on the writer.
+     *
+     * Every query uses its own statement, which is closed along with the results, so
+     * the results never depend on a statement the cache may evict. Reader queries keep
+     * the reader borrowed until the results are closed or read to the end.
+     *
+     * @param sql the SQL query to run
+     * @param args the values bound to each '?' in the query, can be null
+     * @return the results
+     * @throws SQLException if the query failed
+     */
+    private ResultSet executeQuery(String sql, Object[] args) throws SQLException {
+        final long start = instrumentation.start();
+        try {
+            final ResultSet results = openResults(sql, args);
+            // Rows are read by the caller after this returns, so they can't be counted
+            this.instrumentation.statement(sql, start, 0, 0);
+            return results;
+        } catch (SQLException ex) {
+            this.instrumentation.error(sql, ex);
+            throw ex;
+        }
+    }
+
+    private ResultSet openResults(String sql, Object[] args) throws SQLException {
+        if (readers == null || inTransaction()) {
+            // Not cached, since the statement must outlive the results handed out
+            final PreparedStatement stmt = connection.prepareStatement(sql);
+            try {
+                stmt.closeOnCompletion();
+                SQLiteStatement.bindArgs(stmt, args, 1);
+                return stmt.executeQuery();
+            } catch (SQLException ex) {
+                stmt.close();
+                throw ex;
+            }
+        }
+
+        final Connection reader = borrowReader();
+        ResultSet results = null;
+        try {
+            final PreparedStatement stmt = reader.prepareStatement(sql);
+            try {
+                stmt.closeOnCompletion();
+                SQLiteStatement.bindArgs(stmt, args, 1);
+                results = holdReader(stmt.executeQuery(), reader);
+                return results;
+            } catch (SQLException ex) {
+                stmt.close();
+                throw ex;
+            }
+        } finally {
+            if (results == null) {
+                giveBack(reader);
+            }
+        }
+    }
+
+    /**
+     * Wraps results read on a pooled reader, so the reader goes back to the pool once
+     * the results are closed or read to the end, and not before.
+     *
+     * @param results the results
+     * @param reader the reader connection the results were read on
+     * @return the wrapped results
+     */
+    private ResultSet holdReader(ResultSet results, Connection reader) {
+        final AtomicBoolean released = new AtomicBoolean();
+        return (ResultSet)Proxy.newProxyInstance(SQLiteDatabase.class.getClassLoader(),
+                new Class<?>[] { ResultSet.class }, (proxy, method, args) -> {
+            final Object value;
+            try {
+                value = method.invoke(results, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+            final String name = method.getName();
+            if ((name.equals("close") || (name.equals("next") && Boolean.FALSE.equals(value)))
+                    && released.compareAndSet(false, true)) {
+                giveBack(reader);
+            }
+            return value;
+        });
+    }
+
+    /**
+     * Waits for an idle reader connection.
+     * @return the reader connection, must be given back to the pool after use
+     * @throws SQLException if interrupted while waiting
+     */
+    private Connection borrowReader() throws SQLException {
+        try {
+            return readers.take();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a reader connection!", ex);
+        }
+    }
+
+    /**
+     * Gives a connection back to the reader pool, unless it's the writer.
+     * @param conn the connection used
+     */
+    private void giveBack(Connection conn) {
+        if (conn != connection) {
+            this.readers.add(conn);
+        }
+    }
+
+    /**
+     * Runs one write on its cached statement while holding the write lock, then commits
+     * it unless a transaction is in progress. A failed write is reported to the current
+     * transaction and logged.
+     *
+     * @param table the name of the table written
+     * @param sql the SQL template of the statement
+     * @param values the values bound to the statement; the keys of ContentValues and
+     *               RowValues are recorded for the table's key filters
+     * @param insert true if the statement inserts rows, false if it changes or deletes them
+     * @param binder binds the values to the statement
+     * @param <T> the type of the values
+     */
+    private <T> void executeWrite(String table, String sql, T values, boolean insert, RowBinder<T> binder) {
+        acquireReference();
+        lockWrites();
+        invalidateTable(table);
+        if (values instanceof ContentValues) {
+            recordKeys(table, (ContentValues)values, insert);
+        } else if (values instanceof RowValues) {
+            recordKeys(table, (RowValues)values, insert);
+        }
+        final long start = instrumentation.start();
+        try {
+            final PreparedStatement stmt = statementCache.acquire(sql);
+            final int count;
+            try {
+                synchronized (stmt) {
+                    try {
+                        binder.bind(stmt, values);
+                        count = stmt.executeUpdate();
+                    } catch (SQLException ex) {
+                        this.statementCache.failed(stmt);
+                        throw ex;
+                    }
+                }
+            } finally {
+                this.statementCache.release(stmt);
+            }
+            this.instrumentation.statement(sql, start, 0, count);
+            commit();
+        } catch (SQLException ex) {
+            this.instrumentation.error(sql, ex);
+            statementFailed(ex);
+        } finally {
+            unlockWrites();
+            releaseReference();
+        }
+    }
+
+    /**
+     * Inserts a group of same-shaped rows using JDBC batches of one statement.
+     *
+     * @param sql the INSERT template shared by every row of the group
+     * @param rows all the rows being inserted
+     * @param group the indexes of the rows in this group
+     * @param batchSize the maximum number of rows per batch
+     * @param results the insert count of each row, updated as batches complete
+     * @param binder binds the values of one row to the statement
+     * @param <T> the type of each row
+     * @throws SQLException if a batch failed
+     */
+    private <T> void insertBatched(String sql, List<T> rows, List<Integer> group, int batchSize,
+                                   int[] results, RowBinder<T> binder) throws SQLException {
+        final PreparedStatement stmt = statementCache.acquire(sql);
+        try {
+            synchronized (stmt) {
+                for (int start = 0; start < group.size(); start += batchSize) {
+                    final int end = Math.min(start + batchSize, group.size());
+                    for (int i = start; i < end; i++) {
+                        binder.bind(stmt, rows.get(group.get(i)));
+                        stmt.addBatch();
+                    }
+
+                    final int[] counts = executeBatch(sql, stmt);
+                    for (int i = start; i < end; i++) {
+                        results[group.get(i)] = counts[i - start];
+                    }
+                }
+            }
+        } catch (SQLException ex) {
+            this.statementCache.failed(stmt);
+            throw ex;
+        } finally {
+            this.statementCache.release(stmt);
+        }
+    }
+
+    /**
+     * Upserts a group of same-shaped rows on SQLite before 3.24, which lacks native
+     * UPSERT: each batch is inserted with INSERT OR IGNORE, then every row is updated by
+     * its conflict columns, under one savepoint. Rows repeating a key within a batch end
+     * with the values of the last one, like native UPSERT.
+     *
+     * @param table the name of the table
+     * @param rows all the rows being upserted
+     * @param group the indexes of the rows in this group
+     * @param batchSize the maximum number of rows per batch
+     * @param conflictColumns the columns of the UNIQUE or PRIMARY KEY constraint
+     * @param results the change count of each row, updated as batches complete
+     * @throws SQLException if a batch failed
+     */
+    private void upsertBatched(String table, List<ContentValues> rows, List<Integer> group, int batchSize,
+                               String[] conflictColumns, int[] results) throws SQLException {
+        final Set<String> cols = rows.get(group.get(0)).getKeys();
+        final String INSERT = SQLBuilder.createInsertTemplate(table, cols, ConflictAlgorithm.IGNORE);
+        final String UPDATE = SQLBuilder.createUpsertUpdateTemplate(table, cols, conflictColumns);
+        final PreparedStatement insert = statementCache.acquire(INSERT);
+        try {
+            final PreparedStatement update = (UPDATE != null) ? statementCache.acquire(UPDATE) : null;
+            try {
+                for (int start = 0; start < group.size(); start += batchSize) {
+                    final int end = Math.min(start + batchSize, group.size());
+                    upsertBatch(INSERT, insert, UPDATE, update, rows, group, start, end, conflictColumns, results);
+                }
+            } catch (SQLException ex) {
+                if (update != null) {
+                    this.statementCache.failed(update);
+                }
+                throw ex;
+            } finally {
+                if (update != null) {
+                    this.statementCache.release(update);
+                }
+            }
+        } catch (SQLException ex) {
+            this.statementCache.failed(insert);
+            throw ex;
+        } finally {
+            this.statementCache.release(insert);
+        }
+    }
+
+    private void upsertBatch(String insertSql, PreparedStatement insert, String updateSql, PreparedStatement update,
+                             List<ContentValues> rows, List<Integer> group, int start, int end,
+                             String[] conflictColumns, int[] results) throws SQLException {
+        final Savepoint savepoint = setBatchSavepoint();
+        String sql = insertSql;
+        try {
+            long startNanos = instrumentation.start();
+            for (int i = start; i < end; i++) {
+                SQLiteStatement.bindAll(insert, rows.get(group.get(i)), 1);
+                insert.addBatch();
+            }
+            final int[] inserted = insert.executeBatch();
+            if (startNanos != 0) {
+                this.instrumentation.statement(insertSql, startNanos, 0, countWritten(inserted));
+            }
+
+            int[] updated = null;
+            if (update != null) {
+                sql = updateSql;
+                startNanos = instrumentation.start();
+                for (int i = start; i < end; i++) {
+                    bindUpsertUpdate(update, rows.get(group.get(i)), conflictColumns);
+                    update.addBatch();
+                }
+                updated = update.executeBatch();
+                if (startNanos != 0) {
+                    this.instrumentation.statement(updateSql, startNanos, 0, countWritten(updated));
+                }
+            }
+            commitBatch(savepoint);
+
+            // Each row was either inserted or updated, so it changed at most once
+            for (int i = start; i < end; i++) {
+                final int count = inserted[i - start];
+                results[group.get(i)] = (updated != null) ? Math.max(count, updated[i - start]) : count;
+            }
+        } catch (SQLException ex) {
+            this.instrumentation.error(sql, ex);
+            insert.clearBatch();
+            if (update != null) {
+                update.clearBatch();
+            }
+            rollbackBatch(savepoint, ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Binds the values of the updated columns, then of the conflict columns, to the
+     * statement made by {@link SQLBuilder#createUpsertUpdateTemplate(String, Iterable, String[])}.
+     */
+    private static void bindUpsertUpdate(PreparedStatement stmt, ContentValues values,
+                                         String[] conflictColumns) throws SQLException {
+        final List<String> conflicts = Arrays.asList(conflictColumns);
+        int index = 1;
+        for (String col : values.getKeys()) {
+            if (!conflicts.contains(col)) {
+                SQLiteStatement.bindObject(stmt, index++, values.get(col));
+            }
+        }
+        for (String col : conflictColumns) {
+            SQLiteStatement.bindObject(stmt, index++, values.get(col));
+        }
+    }
+
+    private static int countWritten(int[] counts) {
+        int written = 0;
+        for (int count : counts) {
+            written += Math.max(count, 0);
+        }
+        return written;
+    }
+
+    /**
+     * Inserts a group of same-shaped rows using multi-row INSERT statements.
+     *
+     * Each statement holds as many rows as fit in the batch size without going over
+     * SQLite's bind variable limit. Full chunks share one cached statement; only the
+     * final partial chunk, if any, compiles a statement of its own.
+     *
+     * @param table the name of the table
+     * @param rows all the rows being inserted
+     * @param group the indexes of the rows in this group
+     * @param batchSize the maximum number of rows per statement
+     * @param conflict the conflict algorithm, can be null
+     * @param conflictColumns the upsert conflict columns, null if not an upsert
+     * @param results the insert count of each row, updated as chunks complete
+     * @throws SQLException if a chunk failed
+     */
+    private void insertMultiRow(String table, List<ContentValues> rows, List<Integer> group, int batchSize,
+                                ConflictAlgorithm conflict, String[] conflictColumns,
+                                int[] results) throws SQLException {
+        final Set<String> cols = rows.get(group.get(0)).getKeys();
+        final int chunkSize = Math.max(1, Math.min(batchSize, MAX_VARIABLE_NUMBER / Math.max(1, cols.size())));
+        final int fullChunks = group.size() / chunkSize;
+
+        if (fullChunks > 0) {
+            final String SQL = SQLBuilder.buildInsert(table, cols, chunkSize, conflict, conflictColumns);
+            final PreparedStatement stmt = statementCache.acquire(SQL);
+            try {
+                synchronized (stmt) {
+                    for (int chunk = 0; chunk < fullChunks; chunk++) {
+                        executeChunk(SQL, stmt, rows, group, chunk * chunkSize, chunkSize, results);
+                    }
+                }
+            } catch (SQLException ex) {
+                this.statementCache.failed(stmt);
+                throw ex;
+            } finally {
+                this.statementCache.release(stmt);
+            }
+        }
+
+        final int remaining = group.size() - fullChunks * chunkSize;
+        if (remaining > 0) {
+            final String SQL = SQLBuilder.buildInsert(table, cols, remaining, conflict, conflictColumns);
+            try (PreparedStatement stmt = connection.prepareStatement(SQL)) {
+                executeChunk(SQL, stmt, rows, group, fullChunks * chunkSize, remaining, results);
+            }
+        }
+    }
+
+    /**
+     * Binds and commits a chunk of rows on a multi-row INSERT statement.
+     * The chunk is rolled back if it fails, even inside a transaction.
+     */
+    private void executeChunk(String sql, PreparedStatement stmt, List<ContentValues> rows, List<Integer> group,
+                              int start, int count, int[] results) throws SQLException {
+        final long startNanos = instrumentation.start();
+        final Savepoint savepoint = setBatchSavepoint();
+        try {
+            int index = 1;
+            for (int i = start; i < start + count; i++) {
+                index = SQLiteStatement.bindAll(stmt, rows.get(group.get(i)), index);
+            }
+            final int inserted = stmt.executeUpdate();
+            this.instrumentation.statement(sql, startNanos, 0, inserted);
+            commitBatch(savepoint);
+
+            // SQLite only reports the total, so per-row counts are known only if all went in
+            final int perRow = (inserted == count) ? 1 : Statement.SUCCESS_NO_INFO;
+            for (int i = start; i < start + count; i++) {
+                results[group.get(i)] = perRow;
+            }
+        } catch (SQLException ex) {
+            this.instrumentation.error(sql, ex);
+            rollbackBatch(savepoint, ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Executes and commits the pending batch of the given statement.
+     * The batch is rolled back and cleared if it fails, even inside a transaction.
+     *
+     * @param sql the SQL of the statement
+     * @param stmt the statement with a pending batch
+     * @return the update count of each batched row
+     * @throws SQLException if the batch failed
+     */
+    private int[] executeBatch(String sql, PreparedStatement stmt) throws SQLException {
+        final long start = instrumentation.start();
+        final Savepoint savepoint;
+        try {
+            savepoint = setBatchSavepoint();
+        } catch (SQLException ex) {
+            stmt.clearBatch();
+            throw ex;
+        }
+        try {
+            final int[] counts = stmt.executeBatch();
+            if (start != 0) {
+                this.instrumentation.statement(sql, start, 0, countWritten(counts));
+            }
+            commitBatch(savepoint);
+            return counts;
+        } catch (SQLException ex) {
+            this.instrumentation.error(sql, ex);
+            stmt.clearBatch();
+            rollbackBatch(savepoint, ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Sets a savepoint before a batch if a transaction is in progress, so a failed
+     * batch can be undone without undoing the rest of the transaction.
+     *
+     * @return the savepoint, or null if not in a transaction
+     * @throws SQLException if the savepoint could not be set
+     */
+    private Savepoint setBatchSavepoint() throws SQLException {
+        return transactions.isEmpty() ? null : connection.setSavepoint("batch");
+    }
+
+    /**
+     * Keeps the changes of a batch that succeeded: releases its savepoint inside a
+     * transaction, otherwise commits.
+     */
+    private void commitBatch(Savepoint savepoint) throws SQLException {
+        if (savepoint != null) {
+            this.connection.releaseSavepoint(savepoint);
+        } else {
+            commit();
+        }
+    }
+
+    /**
+     * Undoes every change of a batch that failed, rolling back to its savepoint inside
+     * a transaction. A failure to roll back is added to the batch's failure.
+     */
+    private void rollbackBatch(Savepoint savepoint, SQLException failure) {
+        try {
+            if (savepoint != null) {
+                this.connection.rollback(savepoint);
+                this.connection.releaseSavepoint(savepoint);
+            } else {
+                rollback();
+            }
+        } catch (SQLException ex) {
+            failure.addSuppressed(ex);
+        }
+    }
+
+    /**
+     * Commits the current changes to the SQLite database, unless a transaction is in
+     * progress; then they're committed when the transaction ends.
+     *
+     * @throws SQLException if the commit failed
+     */
+    void commit() throws SQLException {
+        if (transactions.isEmpty()) {
+            final long start = instrumentation.start();
+            this.connection.commit();
+            this.instrumentation.commit(start);
+        }
+    }
+
+    /**
+     * Rolls back the current changes to the SQLite database, unless a transaction is in
+     * progress; then it's up to the transaction to decide.
+     *
+     * @throws SQLException if the rollback failed
+     */
+    void rollback() throws SQLException {
+        if (transactions.isEmpty()) {
+            this.connection.rollback();
+        }
+    }
+
+    /**
+     * Acquires the write lock, waiting for any other thread's transaction to end.
+     */
+    void lockWrites() {
+        this.writeLock.lock();
+    }
+
+    /**
+     * Releases the write lock acquired by {@link #lockWrites()}.
+     */
+    void unlockWrites() {
+        if (writeLock.getHoldCount() == 1 && (wroteSchema || !writtenTables.isEmpty()
+                || !writtenKeys.isEmpty() || !staleFilters.isEmpty())) {
+            finishWrites();
+        }
+        this.writeLock.unlock();
+    }
+
+    /**
+     * Bumps the result cache's version of the given table, before writing it.
+     * Must hold the write lock.
+     */
+    void invalidateTable(String table) {
+        final ResultCache cache = resultCache;
+        if (cache != null) {
+            cache.invalidate(table);
+            this.writtenTables.add(table);
+        }
+    }
+
+    /**
+     * Bumps the result cache's versions of whatever the given raw statement writes,
+     * before running it, and marks the key filters of a table it may insert into as
+     * stale once it ends. Must hold the write lock.
+     */
+    void invalidateStatement(String sql) {
+        final ResultCache cache = resultCache;
+        if (cache != null) {
+            final String table = cache.invalidateStatement(sql);
+            if (table != null) {
+                this.writtenTables.add(table);
+            } else {
+                this.wroteSchema = true;
+            }
+        }
+        if (!keyFilters.isEmpty()) {
+            final StatementShape shape = StatementShape.parse(sql);
+            for (KeyFilter filter : keyFilters) {
+                // A statement starting with WITH may write any table
+                if ((shape.writeTable != null) ? !"DELETE".equals(shape.verb) && filter.isOn(shape.writeTable)
+                        : "WITH".equals(shape.verb)) {
+                    this.staleFilters.add(filter);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the key a row writes to the given table, so the table's key filters learn
+     * it once the write ends. Must hold the write lock.
+     *
+     * @param insert true if the row is inserted, so leaving out the key column makes
+     *        SQLite choose the key
+     */
+    void recordKeys(String table, ContentValues values, boolean insert) {
+        for (KeyFilter filter : keyFilters) {
+            if (filter.isOn(table)) {
+                if (values.getKeys().contains(filter.keyColumn)) {
+                    recordKey(filter, filter.keyOf(values.get(filter.keyColumn)));
+                } else if (insert) {
+                    recordKey(filter, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * @see #recordKeys(String, ContentValues, boolean)
+     */
+    void recordKeys(String table, RowValues values, boolean insert) {
+        for (KeyFilter filter : keyFilters) {
+            if (filter.isOn(table)) {
+                final int slot = values.getSchema().getSlot(filter.keyColumn);
+                if (slot >= 0) {
+                    recordKey(filter, filter.keyOf(values.getValue(slot)));
+                } else if (insert) {
+                    recordKey(filter, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param key the key, or null if it can't be known
+     */
+    private void recordKey(KeyFilter filter, String key) {
+        if (key == null) {
+            this.staleFilters.add(filter);
+        } else {
+            this.writtenKeys.computeIfAbsent(filter, f -> new ArrayList<>()).add(key);
+        }
+    }
+
+    /**
+     * Bumps the versions of the tables written under the write lock again, now that
+     * their changes are committed or rolled back, so no result read in between is
+     * served; then hands the keys written to the key filters. Keys of rolled back
+     * rows are added too, which only costs false positives. Must hold the write lock.
+     */
+    private void finishWrites() {
+        final ResultCache cache = resultCache;
+        if (cache != null) {
+            if (wroteSchema) {
+                cache.schemaChanged();
+            } else {
+                for (String table : writtenTables) {
+                    cache.invalidate(table);
+                }
+            }
+        }
+        this.writtenTables.clear();
+        this.wroteSchema = false;
+
+        for (KeyFilter filter : staleFilters) {
+            filter.markStale();
+        }
+        for (Map.Entry<KeyFilter, List<String>> entry : writtenKeys.entrySet()) {
+            if (!staleFilters.contains(entry.getKey())) {
+                entry.getKey().addAll(entry.getValue());
+            }
+        }
+        this.staleFilters.clear();
+        this.writtenKeys.clear();
+    }
+
+    /**
+     * Ends the current transaction, committing or rolling back its changes.
+     * @return true if the changes were kept, otherwise false
+     */
+    boolean finishTransaction() {
+        checkTransaction();
+        final TransactionState txn = transactions.pop();
+        final boolean keep = txn.successful && txn.failure == null;
+        try {
+            if (txn.savepoint != null) {
+                if (!keep) {
+                    this.connection.rollback(txn.savepoint);
+                }
+                this.connection.releaseSavepoint(txn.savepoint);
+            } else if (keep) {
+                final long start = instrumentation.start();
+                this.connection.commit();
+                this.instrumentation.commit(start);
+            } else {
+                this.connection.rollback();
+            }
+            return keep;
+        } catch (SQLException ex) {
+            logException(ex);
+            return false;
+        } finally {
+            unlockWrites();
+            releaseReference();
+        }
+    }
+
+    /**
+     * Ensures the calling thread has a transaction in progress.
+     * @throws IllegalStateException if there is no transaction in progress
+     */
+    private void checkTransaction() {
+        if (!inTransaction()) {
+            throw new IllegalStateException("No transaction in progress!");
+        }
+    }
+
+    /**
+     * Logs the failure of a single statement and, inside a transaction, marks the
+     * innermost transaction as failed so it's rolled back when it ends.
+     * Must hold the write lock.
+     *
+     * @param ex the failure
+     */
+    void statementFailed(SQLException ex) {
+        logException(ex);
+        final TransactionState txn = transactions.peek();
+        if (txn != null && txn.failure == null) {
+            txn.failure = ex;
+        }
+    }
+
+    /**
+     * Convenience method to log an exception, along with its stacktrace.
+     * @param ex the exception
+     */
+    static void logException(final Exception ex) {
+        LOG.log(Level.WARNING, "SQLite > " + ex.getMessage(), ex);
+    }
+
+    /**
+     * Strategies for writing each batch of a bulk insert.
+     * @see #insertAll(String, List, int, InsertStrategy)
+     */
+    public enum InsertStrategy {
+        /** One single-row INSERT, executed as a JDBC batch (addBatch/executeBatch). */
+        BATCH,
+        /** One INSERT with many rows in its VALUES clause, kept under SQLite's bind variable limit. */
+        MULTI_ROW
+    }
+
+    /**
+     * Algorithms SQLite can use to resolve a constraint conflict on insert.
+     * @see <a href="https://www.sqlite.org/lang_conflict.html">ON CONFLICT clause</a>
+     */
+    public enum ConflictAlgorithm {
+        /** Rolls back the whole transaction. */
+        ROLLBACK,
+        /** Undoes the statement, keeping earlier changes of the transaction (SQLite's default). */
+        ABORT,
+        /** Stops the statement, keeping changes it already made. */
+        FAIL,
+        /** Skips the conflicting row. */
+        IGNORE,
+        /** Deletes the conflicting row, then inserts the new one. */
+        REPLACE
+    }
+
+    /**
+     * Binds the values of one row of a write to a statement.
+     * @param <T> the type of the row
+     */
+    private interface RowBinder<T> {
+        void bind(PreparedStatement stmt, T row) throws SQLException;
+    }
+
+    /**
+     * Stores the state of a single, possibly nested, transaction.
+     */
+    private static final class TransactionState {
+        /* Stores the savepoint of a nested transaction, null for the outermost */
+        final Savepoint savepoint;
+        boolean successful;
+        /* Stores the first statement that failed inside this transaction */
+        SQLException failure;
+
+
+        TransactionState(Savepoint savepoint) {
+            this.savepoint = savepoint;
+        }
     }
 }
\ No newline at end of file
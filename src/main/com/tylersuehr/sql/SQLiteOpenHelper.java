@@ -57,6 +57,16 @@ import java.io.File;
  * user_version. This can be used to drop all the tables and re-create them if you've updated
  * the table structure.
  *
+ * <b>Concurrent Reads</b>
+ * Pass a number of reader connections to the constructor to open the database in WAL
+ * mode with one writer connection and that many read-only connections. Queries are then
+ * spread over the readers, so reads scale with cores instead of waiting on writes.
+ *
+ * <b>Tuning</b>
+ * Pass a {@link SQLitePragmas} to the constructor to change the journal mode, sync level,
+ * page cache and so on. They are applied to every connection before {@link #onCreate}
+ * or {@link #onUpdate} are called.
+ *
  * @author Tyler Suehr
  */
 public abstract class SQLiteOpenHelper implements Closeable {
@@ -66,11 +76,33 @@ public abstract class SQLiteOpenHelper implements Closeable {
     private int version;
     /* Stores name of the SQLite database */
     private String name;
+    /* Stores number of pooled read-only connections */
+    private int readerConnections;
+    /* Stores PRAGMA settings applied to every connection */
+    private SQLitePragmas pragmas;
 
 
     public SQLiteOpenHelper(final String dbName, final int version) {
+        this(dbName, version, 0, null);
+    }
+
+    public SQLiteOpenHelper(final String dbName, final int version, final SQLitePragmas pragmas) {
+        this(dbName, version, 0, pragmas);
+    }
+
+    public SQLiteOpenHelper(final String dbName, final int version, final int readerConnections) {
+        this(dbName, version, readerConnections, null);
+    }
+
+    public SQLiteOpenHelper(final String dbName, final int version, final int readerConnections,
+                            final SQLitePragmas pragmas) {
+        if (readerConnections < 0) {
+            throw new IllegalArgumentException("Reader connections cannot be negative!");
+        }
         this.name = (dbName.contains(".db") ? dbName : dbName.concat(".db"));
         this.version = version;
+        this.readerConnections = readerConnections;
+        this.pragmas = (pragmas != null ? new SQLitePragmas(pragmas) : null);
     }
 
     @Override
@@ -106,7 +138,7 @@ public abstract class SQLiteOpenHelper implements Closeable {
 
             // This creates our SQLite database file for us, so check if it
             // already exists before this call.
-            this.database = new SQLiteDatabase(name);
+            this.database = new SQLiteDatabase(name, readerConnections, pragmas);
 
             // Check if the database file already exists
             if (alreadyExists) {
@@ -115,13 +147,13 @@ public abstract class SQLiteOpenHelper implements Closeable {
                 if (version > curVersion) {
                     onUpdate(database, curVersion, version);
                     this.database.setVersion(version);
-                    System.out.println("SQLite database updated!");
+                    SQLiteDatabase.LOG.info("SQLite database updated!");
                 }
             } else {
                 // Create our database, since it doesn't exist
                 onCreate(database);
                 this.database.setVersion(version);
-                System.out.println("SQLite database created!");
+                SQLiteDatabase.LOG.info("SQLite database created!");
             }
         }
         return database;
@@ -0,0 +1,256 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tylersuehr.sql;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tunable PRAGMA settings applied to every connection the library opens.
+ *
+ * Any setting that isn't set keeps the SQLite driver's default. Settings that belong
+ * to the database file itself (journal_mode and page_size) are only applied by the
+ * writer connection; the rest are applied to every connection.
+ *
+ * Named presets are available for common workloads:
+ * (1) {@link #throughput()}: fast writes, may lose the last commits on power loss.
+ * (2) {@link #durable()}: every commit is synced to disk before returning.
+ * (3) {@link #readMostly()}: large page cache and memory mapping for read-heavy use.
+ *
+ * Use {@link SQLiteDatabase#getPragmas()} to verify what actually took effect.
+ *
+ * @author Tyler Suehr
+ */
+public final class SQLitePragmas {
+    /* The PRAGMAs reported back by read(Connection) */
+    private static final String[] REPORTED = {
+            "journal_mode", "synchronous", "cache_size", "mmap_size",
+            "temp_store", "page_size", "busy_timeout", "foreign_keys"
+    };
+
+    public enum JournalMode { DELETE, TRUNCATE, PERSIST, MEMORY, WAL, OFF }
+    public enum Synchronous { OFF, NORMAL, FULL, EXTRA }
+    public enum TempStore { DEFAULT, FILE, MEMORY }
+
+    private JournalMode journalMode;
+    private Synchronous synchronous;
+    private Integer cacheSize;
+    private Long mmapSize;
+    private TempStore tempStore;
+    private Integer pageSize;
+    private Integer busyTimeout;
+    private Boolean foreignKeys;
+
+
+    public SQLitePragmas() {}
+
+    public SQLitePragmas(final SQLitePragmas other) {
+        this.journalMode = other.journalMode;
+        this.synchronous = other.synchronous;
+        this.cacheSize = other.cacheSize;
+        this.mmapSize = other.mmapSize;
+        this.tempStore = other.tempStore;
+        this.pageSize = other.pageSize;
+        this.busyTimeout = other.busyTimeout;
+        this.foreignKeys = other.foreignKeys;
+    }
+
+    /**
+     * Preset for write throughput: WAL with NORMAL sync, so commits don't wait on fsync
+     * of the database file. A power loss may lose the most recent commits, but the
+     * database won't be corrupted.
+     */
+    public static SQLitePragmas throughput() {
+        return new SQLitePragmas()
+                .setJournalMode(JournalMode.WAL)
+                .setSynchronous(Synchronous.NORMAL)
+                .setCacheSize(-65536)
+                .setMmapSize(268435456L)
+                .setTempStore(TempStore.MEMORY)
+                .setBusyTimeout(5000);
+    }
+
+    /**
+     * Preset for durability: WAL with FULL sync, so every commit is on disk once it
+     * returns, and foreign keys are enforced.
+     */
+    public static SQLitePragmas durable() {
+        return new SQLitePragmas()
+                .setJournalMode(JournalMode.WAL)
+                .setSynchronous(Synchronous.FULL)
+                .setForeignKeys(true)
+                .setBusyTimeout(5000);
+    }
+
+    /**
+     * Preset for read-heavy use: WAL so reads don't block on writes, a large page cache
+     * and memory-mapped I/O.
+     */
+    public static SQLitePragmas readMostly() {
+        return new SQLitePragmas()
+                .setJournalMode(JournalMode.WAL)
+                .setSynchronous(Synchronous.NORMAL)
+                .setCacheSize(-131072)
+                .setMmapSize(1073741824L)
+                .setTempStore(TempStore.MEMORY)
+                .setBusyTimeout(5000);
+    }
+
+    public SQLitePragmas setJournalMode(JournalMode journalMode) {
+        this.journalMode = journalMode;
+        return this;
+    }
+
+    public SQLitePragmas setSynchronous(Synchronous synchronous) {
+        this.synchronous = synchronous;
+        return this;
+    }
+
+    /**
+     * Sets the page cache size.
+     * @param cacheSize the number of pages, or the size in KiB if negative
+     */
+    public SQLitePragmas setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of bytes of the database file to memory map.
+     * @param mmapSize the size in bytes, 0 to disable memory mapping
+     */
+    public SQLitePragmas setMmapSize(long mmapSize) {
+        this.mmapSize = mmapSize;
+        return this;
+    }
+
+    public SQLitePragmas setTempStore(TempStore tempStore) {
+        this.tempStore = tempStore;
+        return this;
+    }
+
+    /**
+     * Sets the page size. Only takes effect on a new database, before any table is created.
+     * @param pageSize the page size in bytes, a power of two between 512 and 65536
+     */
+    public SQLitePragmas setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * Sets how long to retry when the database is locked by another connection.
+     * @param busyTimeout the timeout in milliseconds
+     */
+    public SQLitePragmas setBusyTimeout(int busyTimeout) {
+        this.busyTimeout = busyTimeout;
+        return this;
+    }
+
+    public SQLitePragmas setForeignKeys(boolean foreignKeys) {
+        this.foreignKeys = foreignKeys;
+        return this;
+    }
+
+    public JournalMode getJournalMode() {
+        return journalMode;
+    }
+
+    /**
+     * Creates the PRAGMA statements for these settings, in the order they should run.
+     *
+     * @param writer true for the writer connection, false for a read-only connection
+     * @return the PRAGMA statements
+     */
+    List<String> toStatements(boolean writer) {
+        final List<String> sql = new ArrayList<>(8);
+        // page_size must come before journal_mode, since WAL fixes the page size
+        if (writer && pageSize != null) {
+            sql.add("PRAGMA page_size=" + pageSize);
+        }
+        if (writer && journalMode != null) {
+            sql.add("PRAGMA journal_mode=" + journalMode);
+        }
+        if (synchronous != null) {
+            sql.add("PRAGMA synchronous=" + synchronous);
+        }
+        if (cacheSize != null) {
+            sql.add("PRAGMA cache_size=" + cacheSize);
+        }
+        if (mmapSize != null) {
+            sql.add("PRAGMA mmap_size=" + mmapSize);
+        }
+        if (tempStore != null) {
+            sql.add("PRAGMA temp_store=" + tempStore);
+        }
+        if (busyTimeout != null) {
+            sql.add("PRAGMA busy_timeout=" + busyTimeout);
+        }
+        if (foreignKeys != null) {
+            sql.add("PRAGMA foreign_keys=" + (foreignKeys ? "ON" : "OFF"));
+        }
+        return sql;
+    }
+
+    /**
+     * Applies these settings to the given connection.
+     * Must be called while the connection is in auto-commit mode.
+     *
+     * @param connection the connection
+     * @param writer true for the writer connection, false for a read-only connection
+     * @throws SQLException if a setting could not be applied
+     */
+    void apply(Connection connection, boolean writer) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            for (String sql : toStatements(writer)) {
+                stmt.execute(sql);
+            }
+        }
+    }
+
+    /**
+     * Reads back the current value of each supported PRAGMA on the given connection.
+     *
+     * @param connection the connection
+     * @return the PRAGMA names mapped to their current values
+     * @throws SQLException if a PRAGMA could not be read
+     */
+    static Map<String, String> read(Connection connection) throws SQLException {
+        final Map<String, String> values = new LinkedHashMap<>();
+        try (Statement stmt = connection.createStatement()) {
+            for (String pragma : REPORTED) {
+                try (ResultSet r = stmt.executeQuery("PRAGMA " + pragma)) {
+                    values.put(pragma, r.next() ? r.getString(1) : null);
+                }
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tylersuehr.sql;
+import java.io.Closeable;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * A pre-compiled SQL statement that can be bound and executed repeatedly.
+ *
+ * Compiling a statement once avoids having SQLite re-parse and re-plan the same SQL
+ * for every execution, which makes this the fastest way to run the same statement
+ * many times. Obtain one using {@link SQLiteDatabase#compileInsert(String, String...)}
+ * or {@link SQLiteDatabase#compileStatement(String)}.
+ *
+ * Bind indexes start at 1, like JDBC. Bindings are kept between executions until they
+ * are replaced or cleared with {@link #clearBindings()}.
+ *
+ * This object is NOT thread-safe; each thread should compile its own statement.
+ *
+ * @author Tyler Suehr
+ */
+public final class SQLiteStatement implements Closeable {
+    private final SQLiteDatabase db;
+    private final String sql;
+    private final PreparedStatement stmt;
+
+
+    SQLiteStatement(SQLiteDatabase db, String sql, PreparedStatement stmt) {
+        this.db = db;
+        this.sql = sql;
+        this.stmt = stmt;
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.stmt.close();
+        } catch (SQLException ex) {
+            SQLiteDatabase.logException(ex);
+        }
+    }
+
+    public SQLiteStatement bindNull(int index) {
+        try {
+            this.stmt.setNull(index, Types.NULL);
+        } catch (SQLException ex) {
+            SQLiteDatabase.logException(ex);
+        }
+        return this;
+    }
+
+    public SQLiteStatement bindLong(int index, long value) {
+        try {
+            this.stmt.setLong(index, value);
+        } catch (SQLException ex) {
+            SQLiteDatabase.logException(ex);
+        }
+        return this;
+    }
+
+    public SQLiteStatement bindDouble(int index, double value) {
+        try {
+            this.stmt.setDouble(index, value);
+        } catch (SQLException ex) {
+            SQLiteDatabase.logException(ex);
+        }
+        return this;
+    }
+
+    public SQLiteStatement bindString(int index, String value) {
+        try {
+            this.stmt.setString(index, value);
+        } catch (SQLException ex) {
+            SQLiteDatabase.logException(ex);
+        }
+        return this;
+    }
+
+    public SQLiteStatement bindBlob(int index, byte[] value) {
+        try {
+            this.stmt.setBytes(index, value);
+        } catch (SQLException ex) {
+            SQLiteDatabase.logException(ex);
+        }
+        return this;
+    }
+
+    /**
+     * Binds every value of the content values, in order, starting at index 1.
+     *
+     * @param values the content values
+     * @return this statement
+     */
+    public SQLiteStatement bindValues(ContentValues values) {
+        try {
+            bindAll(stmt, values, 1);
+        } catch (SQLException ex) {
+            SQLiteDatabase.logException(ex);
+        }
+        return this;
+    }
+
+    /**
+     * Binds every slot of the row values, in schema order, starting at index 1.
+     *
+     * @param values the row values
+     * @return this statement
+     */
+    public SQLiteStatement bindValues(RowValues values) {
+        try {
+            values.bindAll(stmt, 1);
+        } catch (SQLException ex) {
+            SQLiteDatabase.logException(ex);
+        }
+        return this;
+    }
+
+    /**
+     * Clears all the current bindings of this statement.
+     * @return this statement
+     */
+    public SQLiteStatement clearBindings() {
+        try {
+            this.stmt.clearParameters();
+        } catch (SQLException ex) {
+            SQLiteDatabase.logException(ex);
+        }
+        return this;
+    }
+
+    /**
+     * Executes this statement with its current bindings and commits the change,
+     * unless a transaction is in progress.
+     * @return the number of rows affected, or -1 if it failed
+     */
+    public int execute() {
+        this.db.acquireReference();
+        this.db.lockWrites();
+        this.db.invalidateStatement(sql);
+        final Instrumentation instrumentation = db.getInstrumentation();
+        final long start = instrumentation.start();
+        try {
+            final int count = stmt.executeUpdate();
+            instrumentation.statement(sql, start, 0, count);
+            this.db.commit();
+            return count;
+        } catch (SQLException ex) {
+            instrumentation.error(sql, ex);
+            this.db.statementFailed(ex);
+            return -1;
+        } finally {
+            this.db.unlockWrites();
+            this.db.releaseReference();
+        }
+    }
+
+    /**
+     * Binds each of the content values, in order, to the given statement.
+     *
+     * @param stmt the statement to bind to
+     * @param values the content values
+     * @param start the first bind index to use
+     * @return the next unused bind index
+     * @throws SQLException if a value could not be bound
+     */
+    static int bindAll(PreparedStatement stmt, ContentValues values, int start) throws SQLException {
+        int index = start;
+        for (Object o : values.getData()) {
+            bindObject(stmt, index++, o);
+        }
+        return index;
+    }
+
+    /**
+     * Binds each of the arguments, in order, to the given statement.
+     *
+     * @param stmt the statement to bind to
+     * @param args the arguments, can be null
+     * @param start the first bind index to use
+     * @return the next unused bind index
+     * @throws SQLException if an argument could not be bound
+     */
+    static int bindArgs(PreparedStatement stmt, Object[] args, int start) throws SQLException {
+        int index = start;
+        if (args != null) {
+            for (Object o : args) {
+                bindObject(stmt, index++, o);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Binds a single value to the given statement, using its runtime type.
+     *
+     * @param stmt the statement to bind to
+     * @param index the bind index
+     * @param o the value
+     * @throws SQLException if the value could not be bound
+     */
+    static void bindObject(PreparedStatement stmt, int index, Object o) throws SQLException {
+        if (o == null) {
+            stmt.setNull(index, Types.NULL);
+        } else if (o instanceof String) {
+            stmt.setString(index, (String)o);
+        } else if (o instanceof Integer || o instanceof Short || o instanceof Long) {
+            stmt.setLong(index, ((Number)o).longValue());
+        } else if (o instanceof Float || o instanceof Double) {
+            stmt.setDouble(index, ((Number)o).doubleValue());
+        } else if (o instanceof Boolean) {
+            stmt.setInt(index, ((Boolean)o) ? 1 : 0);
+        } else if (o instanceof byte[]) {
+            stmt.setBytes(index, (byte[])o);
+        } else {
+            stmt.setString(index, o.toString());
+        }
+    }
+}
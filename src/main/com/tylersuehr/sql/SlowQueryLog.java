@@ -0,0 +1,191 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.tylersuehr.sql;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Logs every statement that takes longer than a threshold, along with its query plan.
+ *
+ * Each slow statement is logged at WARNING to the "com.tylersuehr.sql" logger and kept
+ * in a bounded list of recent entries. The plan (EXPLAIN QUERY PLAN) is captured the
+ * first time a statement shape is slow and reused after that, so a recurring slow
+ * statement doesn't pay for it again. Capturing it means querying the database, which
+ * the thread that ran the statement may not be able to do yet, so such an entry is
+ * logged from a background thread once its plan is known.
+ *
+ * Create one using {@link SQLiteDatabase#enableSlowQueryLog(long, TimeUnit)}.
+ *
+ * @author Tyler Suehr
+ */
+public final class SlowQueryLog implements StatementListener {
+    private static final int MAX_ENTRIES = 100;
+    private static final int MAX_PLANS = 500;
+
+    private final SQLiteDatabase db;
+    private final PlanExplainer explainer = new PlanExplainer("SQLite-SlowQueryLog");
+    private final Map<String, String> plans = new ConcurrentHashMap<>();
+    private final Deque<Entry> entries = new ArrayDeque<>();
+    private volatile long thresholdNanos;
+
+
+    SlowQueryLog(SQLiteDatabase db, long thresholdNanos) {
+        this.db = db;
+        this.thresholdNanos = thresholdNanos;
+    }
+
+    @Override
+    public void onStatement(String sql, long elapsedNanos, int rowsRead, int rowsWritten) {
+        if (elapsedNanos < thresholdNanos) {
+            return;
+        }
+
+        final long timestamp = System.currentTimeMillis();
+        final String plan = plans.get(sql);
+        if (plan != null || !SQLiteDatabase.isExplainable(sql)) {
+            add(new Entry(sql, plan, elapsedNanos, rowsRead, rowsWritten, timestamp));
+        } else {
+            // Never explained here, where the write lock or the only reader may be held
+            this.explainer.execute(() -> add(new Entry(sql, planOf(sql), elapsedNanos,
+                    rowsRead, rowsWritten, timestamp)));
+        }
+    }
+
+    public void setThreshold(long threshold, TimeUnit unit) {
+        this.thresholdNanos = unit.toNanos(threshold);
+    }
+
+    /**
+     * Gets the most recent slow statements, oldest first. A slow statement whose plan
+     * is still being captured is added once it is.
+     * @return the recent entries
+     */
+    public List<Entry> getEntries() {
+        synchronized (entries) {
+            return new ArrayList<>(entries);
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            this.entries.clear();
+        }
+        this.plans.clear();
+    }
+
+    private void add(Entry entry) {
+        synchronized (entries) {
+            if (entries.size() == MAX_ENTRIES) {
+                this.entries.removeFirst();
+            }
+            this.entries.addLast(entry);
+        }
+        if (SQLiteDatabase.LOG.isLoggable(Level.WARNING)) {
+            SQLiteDatabase.LOG.warning(entry.toString());
+        }
+    }
+
+    /**
+     * Gets the plan of a statement, capturing it the first time; runs on the explainer.
+     */
+    private String planOf(String sql) {
+        String plan = plans.get(sql);
+        if (plan == null) {
+            final List<String> steps = db.explainQueryPlan(sql);
+            plan = (steps != null) ? String.join("\n", steps) : null;
+            if (plan != null && plans.size() < MAX_PLANS) {
+                this.plans.put(sql, plan);
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * One slow statement.
+     */
+    public static final class Entry {
+        private final String sql;
+        private final String plan;
+        private final long elapsedNanos;
+        private final int rowsRead;
+        private final int rowsWritten;
+        private final long timestamp;
+
+
+        Entry(String sql, String plan, long elapsedNanos, int rowsRead, int rowsWritten, long timestamp) {
+            this.sql = sql;
+            this.plan = plan;
+            this.elapsedNanos = elapsedNanos;
+            this.rowsRead = rowsRead;
+            this.rowsWritten = rowsWritten;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "Slow statement (%.1f ms, %d read, %d written): %s%s",
+                    elapsedNanos / 1e6, rowsRead, rowsWritten, sql, (plan != null) ? "\n" + plan : "");
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        /**
+         * Gets the statement's query plan, one step per line.
+         * @return the plan, or null if it could not be captured
+         */
+        public String getPlan() {
+            return plan;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public int getRowsRead() {
+            return rowsRead;
+        }
+
+        public int getRowsWritten() {
+            return rowsWritten;
+        }
+
+        /**
+         * Gets when the statement finished, in milliseconds since the epoch.
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tylersuehr.sql;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of {@link PreparedStatement} objects for a single connection.
+ *
+ * Statements are keyed by their SQL template, which already encodes the shape of the
+ * statement (table, ordered columns and WHERE template). When the cache is full the
+ * least recently used statement is evicted.
+ *
+ * Every statement acquired must be released after use. A statement evicted while still
+ * in use is only closed once its last user releases it, so it's never closed under a
+ * thread that's about to execute it.
+ *
+ * @author Tyler Suehr
+ */
+final class StatementCache {
+    private final Connection connection;
+    private final LinkedHashMap<String, Entry> statements;
+    /* Stores the entries acquired and not yet released, evicted ones included */
+    private final Map<PreparedStatement, Entry> inUse = new IdentityHashMap<>();
+    private int maxSize;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+
+    StatementCache(Connection connection, int maxSize) {
+        this.connection = connection;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Gets the cached statement for the given SQL, compiling it on a miss.
+     * The statement can't be closed until it's given back with {@link #release(PreparedStatement)}.
+     *
+     * @param sql the SQL template
+     * @return the prepared statement
+     * @throws SQLException if the statement could not be compiled
+     */
+    synchronized PreparedStatement acquire(String sql) throws SQLException {
+        Entry entry = statements.get(sql);
+        if (entry != null) {
+            this.hits++;
+        } else {
+            this.misses++;
+            entry = new Entry(sql, connection.prepareStatement(sql));
+            this.statements.put(sql, entry);
+        }
+
+        if (entry.uses++ == 0) {
+            this.inUse.put(entry.statement, entry);
+        }
+        trimToSize(maxSize);
+        return entry.statement;
+    }
+
+    /**
+     * Gives back a statement acquired by {@link #acquire(String)}, closing it if it
+     * was evicted while in use and this was its last user.
+     *
+     * @param stmt the prepared statement
+     */
+    synchronized void release(PreparedStatement stmt) {
+        final Entry entry = inUse.get(stmt);
+        if (entry == null) {
+            throw new IllegalStateException("Statement was not acquired!");
+        }
+        if (--entry.uses == 0) {
+            this.inUse.remove(stmt);
+            if (entry.evicted) {
+                closeQuietly(stmt);
+            }
+        }
+    }
+
+    /**
+     * Handles a statement that failed while in use, dropping it only if the failure left
+     * it unusable. Current drivers keep a statement ready to run again after a constraint
+     * violation, but older ones close it after any failure, and a data type mismatch
+     * closes it on all of them.
+     *
+     * @param stmt the prepared statement, still acquired
+     */
+    void failed(PreparedStatement stmt) {
+        try {
+            // Throws if the driver closed the statement underneath
+            stmt.clearParameters();
+        } catch (SQLException ex) {
+            discard(stmt);
+        }
+    }
+
+    /**
+     * Drops a statement, so the next acquire compiles it anew. It's closed once released.
+     *
+     * @param stmt the prepared statement, still acquired
+     */
+    synchronized void discard(PreparedStatement stmt) {
+        final Entry entry = inUse.get(stmt);
+        if (entry != null && !entry.evicted) {
+            this.statements.remove(entry.sql);
+            entry.evicted = true;
+        }
+    }
+
+    synchronized void setMaxSize(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Cache size must be at least 1!");
+        }
+        this.maxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    synchronized CacheStats getStats() {
+        return new CacheStats(hits, misses, evictions, statements.size(), maxSize);
+    }
+
+    /**
+     * Closes and removes every cached statement, including any still in use.
+     */
+    synchronized void clear() {
+        for (Entry entry : statements.values()) {
+            closeQuietly(entry.statement);
+        }
+        for (Entry entry : inUse.values()) {
+            if (entry.evicted) {
+                closeQuietly(entry.statement);
+            }
+        }
+        this.statements.clear();
+        this.inUse.clear();
+    }
+
+    private void trimToSize(int size) {
+        final Iterator<Entry> it = statements.values().iterator();
+        while (statements.size() > size && it.hasNext()) {
+            final Entry entry = it.next();
+            it.remove();
+            this.evictions++;
+            if (entry.uses == 0) {
+                closeQuietly(entry.statement);
+            } else {
+                // Closed by the release of its last user instead
+                entry.evicted = true;
+            }
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement stmt) {
+        // Wait for any thread still executing this statement
+        synchronized (stmt) {
+            try {
+                stmt.close();
+            } catch (SQLException ignored) {}
+        }
+    }
+
+    /**
+     * Stores a cached statement along with the number of threads using it.
+     */
+    private static final class Entry {
+        final String sql;
+        final PreparedStatement statement;
+        int uses;
+        boolean evicted;
+
+
+        Entry(String sql, PreparedStatement statement) {
+            this.sql = sql;
+            this.statement = statement;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.tylersuehr.sql;
+import java.sql.SQLException;
+
+/**
+ * Receives an event for every statement the database runs, to collect metrics or log
+ * slow statements. See {@link StatementMetrics} and {@link SlowQueryLog} for the
+ * built-in listeners.
+ *
+ * Events are delivered on the thread that ran the statement, often while the write lock
+ * or a pooled reader is held, so listeners should be quick and must not throw. They must
+ * not query the same database either, which could wait forever on a reader or the write
+ * lock held by that very thread; hand such work to another thread instead. Queries are
+ * reported when their cursor is closed, so their rows read are known; their time covers
+ * executing the query and stepping through its rows, not the caller's work in between.
+ *
+ * @author Tyler Suehr
+ */
+public interface StatementListener {
+    /**
+     * Called after a statement ran successfully.
+     *
+     * @param sql the SQL of the statement, with '?' for each bound value
+     * @param elapsedNanos the time spent running it
+     * @param rowsRead the number of rows read, 0 for writes
+     * @param rowsWritten the number of rows changed, 0 for queries
+     */
+    void onStatement(String sql, long elapsedNanos, int rowsRead, int rowsWritten);
+
+    /**
+     * Called after a statement failed.
+     *
+     * @param sql the SQL of the statement
+     * @param ex the failure
+     */
+    default void onError(String sql, SQLException ex) {}
+
+    /**
+     * Called after changes were committed to the database.
+     * @param elapsedNanos the time spent committing
+     */
+    default void onCommit(long elapsedNanos) {}
+}
@@ -0,0 +1,167 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.tylersuehr.sql;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Built-in metrics registry, keeping call counts, latency histograms, rows read and
+ * written, and errors for each statement shape, plus the time spent committing.
+ *
+ * Statements are grouped by their SQL, which is the same for every call of a shape as
+ * long as values are bound with '?'. Recording only touches striped counters and one
+ * histogram bucket, so it's cheap enough to leave on. The number of shapes tracked is
+ * bounded; once full, new shapes are counted together under "(other)".
+ *
+ * <pre>
+ *   StatementMetrics metrics = db.enableMetrics();
+ *   ...
+ *   for (StatementStats stats : metrics.getStats()) {
+ *       System.out.println(stats);
+ *   }
+ * </pre>
+ *
+ * Create one using {@link SQLiteDatabase#enableMetrics()}.
+ *
+ * @author Tyler Suehr
+ */
+public final class StatementMetrics implements StatementListener {
+    private static final int MAX_SHAPES = 1000;
+    private static final String OTHER = "(other)";
+    private static final String COMMIT = "COMMIT";
+
+    private final Map<String, Shape> shapes = new ConcurrentHashMap<>();
+    private final Shape commits = new Shape();
+
+
+    StatementMetrics() {}
+
+    @Override
+    public void onStatement(String sql, long elapsedNanos, int rowsRead, int rowsWritten) {
+        final Shape shape = shapeOf(sql);
+        shape.calls.increment();
+        shape.nanos.add(elapsedNanos);
+        shape.latency.record(elapsedNanos);
+        if (rowsRead > 0) {
+            shape.rowsRead.add(rowsRead);
+        }
+        if (rowsWritten > 0) {
+            shape.rowsWritten.add(rowsWritten);
+        }
+    }
+
+    @Override
+    public void onError(String sql, SQLException ex) {
+        shapeOf(sql).errors.increment();
+    }
+
+    @Override
+    public void onCommit(long elapsedNanos) {
+        this.commits.calls.increment();
+        this.commits.nanos.add(elapsedNanos);
+        this.commits.latency.record(elapsedNanos);
+    }
+
+    /**
+     * Gets a snapshot of every statement shape's metrics, the most time spent first.
+     * @return the stats of each shape
+     */
+    public List<StatementStats> getStats() {
+        final List<StatementStats> stats = new ArrayList<>(shapes.size());
+        for (Map.Entry<String, Shape> entry : shapes.entrySet()) {
+            stats.add(entry.getValue().snapshot(entry.getKey()));
+        }
+        Collections.sort(stats, (a, b) -> Long.compare(b.getTotalNanos(), a.getTotalNanos()));
+        return stats;
+    }
+
+    /**
+     * Gets a snapshot of the metrics of one statement shape.
+     *
+     * @param sql the SQL of the statement
+     * @return the stats of the shape, or null if it never ran
+     */
+    public StatementStats getStats(String sql) {
+        final Shape shape = shapes.get(sql);
+        return (shape != null) ? shape.snapshot(sql) : null;
+    }
+
+    /**
+     * Gets a snapshot of the time spent committing changes.
+     * @return the commit stats
+     */
+    public StatementStats getCommitStats() {
+        return commits.snapshot(COMMIT);
+    }
+
+    /**
+     * Forgets every statement shape and resets the commit stats.
+     */
+    public void reset() {
+        this.shapes.clear();
+        this.commits.reset();
+    }
+
+    private Shape shapeOf(String sql) {
+        Shape shape = shapes.get(sql);
+        if (shape == null) {
+            final String key = (shapes.size() < MAX_SHAPES) ? sql : OTHER;
+            shape = shapes.computeIfAbsent(key, k -> new Shape());
+        }
+        return shape;
+    }
+
+    /**
+     * Stores the counters of one statement shape.
+     */
+    private static final class Shape {
+        final LongAdder calls = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder rowsRead = new LongAdder();
+        final LongAdder rowsWritten = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        StatementStats snapshot(String sql) {
+            return new StatementStats(sql, calls.sum(), errors.sum(), rowsRead.sum(), rowsWritten.sum(),
+                    nanos.sum(), latency.getPercentile(50), latency.getPercentile(99), latency.getMax());
+        }
+
+        void reset() {
+            this.calls.reset();
+            this.errors.reset();
+            this.rowsRead.reset();
+            this.rowsWritten.reset();
+            this.nanos.reset();
+            this.latency.reset();
+        }
+    }
+}
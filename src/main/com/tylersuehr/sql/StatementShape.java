@@ -0,0 +1,369 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.tylersuehr.sql;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The columns a statement filters and sorts on, as far as they can be told from its
+ * SQL without a full parser. Used by {@link QueryPlanAdvisor} to suggest indexes.
+ *
+ * (1) Equality columns: compared with =, IN or IS in the WHERE clause.
+ * (2) Range columns: compared with &lt;, &gt;, BETWEEN, LIKE or GLOB in the WHERE clause.
+ * (3) Order columns: listed in the ORDER BY clause.
+ *
+ * Table prefixes are kept (i.e. "u.id"), so callers can tell which table a column
+ * belongs to.
+ *
+ * For {@link ResultCache}, it also finds the tables a query reads (after any FROM or
+ * JOIN, including subqueries), the table an INSERT, UPDATE or DELETE writes, and
+ * whether a query calls a function whose result changes without any write, such as
+ * random() or datetime().
+ *
+ * @author Tyler Suehr
+ */
+final class StatementShape {
+    private static final Set<String> EQUALITY = new HashSet<>(Arrays.asList("=", "==", "IN", "IS"));
+    private static final Set<String> RANGE = new HashSet<>(Arrays.asList(
+            "<", ">", "<=", ">=", "BETWEEN", "LIKE", "GLOB"));
+    private static final Set<String> CLAUSE_END = new HashSet<>(Arrays.asList(
+            "GROUP", "ORDER", "LIMIT", "HAVING", "WINDOW", "UNION", "EXCEPT", "INTERSECT", "RETURNING"));
+    private static final Set<String> ORDER_KEYWORDS = new HashSet<>(Arrays.asList("ASC", "DESC"));
+    private static final Set<String> TABLE_LIST_END = new HashSet<>(Arrays.asList(
+            "WHERE", "GROUP", "ORDER", "LIMIT", "HAVING", "WINDOW", "UNION", "EXCEPT", "INTERSECT",
+            "JOIN", "LEFT", "RIGHT", "FULL", "INNER", "OUTER", "CROSS", "NATURAL", "ON", "USING",
+            "RETURNING", "SET", "VALUES", "SELECT"));
+    private static final Set<String> VOLATILE_FUNCTIONS = new HashSet<>(Arrays.asList(
+            "RANDOM", "RANDOMBLOB", "CHANGES", "TOTAL_CHANGES", "LAST_INSERT_ROWID",
+            "DATE", "TIME", "DATETIME", "JULIANDAY", "STRFTIME", "UNIXEPOCH", "TIMEDIFF",
+            "CURRENT_DATE", "CURRENT_TIME", "CURRENT_TIMESTAMP"));
+
+    final Set<String> equalityColumns = new LinkedHashSet<>();
+    final Set<String> rangeColumns = new LinkedHashSet<>();
+    final Set<String> orderColumns = new LinkedHashSet<>();
+    final Set<String> tables = new LinkedHashSet<>();
+    /* True if values are written into the SQL instead of being bound with '?' */
+    boolean hasLiterals;
+    boolean isSelect;
+    /* The statement's first keyword, upper-cased (i.e. INSERT or WITH), null if empty */
+    String verb;
+    /* True if it calls a function whose result can change without a write */
+    boolean isVolatile;
+    /* True if it reads from a table-valued function, such as json_each() */
+    boolean hasTableFunction;
+    /* The table an INSERT, UPDATE or DELETE writes, null for other statements */
+    String writeTable;
+
+
+    private StatementShape() {}
+
+    static StatementShape parse(String sql) {
+        final StatementShape shape = new StatementShape();
+        final List<Token> tokens = tokenize(sql);
+        shape.parseStatement(tokens);
+        int i = 0;
+        while (i < tokens.size()) {
+            final Token token = tokens.get(i);
+            if (token.isKeyword("WHERE")) {
+                i = shape.parseWhere(tokens, i + 1);
+            } else if (token.isKeyword("ORDER") && i + 1 < tokens.size() && tokens.get(i + 1).isKeyword("BY")) {
+                i = shape.parseOrderBy(tokens, i + 2);
+            } else {
+                i++;
+            }
+        }
+        return shape;
+    }
+
+    /**
+     * Gets the columns in the order an index should list them: equality columns, then
+     * range columns, then order columns.
+     *
+     * @return the index columns, without duplicates
+     */
+    List<String> getIndexColumns() {
+        final Set<String> columns = new LinkedHashSet<>(equalityColumns);
+        columns.addAll(rangeColumns);
+        columns.addAll(orderColumns);
+        return new ArrayList<>(columns);
+    }
+
+    /**
+     * Finds the statement's kind and target, and the tables and functions it uses
+     * anywhere, including in subqueries.
+     */
+    private void parseStatement(List<Token> tokens) {
+        if (tokens.isEmpty()) {
+            return;
+        }
+        this.verb = tokens.get(0).upper();
+        this.isSelect = tokens.get(0).isKeyword("SELECT");
+        this.writeTable = parseWriteTable(tokens);
+        for (int i = 0; i < tokens.size(); i++) {
+            final Token token = tokens.get(i);
+            if (token.isKeyword("FROM") || token.isKeyword("JOIN")) {
+                parseTables(tokens, i + 1);
+            } else if (token.type == Token.WORD && VOLATILE_FUNCTIONS.contains(token.upper())) {
+                this.isVolatile = true;
+            }
+        }
+    }
+
+    /**
+     * Reads the comma-separated tables after FROM or JOIN, skipping their aliases.
+     * Subqueries are left to the caller, which finds their own FROM clauses.
+     */
+    private void parseTables(List<Token> tokens, int i) {
+        while (i < tokens.size()) {
+            final Token token = tokens.get(i);
+            if (token.type != Token.WORD && token.type != Token.IDENTIFIER) {
+                return;
+            }
+            final int next = skipQualifier(tokens, i);
+            this.tables.add(qualifiedName(tokens, i, next));
+            if (next + 1 < tokens.size() && tokens.get(next + 1).text.equals("(")) {
+                this.hasTableFunction = true;
+                return;
+            }
+
+            // Skip the alias and any INDEXED BY, up to the next table or the end of the list
+            boolean more = false;
+            for (i = next + 1; i < tokens.size(); i++) {
+                final Token t = tokens.get(i);
+                if (t.text.equals(",")) {
+                    more = true;
+                    i++;
+                    break;
+                }
+                if (t.text.equals("(") || t.text.equals(")")
+                        || (t.type == Token.WORD && TABLE_LIST_END.contains(t.upper()))) {
+                    return;
+                }
+            }
+            if (!more) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the table written by an INSERT, REPLACE, UPDATE or DELETE, otherwise null
+     */
+    private static String parseWriteTable(List<Token> tokens) {
+        final Token first = tokens.get(0);
+        int i = -1;
+        if (first.isKeyword("INSERT") || first.isKeyword("REPLACE")) {
+            for (int j = 1; j < tokens.size() && j < 5; j++) {
+                if (tokens.get(j).isKeyword("INTO")) {
+                    i = j + 1;
+                    break;
+                }
+            }
+        } else if (first.isKeyword("UPDATE")) {
+            // Skip OR ROLLBACK, OR REPLACE and so on
+            i = (tokens.size() > 2 && tokens.get(1).isKeyword("OR")) ? 3 : 1;
+        } else if (first.isKeyword("DELETE") && tokens.size() > 1 && tokens.get(1).isKeyword("FROM")) {
+            i = 2;
+        }
+        if (i < 0 || i >= tokens.size()) {
+            return null;
+        }
+        final Token token = tokens.get(i);
+        if (token.type != Token.WORD && token.type != Token.IDENTIFIER) {
+            return null;
+        }
+        return qualifiedName(tokens, i, skipQualifier(tokens, i));
+    }
+
+    private int parseWhere(List<Token> tokens, int i) {
+        int depth = 0;
+        for (; i < tokens.size(); i++) {
+            final Token token = tokens.get(i);
+            if (token.text.equals("(")) {
+                depth++;
+            } else if (token.text.equals(")")) {
+                depth--;
+            } else if (depth <= 0 && token.type == Token.WORD && CLAUSE_END.contains(token.upper())) {
+                return i;
+            } else if (token.type == Token.LITERAL) {
+                this.hasLiterals = true;
+            } else if (token.type == Token.IDENTIFIER || token.type == Token.WORD) {
+                final int next = skipQualifier(tokens, i);
+                final String column = qualifiedName(tokens, i, next);
+                if (next + 1 < tokens.size()) {
+                    Token op = tokens.get(next + 1);
+                    if (op.isKeyword("NOT") && next + 2 < tokens.size()) {
+                        op = tokens.get(next + 2);
+                    }
+                    if (EQUALITY.contains(op.upper())) {
+                        this.equalityColumns.add(column);
+                    } else if (RANGE.contains(op.upper())) {
+                        this.rangeColumns.add(column);
+                    }
+                }
+                i = next;
+            }
+        }
+        return i;
+    }
+
+    private int parseOrderBy(List<Token> tokens, int i) {
+        for (; i < tokens.size(); i++) {
+            final Token token = tokens.get(i);
+            if (token.isKeyword("LIMIT") || token.isKeyword("OFFSET")) {
+                return i;
+            } else if (token.isKeyword("COLLATE") || token.isKeyword("NULLS")) {
+                // Skip the collation name, or FIRST/LAST
+                i++;
+            } else if (token.type == Token.IDENTIFIER
+                    || (token.type == Token.WORD && !ORDER_KEYWORDS.contains(token.upper()))) {
+                final int next = skipQualifier(tokens, i);
+                // Skip function calls, such as lower(name)
+                if (next + 1 >= tokens.size() || !tokens.get(next + 1).text.equals("(")) {
+                    this.orderColumns.add(qualifiedName(tokens, i, next));
+                }
+                i = next;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Skips over "table.column", returning the index of the column's token.
+     */
+    private static int skipQualifier(List<Token> tokens, int i) {
+        while (i + 2 < tokens.size() && tokens.get(i + 1).text.equals(".")) {
+            i += 2;
+        }
+        return i;
+    }
+
+    private static String qualifiedName(List<Token> tokens, int start, int end) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = start; i <= end; i += 2) {
+            if (sb.length() > 0) {
+                sb.append('.');
+            }
+            sb.append(tokens.get(i).name());
+        }
+        return sb.toString();
+    }
+
+    private static List<Token> tokenize(String sql) {
+        final List<Token> tokens = new ArrayList<>();
+        final int length = sql.length();
+        int i = 0;
+        while (i < length) {
+            final char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '\'') {
+                i = skipQuoted(sql, i, '\'');
+                tokens.add(new Token(Token.LITERAL, "'"));
+            } else if (c == '[' || c == '"' || c == '`') {
+                final int end = skipQuoted(sql, i, (c == '[') ? ']' : c);
+                tokens.add(new Token(Token.IDENTIFIER, sql.substring(i + 1, Math.max(i + 1, end - 1))));
+                i = end;
+            } else if (Character.isDigit(c)) {
+                final int start = i;
+                while (i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+                    i++;
+                }
+                tokens.add(new Token(Token.LITERAL, sql.substring(start, i)));
+            } else if (Character.isLetter(c) || c == '_') {
+                final int start = i;
+                while (i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_')) {
+                    i++;
+                }
+                tokens.add(new Token(Token.WORD, sql.substring(start, i)));
+            } else if ((c == '<' || c == '>' || c == '=' || c == '!') && i + 1 < length
+                    && (sql.charAt(i + 1) == '=' || sql.charAt(i + 1) == '>')) {
+                tokens.add(new Token(Token.SYMBOL, sql.substring(i, i + 2)));
+                i += 2;
+            } else {
+                tokens.add(new Token(Token.SYMBOL, String.valueOf(c)));
+                i++;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * @return the index just after the closing quote
+     */
+    private static int skipQuoted(String sql, int start, char close) {
+        int i = start + 1;
+        while (i < sql.length()) {
+            if (sql.charAt(i) == close) {
+                // A doubled quote is an escaped quote
+                if (close != ']' && i + 1 < sql.length() && sql.charAt(i + 1) == close) {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static final class Token {
+        static final int WORD = 0;
+        static final int IDENTIFIER = 1;
+        static final int LITERAL = 2;
+        static final int SYMBOL = 3;
+
+        final int type;
+        final String text;
+
+        Token(int type, String text) {
+            this.type = type;
+            this.text = text;
+        }
+
+        String upper() {
+            return text.toUpperCase(Locale.ROOT);
+        }
+
+        boolean isKeyword(String keyword) {
+            return type == WORD && text.equalsIgnoreCase(keyword);
+        }
+
+        /**
+         * Gets the name of an identifier; a bracketed "[name ASC]", as used in ORDER BY
+         * clauses throughout this library, is trimmed to its first word.
+         */
+        String name() {
+            final int space = text.indexOf(' ');
+            return (type == IDENTIFIER && space > 0) ? text.substring(0, space) : text;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.tylersuehr.sql;
+
+/**
+ * Immutable snapshot of the metrics kept by {@link StatementMetrics} for one statement
+ * shape. Durations are in nanoseconds; percentiles are accurate to within 12.5%.
+ *
+ * @author Tyler Suehr
+ */
+public final class StatementStats {
+    private final String sql;
+    private final long count;
+    private final long errorCount;
+    private final long rowsRead;
+    private final long rowsWritten;
+    private final long totalNanos;
+    private final long p50Nanos;
+    private final long p99Nanos;
+    private final long maxNanos;
+
+
+    StatementStats(String sql, long count, long errorCount, long rowsRead, long rowsWritten,
+                   long totalNanos, long p50Nanos, long p99Nanos, long maxNanos) {
+        this.sql = sql;
+        this.count = count;
+        this.errorCount = errorCount;
+        this.rowsRead = rowsRead;
+        this.rowsWritten = rowsWritten;
+        this.totalNanos = totalNanos;
+        this.p50Nanos = p50Nanos;
+        this.p99Nanos = p99Nanos;
+        this.maxNanos = maxNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "{sql: " + sql + ", count: " + count + ", errors: " + errorCount + ", read: " + rowsRead
+                + ", written: " + rowsWritten + ", p50: " + micros(p50Nanos) + "us, p99: " + micros(p99Nanos)
+                + "us, max: " + micros(maxNanos) + "us}";
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    public long getRowsRead() {
+        return rowsRead;
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * Gets the mean duration of a successful call.
+     * @return the mean in nanoseconds, or 0 if there were no calls
+     */
+    public long getMeanNanos() {
+        return (count == 0) ? 0 : totalNanos / count;
+    }
+
+    public long getP50Nanos() {
+        return p50Nanos;
+    }
+
+    public long getP99Nanos() {
+        return p99Nanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    private static long micros(long nanos) {
+        return nanos / 1000;
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tylersuehr.sql;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parsers for the text formats supported by {@link BulkImporter}.
+ *
+ * (1) CSV: RFC 4180 records; quoted fields may contain delimiters, quotes ("") and
+ *     line breaks. Empty unquoted fields are parsed as NULL.
+ * (2) NDJSON: one flat JSON object per line. Nested objects and arrays are kept as
+ *     their raw JSON text.
+ *
+ * @author Tyler Suehr
+ */
+final class TextRecords {
+    private TextRecords() {}
+
+    /**
+     * Finds where the given bytes can be split so that no record is cut in half.
+     *
+     * @param bytes the bytes to search
+     * @param length the number of bytes to search
+     * @param csv true to ignore line breaks inside quoted CSV fields
+     * @return the index just after the last complete record, or 0 if there is none
+     */
+    static int findSplit(byte[] bytes, int length, boolean csv) {
+        boolean inQuotes = false;
+        int split = 0;
+        for (int i = 0; i < length; i++) {
+            final byte b = bytes[i];
+            if (csv && b == '"') {
+                inQuotes = !inQuotes;
+            } else if (b == '\n' && !inQuotes) {
+                split = i + 1;
+            }
+        }
+        return split;
+    }
+
+    /**
+     * Parses every CSV record in the given text.
+     *
+     * @param text the text, made of complete records
+     * @param delimiter the field delimiter
+     * @return the fields of each record; empty unquoted fields are null
+     */
+    static List<String[]> parseCsv(String text, char delimiter) {
+        final List<String[]> records = new ArrayList<>();
+        final List<String> fields = new ArrayList<>();
+        final StringBuilder field = new StringBuilder();
+        boolean inQuotes = false;
+        boolean quoted = false;
+
+        final int length = text.length();
+        for (int i = 0; i < length; i++) {
+            final char c = text.charAt(i);
+            if (inQuotes) {
+                if (c == '"') {
+                    if (i + 1 < length && text.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        inQuotes = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                inQuotes = true;
+                quoted = true;
+            } else if (c == delimiter) {
+                fields.add(endField(field, quoted));
+                quoted = false;
+            } else if (c == '\n' || c == '\r') {
+                if (c == '\r' && i + 1 < length && text.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                endRecord(records, fields, field, quoted);
+                quoted = false;
+            } else {
+                field.append(c);
+            }
+        }
+        endRecord(records, fields, field, quoted);
+        return records;
+    }
+
+    /**
+     * Parses every NDJSON line in the given text into content values.
+     *
+     * @param text the text, made of complete lines
+     * @param out the list to add each parsed line to
+     * @return the number of lines that could not be parsed
+     */
+    static int parseNdjson(String text, List<ContentValues> out) {
+        int rejected = 0;
+        int start = 0;
+        final int length = text.length();
+        while (start < length) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) {
+                end = length;
+            }
+            final String line = text.substring(start, end).trim();
+            if (!line.isEmpty()) {
+                try {
+                    out.add(new JsonReader(line).readObject());
+                } catch (IllegalArgumentException|IndexOutOfBoundsException ex) {
+                    rejected++;
+                }
+            }
+            start = end + 1;
+        }
+        return rejected;
+    }
+
+    private static String endField(StringBuilder field, boolean quoted) {
+        final String value = (field.length() == 0 && !quoted) ? null : field.toString();
+        field.setLength(0);
+        return value;
+    }
+
+    private static void endRecord(List<String[]> records, List<String> fields, StringBuilder field, boolean quoted) {
+        // Skip blank lines
+        if (fields.isEmpty() && field.length() == 0 && !quoted) {
+            return;
+        }
+        fields.add(endField(field, quoted));
+        records.add(fields.toArray(new String[0]));
+        fields.clear();
+    }
+
+
+    /**
+     * Minimal reader for a single flat JSON object.
+     */
+    private static final class JsonReader {
+        private final String json;
+        private int pos;
+
+
+        JsonReader(String json) {
+            this.json = json;
+        }
+
+        ContentValues readObject() {
+            final ContentValues values = new ContentValues();
+            expect('{');
+            skipWhitespace();
+            if (peek() == '}') {
+                this.pos++;
+                return values;
+            }
+            while (true) {
+                skipWhitespace();
+                final String key = readString();
+                expect(':');
+                readValue(values, key);
+                skipWhitespace();
+                final char c = json.charAt(pos++);
+                if (c == '}') {
+                    break;
+                } else if (c != ',') {
+                    throw new IllegalArgumentException("Expected ',' or '}' at " + (pos - 1));
+                }
+            }
+            skipWhitespace();
+            if (pos != json.length()) {
+                throw new IllegalArgumentException("Unexpected content after object at " + pos);
+            }
+            return values;
+        }
+
+        private void readValue(ContentValues values, String key) {
+            skipWhitespace();
+            final char c = peek();
+            if (c == '"') {
+                values.put(key, readString());
+            } else if (c == '{' || c == '[') {
+                values.put(key, readRaw());
+            } else if (json.startsWith("true", pos)) {
+                this.pos += 4;
+                values.put(key, true);
+            } else if (json.startsWith("false", pos)) {
+                this.pos += 5;
+                values.put(key, false);
+            } else if (json.startsWith("null", pos)) {
+                this.pos += 4;
+                values.put(key, (String)null);
+            } else {
+                readNumber(values, key);
+            }
+        }
+
+        private void readNumber(ContentValues values, String key) {
+            final int start = pos;
+            while (pos < json.length() && "+-0123456789.eE".indexOf(json.charAt(pos)) >= 0) {
+                this.pos++;
+            }
+            final String number = json.substring(start, pos);
+            if (number.isEmpty()) {
+                throw new IllegalArgumentException("Expected a value at " + start);
+            }
+            try {
+                if (number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0) {
+                    values.put(key, Long.parseLong(number));
+                    return;
+                }
+            } catch (NumberFormatException ignored) {}
+            values.put(key, Double.parseDouble(number));
+        }
+
+        private String readString() {
+            expect('"');
+            final StringBuilder sb = new StringBuilder();
+            while (true) {
+                final char c = json.charAt(pos++);
+                if (c == '"') {
+                    return sb.toString();
+                } else if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+
+                final char escaped = json.charAt(pos++);
+                switch (escaped) {
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                        sb.append((char)Integer.parseInt(json.substring(pos, pos + 4), 16));
+                        this.pos += 4;
+                        break;
+                    default: sb.append(escaped); break;
+                }
+            }
+        }
+
+        private String readRaw() {
+            final int start = pos;
+            int depth = 0;
+            boolean inString = false;
+            do {
+                final char c = json.charAt(pos++);
+                if (inString) {
+                    if (c == '\\') {
+                        this.pos++;
+                    } else if (c == '"') {
+                        inString = false;
+                    }
+                } else if (c == '"') {
+                    inString = true;
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            } while (depth > 0);
+            return json.substring(start, pos);
+        }
+
+        private void expect(char expected) {
+            skipWhitespace();
+            if (json.charAt(pos) != expected) {
+                throw new IllegalArgumentException("Expected '" + expected + "' at " + pos);
+            }
+            this.pos++;
+        }
+
+        private char peek() {
+            return json.charAt(pos);
+        }
+
+        private void skipWhitespace() {
+            while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+                this.pos++;
+            }
+        }
+    }
+}
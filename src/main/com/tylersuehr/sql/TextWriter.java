@@ -0,0 +1,259 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.tylersuehr.sql;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes CSV or NDJSON text to a channel through one reusable buffer.
+ *
+ * Values are encoded straight into the buffer (numbers digit by digit, strings as
+ * UTF-8 with CSV or JSON escaping), so no intermediate strings are created per field
+ * and memory stays bounded by the buffer size.
+ *
+ * @author Tyler Suehr
+ */
+final class TextWriter {
+    private static final byte[] DIGITS = "0123456789".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+            .getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[] scratch = new byte[20];
+    private final ByteBuffer buffer;
+    private WritableByteChannel channel;
+    private long written;
+
+
+    TextWriter(WritableByteChannel channel, int bufferSize) {
+        this.buffer = ByteBuffer.allocate(Math.max(bufferSize, 64));
+        this.channel = channel;
+    }
+
+    /**
+     * Flushes the buffer and switches to another channel.
+     *
+     * @param channel the new channel
+     */
+    void setChannel(WritableByteChannel channel) throws IOException {
+        flush();
+        this.channel = channel;
+        this.written = 0;
+    }
+
+    /**
+     * Gets the bytes written since this writer was created or its channel changed,
+     * including those still buffered.
+     */
+    long getBytesWritten() {
+        return written;
+    }
+
+    void writeByte(int b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flush();
+        }
+        this.buffer.put((byte)b);
+        this.written++;
+    }
+
+    void writeBytes(byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            final int count = Math.min(buffer.remaining(), bytes.length - offset);
+            this.buffer.put(bytes, offset, count);
+            offset += count;
+        }
+        this.written += bytes.length;
+    }
+
+    void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            writeBytes(MIN_LONG);
+            return;
+        }
+        if (value < 0) {
+            writeByte('-');
+            value = -value;
+        }
+        int pos = scratch.length;
+        do {
+            this.scratch[--pos] = DIGITS[(int)(value % 10)];
+            value /= 10;
+        } while (value != 0);
+        for (; pos < scratch.length; pos++) {
+            writeByte(scratch[pos]);
+        }
+    }
+
+    void writeDouble(double value) throws IOException {
+        if (value == (long)value && Math.abs(value) < 1e15) {
+            writeLong((long)value);
+            writeByte('.');
+            writeByte('0');
+        } else {
+            writeAscii(Double.toString(value));
+        }
+    }
+
+    /**
+     * Writes a string known to contain only ASCII characters.
+     */
+    void writeAscii(String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            writeByte(value.charAt(i));
+        }
+    }
+
+    /**
+     * Writes a CSV field, quoting it only if it's empty (so it's not read back as NULL)
+     * or contains the delimiter, a quote or a line break.
+     */
+    void writeCsv(String value, char delimiter) throws IOException {
+        boolean quote = value.isEmpty();
+        for (int i = 0; i < value.length() && !quote; i++) {
+            final char c = value.charAt(i);
+            quote = c == delimiter || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writeUtf8(value);
+            return;
+        }
+        writeByte('"');
+        for (int i = 0; i < value.length();) {
+            if (value.charAt(i) == '"') {
+                writeByte('"');
+            }
+            i = writeChar(value, i);
+        }
+        writeByte('"');
+    }
+
+    /**
+     * Writes a quoted JSON string.
+     */
+    void writeJson(String value) throws IOException {
+        writeByte('"');
+        for (int i = 0; i < value.length();) {
+            final char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                i = writeChar(value, i);
+                continue;
+            }
+            switch (c) {
+                case '"': writeByte('\\'); writeByte('"'); break;
+                case '\\': writeByte('\\'); writeByte('\\'); break;
+                case '\n': writeByte('\\'); writeByte('n'); break;
+                case '\r': writeByte('\\'); writeByte('r'); break;
+                case '\t': writeByte('\\'); writeByte('t'); break;
+                case '\b': writeByte('\\'); writeByte('b'); break;
+                case '\f': writeByte('\\'); writeByte('f'); break;
+                default:
+                    writeByte('\\');
+                    writeByte('u');
+                    writeByte('0');
+                    writeByte('0');
+                    writeByte(HEX[c >> 4]);
+                    writeByte(HEX[c & 0xF]);
+            }
+            i++;
+        }
+        writeByte('"');
+    }
+
+    /**
+     * Writes the given bytes as base64 text.
+     */
+    void writeBase64(byte[] bytes) throws IOException {
+        int i = 0;
+        for (; i + 2 < bytes.length; i += 3) {
+            final int n = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8 | (bytes[i + 2] & 0xFF);
+            writeByte(BASE64[n >> 18 & 0x3F]);
+            writeByte(BASE64[n >> 12 & 0x3F]);
+            writeByte(BASE64[n >> 6 & 0x3F]);
+            writeByte(BASE64[n & 0x3F]);
+        }
+        final int rest = bytes.length - i;
+        if (rest > 0) {
+            final int n = (bytes[i] & 0xFF) << 16 | (rest == 2 ? (bytes[i + 1] & 0xFF) << 8 : 0);
+            writeByte(BASE64[n >> 18 & 0x3F]);
+            writeByte(BASE64[n >> 12 & 0x3F]);
+            writeByte(rest == 2 ? BASE64[n >> 6 & 0x3F] : '=');
+            writeByte('=');
+        }
+    }
+
+    void writeUtf8(String value) throws IOException {
+        for (int i = 0; i < value.length();) {
+            i = writeChar(value, i);
+        }
+    }
+
+    void flush() throws IOException {
+        this.buffer.flip();
+        while (buffer.hasRemaining()) {
+            this.channel.write(buffer);
+        }
+        this.buffer.clear();
+    }
+
+    /**
+     * Encodes the character at the given index as UTF-8; a surrogate pair is encoded
+     * as one code point and an unpaired surrogate as '?'.
+     *
+     * @return the index of the next character
+     */
+    private int writeChar(String value, int index) throws IOException {
+        final char c = value.charAt(index);
+        if (c < 0x80) {
+            writeByte(c);
+        } else if (c < 0x800) {
+            writeByte(0xC0 | c >> 6);
+            writeByte(0x80 | c & 0x3F);
+        } else if (Character.isHighSurrogate(c) && index + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(index + 1))) {
+            final int cp = Character.toCodePoint(c, value.charAt(index + 1));
+            writeByte(0xF0 | cp >> 18);
+            writeByte(0x80 | cp >> 12 & 0x3F);
+            writeByte(0x80 | cp >> 6 & 0x3F);
+            writeByte(0x80 | cp & 0x3F);
+            return index + 2;
+        } else if (Character.isSurrogate(c)) {
+            writeByte('?');
+        } else {
+            writeByte(0xE0 | c >> 12);
+            writeByte(0x80 | c >> 6 & 0x3F);
+            writeByte(0x80 | c & 0x3F);
+        }
+        return index + 1;
+    }
+}
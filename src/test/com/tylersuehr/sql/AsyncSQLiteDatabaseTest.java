@@ -0,0 +1,109 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.tylersuehr.sql;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Tyler Suehr
+ */
+public class AsyncSQLiteDatabaseTest {
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private TempDatabase temp;
+    private AsyncSQLiteDatabase async;
+
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+        if (temp != null) {
+            this.temp.close();
+        }
+    }
+
+    @Test
+    public void testFailedWriteCompletesExceptionally() throws Exception {
+        open(0);
+        try {
+            this.async.insert("items", new ContentValues().put("id", 1)).get();
+            Assert.fail("Insert should have failed!");
+        } catch (ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+
+        // The failed write leaves the database usable
+        this.async.insert("items", new ContentValues().put("id", 1).put("name", "a")).get();
+        this.async.update("items", new ContentValues().put("name", "b"), "id=?", new Object[] { 1 }).get();
+        Assert.assertEquals(1, count());
+        this.async.delete("items", "id=?", new Object[] { 1 }).get();
+        Assert.assertEquals(0, count());
+    }
+
+    @Test
+    public void testConcurrencyCappedAtConnectionCount() throws Exception {
+        open(1);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(async.submit(db -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                return null;
+            }));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+        Assert.assertEquals(2, temp.db.getConnectionCount());
+        Assert.assertTrue(maxRunning.get() <= 2);
+    }
+
+    private void open(int readerConnections) throws IOException {
+        this.temp = new TempDatabase(readerConnections);
+        this.temp.db.execSql("CREATE TABLE [items] ([id] INTEGER PRIMARY KEY, [name] TEXT NOT NULL);");
+        this.async = temp.db.createAsync(executor);
+    }
+
+    private int count() throws Exception {
+        return async.submit(db -> {
+            try (Cursor c = db.rawQueryCursor("SELECT COUNT(*) FROM [items];", null)) {
+                c.moveToNext();
+                return c.getInt(0);
+            }
+        }).get();
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.tylersuehr.sql;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Tyler Suehr
+ */
+public class BoundedCacheTest {
+    @Test
+    public void testLruEvictsLeastRecentlyUsed() {
+        BoundedCache<String, Integer> cache = new BoundedCache<String, Integer>(2)
+                .setEvictionPolicy(BoundedCache.EvictionPolicy.LRU);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        Assert.assertEquals(Integer.valueOf(1), cache.get("a"));
+        cache.put("c", 3);
+
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals(Integer.valueOf(1), cache.get("a"));
+        Assert.assertEquals(Integer.valueOf(3), cache.get("c"));
+        Assert.assertEquals(1, cache.getStats().getEvictionCount());
+    }
+
+    @Test
+    public void testTinyLfuKeepsHotEntriesDuringScan() {
+        BoundedCache<Integer, Integer> cache = new BoundedCache<>(100);
+        for (int i = 0; i < 50; i++) {
+            cache.put(i, i);
+        }
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 50; i++) {
+                cache.get(i);
+            }
+        }
+        for (int i = 1000; i < 2000; i++) {
+            cache.put(i, i);
+        }
+
+        int kept = 0;
+        for (int i = 0; i < 50; i++) {
+            if (cache.get(i) != null) {
+                kept++;
+            }
+        }
+        Assert.assertEquals(50, kept);
+        Assert.assertTrue(cache.size() <= 100);
+    }
+
+    @Test
+    public void testWeightBound() {
+        BoundedCache<String, String> cache = new BoundedCache<String, String>(10)
+                .setWeigher((key, value) -> value.length());
+        cache.put("a", "12345");
+        cache.put("b", "12345");
+        cache.put("c", "123");
+        Assert.assertTrue(cache.weight() <= 10);
+
+        cache.put("d", "12345678901");
+        Assert.assertNull(cache.get("d"));
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        BoundedCache<String, Integer> cache = new BoundedCache<>(10);
+        cache.put("a", 1, 1, TimeUnit.MILLISECONDS);
+        cache.put("b", 2);
+        Thread.sleep(5);
+
+        Assert.assertNull(cache.get("a"));
+        Assert.assertEquals(Integer.valueOf(2), cache.get("b"));
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testStaleWhileRevalidate() throws InterruptedException {
+        final AtomicInteger loads = new AtomicInteger();
+        BoundedCache<String, Integer> cache = new BoundedCache<String, Integer>(10)
+                .setRefreshAfterWrite(1, TimeUnit.MILLISECONDS)
+                .setRefreshExecutor(Runnable::run);
+
+        Assert.assertEquals(Integer.valueOf(1), cache.get("a", key -> loads.incrementAndGet()));
+        Thread.sleep(5);
+
+        // Serves the stale value, then reloads it
+        Assert.assertEquals(Integer.valueOf(1), cache.get("a", key -> loads.incrementAndGet()));
+        Assert.assertEquals(Integer.valueOf(2), cache.get("a"));
+        Assert.assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testPutDuringLoadWins() {
+        BoundedCache<String, Integer> cache = new BoundedCache<>(10);
+
+        // The loader read the old value, then a write replaced it before the load finished
+        Assert.assertEquals(Integer.valueOf(1), cache.get("a", key -> {
+            cache.put("a", 2);
+            return 1;
+        }));
+        Assert.assertEquals(Integer.valueOf(2), cache.get("a"));
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testRemoveDuringLoadWins() {
+        BoundedCache<String, Integer> cache = new BoundedCache<>(10);
+        Assert.assertEquals(Integer.valueOf(1), cache.get("a", key -> {
+            cache.remove("a");
+            return 1;
+        }));
+        Assert.assertNull(cache.get("a"));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testStats() {
+        BoundedCache<String, Integer> cache = new BoundedCache<>(10);
+        cache.put("a", 1);
+        cache.get("a");
+        cache.get("b");
+        Assert.assertNull(cache.get("b", key -> null));
+
+        CacheStats stats = cache.getStats();
+        Assert.assertEquals(1, stats.getHitCount());
+        Assert.assertEquals(2, stats.getMissCount());
+        Assert.assertEquals(1, stats.getSize());
+    }
+}
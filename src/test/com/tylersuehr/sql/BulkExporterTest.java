@@ -0,0 +1,117 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.tylersuehr.sql;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Runs against an in-memory database, so it's skipped without the SQLite JDBC driver.
+ *
+ * @author Tyler Suehr
+ */
+public class BulkExporterTest {
+    private static final String SCHEMA = " ([id] INTEGER PRIMARY KEY, [code] INTEGER, [amount] NUMERIC, "
+            + "[ratio] REAL, [name] TEXT, [created] DATETIME);";
+    private static final String ROWS = "SELECT [id], typeof([code]), [code], typeof([amount]), [amount], "
+            + "typeof([ratio]), [ratio], [name], typeof([created]), [created] FROM [%s] ORDER BY [id];";
+    private SQLiteDatabase db;
+
+
+    @Before
+    public void setUp() {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException ex) {
+            Assume.assumeNoException(ex);
+        }
+        this.db = new SQLiteDatabase(":memory:");
+        this.db.execSql("CREATE TABLE [source]" + SCHEMA);
+        this.db.execSql("CREATE TABLE [target]" + SCHEMA);
+        this.db.execSql("INSERT INTO [source] VALUES (1, 'abc', 5, 0.5, 'a, \"quoted\" name', 1700000000);");
+        this.db.execSql("INSERT INTO [source] VALUES (2, 7, 2.5, NULL, NULL, '2024-01-01');");
+    }
+
+    @After
+    public void tearDown() {
+        if (db != null) {
+            this.db.close();
+        }
+    }
+
+    @Test
+    public void testWritesEachValueByItsStorageClass() throws Exception {
+        Assert.assertEquals("id,code,amount,ratio,name,created\n"
+                + "1,abc,5,0.5,\"a, \"\"quoted\"\" name\",1700000000\n"
+                + "2,7,2.5,,,2024-01-01\n", export(TextFormat.CSV));
+
+        // The driver types a DATETIME column as a date, whatever it holds
+        Assert.assertEquals("{\"id\":1,\"code\":\"abc\",\"amount\":5,\"ratio\":0.5,"
+                + "\"name\":\"a, \\\"quoted\\\" name\",\"created\":1700000000}\n"
+                + "{\"id\":2,\"code\":7,\"amount\":2.5,\"ratio\":null,\"name\":null,"
+                + "\"created\":\"2024-01-01\"}\n", export(TextFormat.NDJSON));
+    }
+
+    @Test
+    public void testCsvRoundTrip() throws Exception {
+        assertRoundTrip(TextFormat.CSV);
+    }
+
+    @Test
+    public void testNdjsonRoundTrip() throws Exception {
+        assertRoundTrip(TextFormat.NDJSON);
+    }
+
+    private void assertRoundTrip(TextFormat format) throws Exception {
+        final byte[] exported = export(format).getBytes(StandardCharsets.UTF_8);
+        this.db.createBulkImporter("target", format)
+                .importFrom(Channels.newChannel(new ByteArrayInputStream(exported)), -1);
+        Assert.assertEquals(rows("source"), rows("target"));
+    }
+
+    private String export(TextFormat format) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        this.db.createBulkExporter(format).exportTo("SELECT * FROM [source] ORDER BY [id];", null, out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private String rows(String table) {
+        final StringBuilder rows = new StringBuilder();
+        try (Cursor c = db.rawQueryCursor(String.format(ROWS, table), null)) {
+            while (c.moveToNext()) {
+                for (int i = 0; i < c.getColumnCount(); i++) {
+                    rows.append(c.getString(i)).append('|');
+                }
+                rows.append('\n');
+            }
+        }
+        return rows.toString();
+    }
+}
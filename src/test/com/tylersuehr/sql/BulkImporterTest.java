@@ -0,0 +1,112 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.tylersuehr.sql;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Runs against an in-memory database, so it's skipped without the SQLite JDBC driver.
+ *
+ * @author Tyler Suehr
+ */
+public class BulkImporterTest {
+    private SQLiteDatabase db;
+
+
+    @Before
+    public void setUp() {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException ex) {
+            Assume.assumeNoException(ex);
+        }
+        this.db = new SQLiteDatabase(":memory:");
+        this.db.execSql("CREATE TABLE [users] ([id] INTEGER PRIMARY KEY, [name] TEXT NOT NULL UNIQUE);");
+    }
+
+    @After
+    public void tearDown() {
+        if (db != null) {
+            this.db.close();
+        }
+    }
+
+    @Test
+    public void testConstraintViolationSkipsOnlyBadRows() throws Exception {
+        BulkImporter.Stats stats = db.createBulkImporter("users", TextFormat.CSV)
+                .setBatchSize(2)
+                .importFrom(channelOf("id,name\n1,a\n2,b\n3,a\n4,c\n5,d\n"), -1);
+
+        Assert.assertEquals(4, stats.getRowsWritten());
+        Assert.assertEquals(1, stats.getRowsFailed());
+        Assert.assertEquals(4, count("SELECT COUNT(*) FROM [users];"));
+        Assert.assertEquals(0, count("SELECT COUNT(*) FROM [users] WHERE [id]=3;"));
+    }
+
+    @Test
+    public void testMultiRowConstraintViolation() throws Exception {
+        BulkImporter.Stats stats = db.createBulkImporter("users", TextFormat.CSV)
+                .setBatchSize(3)
+                .setInsertStrategy(SQLiteDatabase.InsertStrategy.MULTI_ROW)
+                .importFrom(channelOf("id,name\n1,a\n2,a\n3,c\n4,d\n"), -1);
+
+        Assert.assertEquals(3, stats.getRowsWritten());
+        Assert.assertEquals(1, stats.getRowsFailed());
+        Assert.assertEquals(3, count("SELECT COUNT(*) FROM [users];"));
+    }
+
+    @Test
+    public void testFailedIndexRebuildKeepsNothing() throws Exception {
+        this.db.execSql("CREATE TABLE [tags] ([id] INTEGER PRIMARY KEY, [tag] TEXT);");
+        this.db.execSql("CREATE UNIQUE INDEX [tags_tag] ON [tags] ([tag]);");
+
+        try {
+            db.createBulkImporter("tags", TextFormat.CSV)
+                    .setRebuildIndexes(true)
+                    .importFrom(channelOf("id,tag\n1,x\n2,x\n"), -1);
+            Assert.fail("Expected the import to be rolled back!");
+        } catch (IllegalStateException expected) {}
+
+        Assert.assertEquals(0, count("SELECT COUNT(*) FROM [tags];"));
+        Assert.assertEquals(1, count("SELECT COUNT(*) FROM [sqlite_master] WHERE [name]='tags_tag';"));
+    }
+
+    private long count(String sql) {
+        try (Cursor c = db.rawQueryCursor(sql, null)) {
+            Assert.assertTrue(c.moveToNext());
+            return c.getLong(0);
+        }
+    }
+
+    private static ReadableByteChannel channelOf(String text) {
+        return Channels.newChannel(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+    }
+}
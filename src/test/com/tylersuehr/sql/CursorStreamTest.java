@@ -0,0 +1,93 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.tylersuehr.sql;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * @author Tyler Suehr
+ */
+public class CursorStreamTest {
+    private static final RowMapper<Long> IDS = new RowMapper<Long>() {
+        @Override
+        public String[] getColumns() {
+            return new String[] { "id" };
+        }
+
+        @Override
+        public Long map(Cursor c, int[] columns) {
+            return c.getLong(columns[0]);
+        }
+    };
+    private TempDatabase temp;
+
+
+    @Before
+    public void setUp() throws IOException {
+        this.temp = new TempDatabase(1);
+        this.temp.db.execSql("CREATE TABLE [items] ([id] INTEGER PRIMARY KEY);");
+        for (int i = 1; i <= 3; i++) {
+            this.temp.db.insert("items", new ContentValues().put("id", i));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (temp != null) {
+            this.temp.close();
+        }
+    }
+
+    @Test
+    public void testExhaustedStreamClosesCursor() {
+        final Cursor c = query();
+        Assert.assertEquals(0, temp.db.getIdleReaderCount());
+        Assert.assertEquals(Arrays.asList(1L, 2L, 3L), c.stream(IDS).collect(Collectors.toList()));
+        Assert.assertTrue(c.isClosed());
+        Assert.assertEquals(1, temp.db.getIdleReaderCount());
+    }
+
+    @Test
+    public void testClosedStreamClosesCursor() {
+        final Cursor c = query();
+        try (Stream<Long> ids = c.stream(IDS)) {
+            final Optional<Long> first = ids.findFirst();
+            Assert.assertEquals(Long.valueOf(1), first.get());
+            Assert.assertFalse(c.isClosed());
+        }
+        Assert.assertTrue(c.isClosed());
+        Assert.assertEquals(1, temp.db.getIdleReaderCount());
+    }
+
+    private Cursor query() {
+        return temp.db.rawQueryCursor("SELECT [id] FROM [items] ORDER BY [id];", null);
+    }
+}
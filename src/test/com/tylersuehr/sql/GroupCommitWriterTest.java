@@ -0,0 +1,183 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.tylersuehr.sql;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Tyler Suehr
+ */
+public class GroupCommitWriterTest {
+    private TempDatabase temp;
+    private GroupCommitWriter writer;
+
+
+    @Before
+    public void setUp() throws IOException {
+        this.temp = new TempDatabase(0);
+        this.temp.db.execSql("CREATE TABLE [items] ([id] INTEGER PRIMARY KEY, [name] TEXT NOT NULL);");
+    }
+
+    @After
+    public void tearDown() {
+        if (writer != null) {
+            this.writer.close();
+        }
+        if (temp != null) {
+            this.temp.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testQueuedWritesShareOneCommit() throws Exception {
+        this.writer = temp.db.createGroupCommitWriter(100, 0);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CompletableFuture<Void> first = blockWriter(release);
+
+        final List<CompletableFuture<Void>> rest = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            rest.add(writer.insert("items", item(i)));
+        }
+        release.countDown();
+        first.get();
+        CompletableFuture.allOf(rest.toArray(new CompletableFuture[0])).get();
+
+        Assert.assertEquals(2, writer.getCommitCount());
+        Assert.assertEquals(10, writer.getLargestBatchSize());
+        Assert.assertEquals(10, count());
+    }
+
+    @Test(timeout = 10000)
+    public void testFailedWriteLeavesRestOfBatch() throws Exception {
+        this.writer = temp.db.createGroupCommitWriter(3, TimeUnit.SECONDS.toMillis(10));
+        final CompletableFuture<Void> a = writer.insert("items", item(1));
+        final CompletableFuture<Void> b = writer.insert("items", new ContentValues().put("id", 2));
+        final CompletableFuture<Void> c = writer.insert("items", item(3));
+
+        a.get();
+        c.get();
+        assertFailed(b);
+        Assert.assertEquals(1, writer.getCommitCount());
+        Assert.assertEquals(2, count());
+    }
+
+    @Test(timeout = 10000)
+    public void testErrorFailsBatchAndReleasesWriteLock() throws Exception {
+        this.writer = temp.db.createGroupCommitWriter(2, TimeUnit.SECONDS.toMillis(10));
+        final CompletableFuture<Void> a = writer.insert("items", item(1));
+        final CompletableFuture<Void> b = writer.submit(db -> {
+            throw new AssertionError("Write failed!");
+        });
+
+        assertFailed(a);
+        assertFailed(b);
+        Assert.assertEquals(0, writer.getCommitCount());
+
+        // Would block forever if the writer thread still held the write lock
+        this.temp.db.insert("items", item(2));
+        Assert.assertEquals(1, count());
+    }
+
+    @Test(timeout = 10000)
+    public void testFullQueueBlocksSubmit() throws Exception {
+        this.writer = temp.db.createGroupCommitWriter(1, 0);
+        final CountDownLatch release = new CountDownLatch(1);
+        blockWriter(release);
+        for (int i = 1; i <= 4; i++) {
+            this.writer.insert("items", item(i));
+        }
+
+        final Thread producer = new Thread(() -> writer.insert("items", item(5)));
+        producer.start();
+        producer.join(100);
+        Assert.assertTrue(producer.isAlive());
+
+        release.countDown();
+        producer.join(5000);
+        Assert.assertFalse(producer.isAlive());
+    }
+
+    @Test(timeout = 10000)
+    public void testCloseCommitsQueuedWrites() throws Exception {
+        this.writer = temp.db.createGroupCommitWriter(100, 50);
+        final List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            writes.add(writer.insert("items", item(i)));
+        }
+        this.writer.close();
+
+        for (CompletableFuture<Void> write : writes) {
+            Assert.assertTrue(write.isDone());
+            write.get();
+        }
+        Assert.assertEquals(5, count());
+        assertFailed(writer.insert("items", item(6)));
+    }
+
+    /**
+     * Submits a write that holds up the writer thread until released.
+     */
+    private CompletableFuture<Void> blockWriter(CountDownLatch release) throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CompletableFuture<Void> write = writer.submit(db -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        return write;
+    }
+
+    private int count() {
+        try (Cursor c = temp.db.rawQueryCursor("SELECT COUNT(*) FROM [items];", null)) {
+            Assert.assertTrue(c.moveToNext());
+            return c.getInt(0);
+        }
+    }
+
+    private static ContentValues item(int id) {
+        return new ContentValues().put("id", id).put("name", "item" + id);
+    }
+
+    private static void assertFailed(CompletableFuture<Void> write) throws InterruptedException {
+        try {
+            write.get();
+            Assert.fail("Write should have failed!");
+        } catch (ExecutionException expected) {
+            Assert.assertTrue(expected.getCause() instanceof IllegalStateException);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.tylersuehr.sql;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.IOException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Tyler Suehr
+ */
+public class InsertAllTest {
+    private TempDatabase temp;
+    private SQLiteDatabase db;
+
+
+    @Before
+    public void setUp() throws IOException {
+        this.temp = new TempDatabase(0);
+        this.db = temp.db;
+        this.db.execSql("CREATE TABLE [items] ([id] INTEGER PRIMARY KEY, [name] TEXT NOT NULL, [size] INTEGER);");
+    }
+
+    @After
+    public void tearDown() {
+        if (temp != null) {
+            this.temp.close();
+        }
+    }
+
+    @Test
+    public void testMultiRowChunksStayUnderVariableLimit() {
+        final List<Integer> rowsPerStatement = new ArrayList<>();
+        this.db.addStatementListener((sql, elapsedNanos, rowsRead, rowsWritten) -> {
+            if (sql.startsWith("INSERT")) {
+                rowsPerStatement.add(rowsWritten);
+            }
+        });
+
+        // Three columns fit 333 rows in 999 variables, so 1000 rows take four statements
+        final int[] results = db.insertAll("items", items(1, 1000), 1000, SQLiteDatabase.InsertStrategy.MULTI_ROW);
+        for (int result : results) {
+            Assert.assertEquals(1, result);
+        }
+        Assert.assertEquals(1000, count());
+        Assert.assertEquals(4, rowsPerStatement.size());
+        Assert.assertEquals(Integer.valueOf(333), rowsPerStatement.get(0));
+        Assert.assertEquals(Integer.valueOf(1), rowsPerStatement.get(3));
+    }
+
+    @Test
+    public void testFailedBatchRollsBackInTransaction() {
+        for (SQLiteDatabase.InsertStrategy strategy : SQLiteDatabase.InsertStrategy.values()) {
+            this.db.delete("items", null, null);
+            final List<ContentValues> rows = items(1, 4);
+            rows.get(2).put("name", null);
+
+            final int[] results;
+            this.db.beginTransaction();
+            try {
+                this.db.insert("items", items(100, 1).get(0));
+                results = db.insertAll("items", rows, 2, strategy);
+                this.db.setTransactionSuccessful();
+            } finally {
+                this.db.endTransaction();
+            }
+
+            // The second batch is rolled back to its savepoint, the rest is committed
+            Assert.assertArrayEquals(strategy.name(), new int[] {
+                    1, 1, Statement.EXECUTE_FAILED, Statement.EXECUTE_FAILED }, results);
+            Assert.assertEquals(strategy.name(), 3, count());
+        }
+    }
+
+    private int count() {
+        try (Cursor c = db.rawQueryCursor("SELECT COUNT(*) FROM [items];", null)) {
+            Assert.assertTrue(c.moveToNext());
+            return c.getInt(0);
+        }
+    }
+
+    private static List<ContentValues> items(int first, int count) {
+        final List<ContentValues> rows = new ArrayList<>(count);
+        for (int id = first; id < first + count; id++) {
+            rows.add(new ContentValues().put("id", id).put("name", "item" + id).put("size", id * 10));
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.tylersuehr.sql;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import java.util.Collections;
+
+/**
+ * The tests of a filter over a table run against an in-memory database, so they're
+ * skipped without the SQLite JDBC driver.
+ *
+ * @author Tyler Suehr
+ */
+public class KeyFilterTest {
+    private SQLiteDatabase db;
+
+
+    @After
+    public void tearDown() {
+        if (db != null) {
+            this.db.close();
+        }
+    }
+
+    @Test
+    public void testNoFalseNegatives() {
+        KeyFilter.Bits bits = new KeyFilter.Bits(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            bits.put("user-" + i);
+        }
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertTrue(bits.mightContain("user-" + i));
+        }
+        Assert.assertEquals(10000, bits.keyCount.get());
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+        KeyFilter.Bits bits = new KeyFilter.Bits(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            bits.put("user-" + i);
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (bits.mightContain("missing-" + i)) {
+                falsePositives++;
+            }
+        }
+        Assert.assertTrue("Observed " + falsePositives, falsePositives < 2000);
+        Assert.assertEquals(0.01, bits.expectedFalsePositiveRate(), 0.005);
+    }
+
+    @Test
+    public void testEmpty() {
+        KeyFilter.Bits bits = new KeyFilter.Bits(1024, 0.01);
+        Assert.assertFalse(bits.mightContain("1"));
+        Assert.assertEquals(0, bits.expectedFalsePositiveRate(), 0);
+    }
+
+    @Test
+    public void testLearnsKeysWrittenThroughDatabase() {
+        KeyFilter filter = openFilter();
+        Assert.assertTrue(filter.isReady());
+        Assert.assertFalse(filter.mightContain("a"));
+
+        this.db.insert("users", new ContentValues().put("id", "a").put("name", "x"));
+        this.db.upsert("users", new ContentValues().put("id", "b").put("name", "x"), "id");
+        this.db.insertAll("users", Collections.singletonList(
+                new ContentValues().put("id", "c").put("name", "x")));
+        this.db.update("users", new ContentValues().put("id", "d"), "[id]=?", new Object[] { "c" });
+
+        for (String key : new String[] { "a", "b", "c", "d" }) {
+            Assert.assertTrue(key, filter.mightContain(key));
+        }
+        Assert.assertTrue(filter.isReady());
+    }
+
+    @Test
+    public void testLearnsKeysOnlyOnceCommitted() {
+        KeyFilter filter = openFilter();
+        this.db.beginTransaction();
+        try {
+            this.db.insert("users", new ContentValues().put("id", "a").put("name", "x"));
+            Assert.assertFalse(filter.mightContain("a"));
+            this.db.setTransactionSuccessful();
+        } finally {
+            this.db.endTransaction();
+        }
+        Assert.assertTrue(filter.mightContain("a"));
+    }
+
+    @Test
+    public void testRawInsertMakesFilterStale() {
+        KeyFilter filter = openFilter();
+        this.db.execSql("INSERT INTO [users] ([id], [name]) VALUES ('a', 'x');");
+        Assert.assertFalse(filter.isReady());
+        Assert.assertTrue(filter.mightContain("a"));
+
+        Assert.assertTrue(filter.rebuild());
+        Assert.assertTrue(filter.mightContain("a"));
+        Assert.assertFalse(filter.mightContain("b"));
+    }
+
+    @Test
+    public void testRawDeleteKeepsFilter() {
+        KeyFilter filter = openFilter();
+        this.db.execSql("DELETE FROM [users];");
+        Assert.assertTrue(filter.isReady());
+    }
+
+    @Test
+    public void testInsertWithoutKeyMakesFilterStale() {
+        KeyFilter filter = openFilter();
+        this.db.insert("users", new ContentValues().put("name", "x"));
+        Assert.assertFalse(filter.isReady());
+    }
+
+    @Test
+    public void testLooksUpKeysAsStored() {
+        KeyFilter filter = openFilter("INTEGER");
+        this.db.insert("users", new ContentValues().put("id", 5).put("name", "x"));
+        Assert.assertTrue(filter.mightContain(5L));
+        Assert.assertTrue(filter.mightContain("5"));
+        Assert.assertTrue(filter.mightContain(5.0));
+        Assert.assertTrue(filter.mightContain("05"));
+        Assert.assertFalse(filter.mightContain(6));
+    }
+
+    @Test
+    public void testLearnsKeysConvertedByIntegerColumn() {
+        KeyFilter filter = openFilter("INTEGER");
+        this.db.insert("users", new ContentValues().put("id", 5.0).put("name", "x"));
+        this.db.insert("users", new ContentValues().put("id", "07").put("name", "x"));
+        this.db.insert("users", new ContentValues().put("id", "1e1").put("name", "x"));
+        Assert.assertTrue(filter.isReady());
+        for (long key : new long[] { 5, 7, 10 }) {
+            Assert.assertTrue(String.valueOf(key), filter.mightContain(key));
+        }
+
+        // Agrees with a fresh scan of what SQLite stored
+        Assert.assertTrue(filter.rebuild());
+        for (long key : new long[] { 5, 7, 10 }) {
+            Assert.assertTrue(String.valueOf(key), filter.mightContain(key));
+        }
+        Assert.assertFalse(filter.mightContain(6));
+    }
+
+    @Test
+    public void testFractionalKeyMakesFilterStale() {
+        KeyFilter filter = openFilter("NUMERIC");
+        this.db.insert("users", new ContentValues().put("id", "2.5").put("name", "x"));
+        Assert.assertFalse(filter.isReady());
+        Assert.assertTrue(filter.mightContain(2.5));
+    }
+
+    @Test
+    public void testTextColumnKeepsNumericText() {
+        KeyFilter filter = openFilter();
+        this.db.insert("users", new ContentValues().put("id", "05").put("name", "x"));
+        Assert.assertTrue(filter.isReady());
+        Assert.assertTrue(filter.mightContain("05"));
+        Assert.assertFalse(filter.mightContain("5"));
+    }
+
+    private KeyFilter openFilter() {
+        return openFilter("TEXT");
+    }
+
+    private KeyFilter openFilter(String keyType) {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException ex) {
+            Assume.assumeNoException(ex);
+        }
+        this.db = new SQLiteDatabase(":memory:");
+        this.db.execSql("CREATE TABLE [users] ([id] " + keyType + " PRIMARY KEY, [name] TEXT);");
+        return db.createKeyFilter("users", "id", 0.01).setAutoRebuild(false);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.tylersuehr.sql;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Tyler Suehr
+ */
+public class ReaderPoolTest {
+    private TempDatabase temp;
+    private SQLiteDatabase db;
+
+
+    @Before
+    public void setUp() throws IOException {
+        this.temp = new TempDatabase(2);
+        this.db = temp.db;
+        this.db.execSql("CREATE TABLE [items] ([id] INTEGER PRIMARY KEY);");
+        this.db.insert("items", new ContentValues().put("id", 1));
+    }
+
+    @After
+    public void tearDown() {
+        if (temp != null) {
+            this.temp.close();
+        }
+    }
+
+    @Test
+    public void testQueryBorrowsReaderUntilClosed() {
+        Assert.assertEquals(2, db.getIdleReaderCount());
+        try (Cursor c = db.rawQueryCursor("SELECT * FROM [items];", null)) {
+            Assert.assertEquals(1, db.getIdleReaderCount());
+            Assert.assertTrue(c.moveToNext());
+        }
+        Assert.assertEquals(2, db.getIdleReaderCount());
+    }
+
+    @Test
+    public void testQueryInTransactionUsesWriter() {
+        this.db.beginTransaction();
+        try {
+            this.db.insert("items", new ContentValues().put("id", 2));
+            try (Cursor c = db.rawQueryCursor("SELECT COUNT(*) FROM [items];", null)) {
+                Assert.assertEquals(2, db.getIdleReaderCount());
+                Assert.assertTrue(c.moveToNext());
+                Assert.assertEquals(2, c.getInt(0));
+            }
+        } finally {
+            this.db.endTransaction();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    @Test
+    public void testExhaustedResultsGiveBackReader() throws SQLException {
+        final ResultSet results = db.rawQuery("SELECT * FROM [items];");
+        Assert.assertEquals(1, db.getIdleReaderCount());
+        Assert.assertTrue(results.next());
+        Assert.assertFalse(results.next());
+        Assert.assertEquals(2, db.getIdleReaderCount());
+
+        // Closing after running out doesn't give it back twice
+        results.close();
+        Assert.assertEquals(2, db.getIdleReaderCount());
+    }
+
+    @Test
+    public void testQueryWaitsForIdleReader() throws InterruptedException {
+        final AtomicInteger count = new AtomicInteger(-1);
+        final Thread reader;
+        try (Cursor first = db.rawQueryCursor("SELECT * FROM [items];", null);
+             Cursor second = db.rawQueryCursor("SELECT * FROM [items];", null)) {
+            Assert.assertEquals(0, db.getIdleReaderCount());
+            reader = new Thread(() -> count.set(count()));
+            reader.start();
+            reader.join(100);
+            Assert.assertTrue(reader.isAlive());
+        }
+        reader.join(5000);
+        Assert.assertFalse(reader.isAlive());
+        Assert.assertEquals(1, count.get());
+        Assert.assertEquals(2, db.getIdleReaderCount());
+    }
+
+    @Test
+    public void testReaderDoesNotSeeUncommittedWrites() throws InterruptedException {
+        final AtomicInteger count = new AtomicInteger(-1);
+        this.db.beginTransaction();
+        try {
+            this.db.insert("items", new ContentValues().put("id", 2));
+            final Thread reader = new Thread(() -> count.set(count()));
+            reader.start();
+            reader.join(5000);
+            Assert.assertEquals(1, count.get());
+            this.db.setTransactionSuccessful();
+        } finally {
+            this.db.endTransaction();
+        }
+        Assert.assertEquals(2, count());
+    }
+
+    private int count() {
+        try (Cursor c = db.rawQueryCursor("SELECT COUNT(*) FROM [items];", null)) {
+            return c.moveToNext() ? c.getInt(0) : -1;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.tylersuehr.sql;
+import org.junit.Assert;
+import org.junit.Test;
+import java.util.function.Predicate;
+
+/**
+ * Runs without a database: tables are told apart from views by a stand-in lookup.
+ *
+ * @author Tyler Suehr
+ */
+public class ResultCacheTest {
+    private static final String USERS_SQL = "SELECT * FROM [users] WHERE [id]=?";
+    private static final Predicate<String> TABLES = name -> name.equals("users") || name.equals("posts");
+
+    @Test
+    public void testNormalize() {
+        Assert.assertEquals("SELECT * FROM [users] WHERE [id]=?",
+                ResultCache.normalize("  SELECT *\n  FROM [users]\tWHERE [id]=? ;"));
+        Assert.assertEquals("SELECT * FROM [users] WHERE [id]=?",
+                ResultCache.normalize("SELECT * FROM [users] WHERE [id]=?;"));
+    }
+
+    @Test
+    public void testNormalizeKeepsQuotedText() {
+        Assert.assertEquals("SELECT * FROM [my  table] WHERE [name]='a  b;'",
+                ResultCache.normalize("SELECT *  FROM [my  table] WHERE [name]='a  b;';"));
+    }
+
+    @Test
+    public void testKeyMatchesUntilItsTableIsWritten() {
+        ResultCache cache = newCache(false);
+        ResultCache.Plan plan = ResultCache.createPlan(USERS_SQL, TABLES);
+        ResultCache.Key key = cache.keyOf(USERS_SQL, new Object[] { 1 }, plan);
+        Assert.assertEquals(key, cache.keyOf(USERS_SQL, new Object[] { 1 }, plan));
+        Assert.assertNotEquals(key, cache.keyOf(USERS_SQL, new Object[] { 2 }, plan));
+
+        // Writes to other tables leave it alone
+        cache.invalidate("posts");
+        Assert.assertEquals(key, cache.keyOf(USERS_SQL, new Object[] { 1 }, plan));
+
+        cache.invalidate("main.USERS");
+        Assert.assertNotEquals(key, cache.keyOf(USERS_SQL, new Object[] { 1 }, plan));
+    }
+
+    @Test
+    public void testEpochChangesEveryKey() {
+        ResultCache cache = newCache(false);
+        ResultCache.Plan plan = ResultCache.createPlan(USERS_SQL, TABLES);
+        ResultCache.Key key = cache.keyOf(USERS_SQL, null, plan);
+
+        cache.invalidateAll();
+        Assert.assertNotEquals(key, cache.keyOf(USERS_SQL, null, plan));
+    }
+
+    @Test
+    public void testInvalidateFallsBackToAllWithSideEffects() {
+        // Triggers or foreign keys let a write to posts change users
+        ResultCache cache = newCache(true);
+        ResultCache.Plan plan = ResultCache.createPlan(USERS_SQL, TABLES);
+        ResultCache.Key key = cache.keyOf(USERS_SQL, null, plan);
+        cache.invalidate("posts");
+        Assert.assertNotEquals(key, cache.keyOf(USERS_SQL, null, plan));
+
+        // Not checked yet counts as having them
+        cache.sideEffects = null;
+        key = cache.keyOf(USERS_SQL, null, plan);
+        cache.invalidate("posts");
+        Assert.assertNotEquals(key, cache.keyOf(USERS_SQL, null, plan));
+    }
+
+    @Test
+    public void testInvalidateStatement() {
+        ResultCache cache = newCache(false);
+        ResultCache.Plan plan = ResultCache.createPlan(USERS_SQL, TABLES);
+        ResultCache.Key key = cache.keyOf(USERS_SQL, null, plan);
+        Assert.assertEquals("posts", cache.invalidateStatement("DELETE FROM [posts] WHERE [id]=1;"));
+        Assert.assertEquals(key, cache.keyOf(USERS_SQL, null, plan));
+
+        // A statement without a known target may change the schema
+        Assert.assertNull(cache.invalidateStatement("DROP TABLE [posts];"));
+        Assert.assertNotEquals(key, cache.keyOf(USERS_SQL, null, plan));
+        Assert.assertNull(cache.sideEffects);
+    }
+
+    @Test
+    public void testCreatePlanFindsTables() {
+        ResultCache.Plan plan = ResultCache.createPlan(
+                "SELECT * FROM [users] u JOIN [main].[posts] p ON p.[user]=u.[id]", TABLES);
+        Assert.assertArrayEquals(new String[] { "users", "posts" }, plan.tables);
+    }
+
+    @Test
+    public void testCreatePlanRefusesUncacheable() {
+        // Views, attached and schema tables, volatile functions and writes
+        Assert.assertNull(ResultCache.createPlan("SELECT * FROM [user_view]", TABLES).tables);
+        Assert.assertNull(ResultCache.createPlan("SELECT * FROM [aux].[users]", TABLES).tables);
+        Assert.assertNull(ResultCache.createPlan("SELECT * FROM [sqlite_master]", TABLES).tables);
+        Assert.assertNull(ResultCache.createPlan("SELECT [id], random() FROM [users]", TABLES).tables);
+        Assert.assertNull(ResultCache.createPlan("SELECT * FROM [users] WHERE [born]<datetime('now')", TABLES).tables);
+        Assert.assertNull(ResultCache.createPlan("SELECT * FROM json_each(?)", TABLES).tables);
+        Assert.assertNull(ResultCache.createPlan("DELETE FROM [users]", TABLES).tables);
+    }
+
+    @Test
+    public void testTooLargeBypasses() {
+        ResultCache cache = newCache(false);
+        ResultCache.Plan plan = ResultCache.createPlan(USERS_SQL, TABLES);
+        Assert.assertFalse(cache.bypasses(USERS_SQL, plan));
+
+        plan.tooLarge = true;
+        Assert.assertTrue(cache.bypasses(USERS_SQL, plan));
+    }
+
+    @Test
+    public void testOptOutBypasses() {
+        ResultCache cache = newCache(false).setCached(USERS_SQL + ";", false);
+        ResultCache.Plan plan = ResultCache.createPlan(USERS_SQL, TABLES);
+        Assert.assertTrue(cache.bypasses(USERS_SQL, plan));
+        Assert.assertTrue(cache.bypasses("SELECT * FROM [user_view]",
+                ResultCache.createPlan("SELECT * FROM [user_view]", TABLES)));
+    }
+
+    private static ResultCache newCache(boolean sideEffects) {
+        ResultCache cache = new ResultCache(null, 1024 * 1024);
+        cache.sideEffects = sideEffects;
+        return cache;
+    }
+}
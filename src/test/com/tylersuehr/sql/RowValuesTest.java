@@ -0,0 +1,75 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tylersuehr.sql;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Tyler Suehr
+ */
+public class RowValuesTest {
+    @Test
+    public void testPutData() {
+        RowValues values = new RowValues(new RowSchema("id", "name", "score"));
+        values.put("id", 12);
+        values.put("name", "Tyler");
+        values.put("score", 3.5);
+
+        Assert.assertEquals(RowValues.TYPE_LONG, values.getType(0));
+        Assert.assertEquals(12L, values.getLong(0));
+        Assert.assertEquals(RowValues.TYPE_TEXT, values.getType(1));
+        Assert.assertEquals("Tyler", values.getReference(1));
+        Assert.assertEquals(RowValues.TYPE_DOUBLE, values.getType(2));
+        Assert.assertEquals(3.5, values.getDouble(2), 0);
+    }
+
+    @Test
+    public void testClearData() {
+        RowValues values = new RowValues(new RowSchema("id", "name"));
+        values.put("id", 1L).put("name", "a");
+        values.clear();
+
+        Assert.assertEquals(RowValues.TYPE_NULL, values.getType(0));
+        Assert.assertEquals(RowValues.TYPE_NULL, values.getType(1));
+        Assert.assertNull(values.getReference(1));
+    }
+
+    @Test
+    public void testSharedSchema() {
+        RowSchema schema = new RowSchema("id", "name");
+        RowValues a = new RowValues(schema).put("id", 1);
+        RowValues b = new RowValues(schema).put("id", 2);
+
+        Assert.assertEquals(1L, a.getLong(0));
+        Assert.assertEquals(2L, b.getLong(0));
+        Assert.assertEquals(1, schema.getSlot("name"));
+        Assert.assertEquals(-1, schema.getSlot("missing"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownColumn() {
+        new RowValues(new RowSchema("id")).put("name", "a");
+    }
+}
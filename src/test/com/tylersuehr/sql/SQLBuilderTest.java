@@ -23,6 +23,7 @@
  */
 
 package com.tylersuehr.sql;
+import java.util.Arrays;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -101,4 +102,149 @@ public class SQLBuilderTest {
 
         Assert.assertEquals(sql, expected);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testInsertTemplate() {
+        final ContentValues values = new ContentValues();
+        values.put("name", "Tyler");
+        values.put("username", "tyler123");
+        values.put("password", "tyler123");
+
+        final String table = "users";
+
+        SQLBuilder builder = new SQLBuilder();
+        String sql = builder.createInsertTemplate(table, values.getKeys());
+        String expected = "INSERT INTO [users] ([name],[username],[password]) VALUES (?,?,?);";
+
+        Assert.assertEquals(sql, expected);
+    }
+
+    @Test
+    public void testUpdateTemplate() {
+        final ContentValues values = new ContentValues();
+        values.put("name", "Tyler");
+        values.put("username", "tyler123");
+
+        final String table = "users";
+        final String where = "[id]=3";
+
+        SQLBuilder builder = new SQLBuilder();
+        String sql = builder.createUpdateTemplate(table, values.getKeys(), where);
+        String expected = "UPDATE [users] SET [name]=?,[username]=? WHERE [id]=3;";
+
+        Assert.assertEquals(sql, expected);
+    }
+
+    @Test
+    public void testCachedQueryIsIdentical() {
+        SQLBuilder.clearTemplates();
+        final String[] projection = new String[] { "name", "username" };
+
+        String first = SQLBuilder.createQuery("users", projection, "[id]=?", "[name] DESC", "10");
+        String second = SQLBuilder.createQuery("users", projection, "[id]=?", "[name] DESC", "10");
+
+        Assert.assertEquals("SELECT ([name],[username]) FROM [users] WHERE [id]=? ORDER BY [name] DESC LIMIT 10;", first);
+        Assert.assertSame(first, second);
+        Assert.assertEquals("SELECT * FROM [users] WHERE [id]=?;", SQLBuilder.createQuery("users", "[id]=?", null, null));
+    }
+
+    @Test
+    public void testCachedQueryKeepsOwnColumns() {
+        SQLBuilder.clearTemplates();
+        final String[] projection = new String[] { "name", "username" };
+        String first = SQLBuilder.createQuery("users", projection, null, null, null);
+
+        // Reusing the caller's array must not change the cached shape
+        projection[1] = "email";
+        String second = SQLBuilder.createQuery("users", projection, null, null, null);
+        Assert.assertEquals("SELECT ([name],[email]) FROM [users];", second);
+        Assert.assertSame(first, SQLBuilder.createQuery("users", new String[] { "name", "username" }, null, null, null));
+        Assert.assertNotEquals(first,
+                SQLBuilder.createQuery("users", new String[] { "name", "username", "email" }, null, null, null));
+    }
+
+    @Test
+    public void testCachedInsertIsIdentical() {
+        SQLBuilder.clearTemplates();
+        final ContentValues values = new ContentValues();
+        values.put("name", "Tyler");
+        values.put("username", "tyler123");
+
+        String first = SQLBuilder.createInsertTemplate("users", values.getKeys());
+        String second = SQLBuilder.createInsertTemplate("users", values.getKeys());
+
+        Assert.assertEquals("INSERT INTO [users] ([name],[username]) VALUES (?,?);", first);
+        Assert.assertSame(first, second);
+    }
+
+    @Test
+    public void testCachedUpdateAndDeleteAreIdentical() {
+        SQLBuilder.clearTemplates();
+        final ContentValues values = new ContentValues();
+        values.put("name", "Tyler");
+
+        Assert.assertEquals("UPDATE [users] SET [name]=? WHERE [id]=?;",
+                SQLBuilder.createUpdateTemplate("users", values.getKeys(), "[id]=?"));
+        Assert.assertEquals("DELETE FROM [users] WHERE [id]=?;", SQLBuilder.createDelete("users", "[id]=?"));
+        Assert.assertEquals("DELETE FROM [users];", SQLBuilder.createDelete("users", null));
+    }
+
+    @Test
+    public void testCacheSeparatesShapes() {
+        SQLBuilder.clearTemplates();
+
+        String ab = SQLBuilder.createInsertTemplate("users", Arrays.asList("a", "b"));
+        String ba = SQLBuilder.createInsertTemplate("users", Arrays.asList("b", "a"));
+        String abc = SQLBuilder.createInsertTemplate("users", Arrays.asList("a", "b", "c"));
+        String other = SQLBuilder.createInsertTemplate("others", Arrays.asList("a", "b"));
+
+        Assert.assertEquals("INSERT INTO [users] ([a],[b]) VALUES (?,?);", ab);
+        Assert.assertEquals("INSERT INTO [users] ([b],[a]) VALUES (?,?);", ba);
+        Assert.assertEquals("INSERT INTO [users] ([a],[b],[c]) VALUES (?,?,?);", abc);
+        Assert.assertEquals("INSERT INTO [others] ([a],[b]) VALUES (?,?);", other);
+        Assert.assertSame(ab, SQLBuilder.createInsertTemplate("users", Arrays.asList("a", "b")));
+    }
+
+    @Test
+    public void testMultiInsertTemplate() {
+        String sql = SQLBuilder.buildInsert("users", Arrays.asList("name", "age"), 3, null, null);
+        String expected = "INSERT INTO [users] ([name],[age]) VALUES (?,?),(?,?),(?,?);";
+
+        Assert.assertEquals(expected, sql);
+        Assert.assertEquals("INSERT INTO [users] ([name],[age]) VALUES (?,?);",
+                SQLBuilder.buildInsert("users", Arrays.asList("name", "age"), 1, null, null));
+    }
+
+    @Test
+    public void testConflictInsertTemplate() {
+        String sql = SQLBuilder.createInsertTemplate("users", Arrays.asList("id", "name"),
+                SQLiteDatabase.ConflictAlgorithm.REPLACE);
+        String expected = "INSERT OR REPLACE INTO [users] ([id],[name]) VALUES (?,?);";
+
+        Assert.assertEquals(expected, sql);
+        Assert.assertEquals("INSERT INTO [users] ([id],[name]) VALUES (?,?);",
+                SQLBuilder.createInsertTemplate("users", Arrays.asList("id", "name")));
+    }
+
+    @Test
+    public void testUpsertTemplate() {
+        String sql = SQLBuilder.createUpsertTemplate("users", Arrays.asList("id", "name", "age"), new String[] { "id" });
+        String expected = "INSERT INTO [users] ([id],[name],[age]) VALUES (?,?,?)"
+                + " ON CONFLICT([id]) DO UPDATE SET [name]=excluded.[name],[age]=excluded.[age];";
+
+        Assert.assertEquals(expected, sql);
+        Assert.assertEquals("INSERT INTO [users] ([id]) VALUES (?) ON CONFLICT([id]) DO NOTHING;",
+                SQLBuilder.createUpsertTemplate("users", Arrays.asList("id"), new String[] { "id" }));
+    }
+
+    @Test
+    public void testUpsertUpdateTemplate() {
+        String sql = SQLBuilder.createUpsertUpdateTemplate("users", Arrays.asList("id", "name", "age"),
+                new String[] { "id" });
+        Assert.assertEquals("UPDATE [users] SET [name]=?,[age]=? WHERE [id]=?;", sql);
+
+        sql = SQLBuilder.createUpsertUpdateTemplate("users", Arrays.asList("a", "b", "c"), new String[] { "a", "b" });
+        Assert.assertEquals("UPDATE [users] SET [c]=? WHERE [a]=? AND [b]=?;", sql);
+        Assert.assertNull(SQLBuilder.createUpsertUpdateTemplate("users", Arrays.asList("id"), new String[] { "id" }));
+    }
+}
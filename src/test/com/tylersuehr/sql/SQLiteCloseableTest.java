@@ -0,0 +1,143 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.tylersuehr.sql;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Tyler Suehr
+ */
+public class SQLiteCloseableTest {
+    @Test
+    public void testCloseWithoutLeases() {
+        Counted counted = new Counted();
+        counted.acquireReference();
+        counted.releaseReference();
+
+        Assert.assertTrue(counted.close(1, TimeUnit.SECONDS));
+        Assert.assertEquals(1, counted.released.get());
+        Assert.assertFalse(counted.hasReference());
+
+        // Closing again does nothing
+        counted.close();
+        Assert.assertEquals(1, counted.released.get());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRefusesLeasesOnceClosed() {
+        Counted counted = new Counted();
+        counted.close();
+        counted.acquireReference();
+    }
+
+    @Test
+    public void testCloseWaitsForLeases() throws InterruptedException {
+        Counted counted = new Counted();
+        CountDownLatch acquired = new CountDownLatch(1);
+        AtomicBoolean finished = new AtomicBoolean();
+        Thread worker = new Thread(() -> {
+            counted.acquireReference();
+            acquired.countDown();
+            sleep(200);
+            finished.set(true);
+            counted.releaseReference();
+        });
+        worker.start();
+        acquired.await();
+
+        Assert.assertTrue(counted.close(5, TimeUnit.SECONDS));
+        Assert.assertTrue(finished.get());
+        Assert.assertEquals(1, counted.released.get());
+        worker.join();
+    }
+
+    @Test
+    public void testLastReleaseFinishesTimedOutClose() {
+        Counted counted = new Counted();
+        counted.acquireReference();
+        counted.acquireNestedReference();
+
+        Assert.assertFalse(counted.close(10, TimeUnit.MILLISECONDS));
+        counted.releaseReference();
+        Assert.assertEquals(0, counted.released.get());
+
+        // Released on another cell than it was acquired on
+        Thread other = new Thread(counted::releaseReference);
+        other.start();
+        join(other);
+        Assert.assertEquals(1, counted.released.get());
+    }
+
+    @Test
+    public void testConcurrentLeases() throws InterruptedException {
+        Counted counted = new Counted();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 100000; j++) {
+                    counted.acquireReference();
+                    counted.releaseReference();
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertTrue(counted.close(1, TimeUnit.SECONDS));
+        Assert.assertEquals(1, counted.released.get());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void join(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Counted extends SQLiteCloseable {
+        final AtomicInteger released = new AtomicInteger();
+
+        @Override
+        protected void onAllReferencesReleased() {
+            this.released.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tylersuehr.sql;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Tyler Suehr
+ */
+public class SQLitePragmasTest {
+    @Test
+    public void testDefaultsAreEmpty() {
+        SQLitePragmas pragmas = new SQLitePragmas();
+        Assert.assertEquals(Collections.emptyList(), pragmas.toStatements(true));
+    }
+
+    @Test
+    public void testWriterStatements() {
+        SQLitePragmas pragmas = new SQLitePragmas()
+                .setForeignKeys(true)
+                .setJournalMode(SQLitePragmas.JournalMode.WAL)
+                .setPageSize(8192)
+                .setSynchronous(SQLitePragmas.Synchronous.NORMAL);
+
+        Assert.assertEquals(Arrays.asList(
+                "PRAGMA page_size=8192",
+                "PRAGMA journal_mode=WAL",
+                "PRAGMA synchronous=NORMAL",
+                "PRAGMA foreign_keys=ON"), pragmas.toStatements(true));
+    }
+
+    @Test
+    public void testReaderSkipsFileSettings() {
+        SQLitePragmas pragmas = new SQLitePragmas()
+                .setJournalMode(SQLitePragmas.JournalMode.WAL)
+                .setPageSize(8192)
+                .setBusyTimeout(250);
+
+        Assert.assertEquals(Collections.singletonList("PRAGMA busy_timeout=250"), pragmas.toStatements(false));
+    }
+
+    @Test
+    public void testCopyIsIndependent() {
+        SQLitePragmas original = SQLitePragmas.durable();
+        SQLitePragmas copy = new SQLitePragmas(original).setJournalMode(SQLitePragmas.JournalMode.DELETE);
+
+        Assert.assertEquals(SQLitePragmas.JournalMode.WAL, original.getJournalMode());
+        Assert.assertEquals(SQLitePragmas.JournalMode.DELETE, copy.getJournalMode());
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.tylersuehr.sql;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs against a database in a temporary file, so it's skipped without the SQLite JDBC
+ * driver.
+ *
+ * @author Tyler Suehr
+ */
+public class SlowQueryLogTest {
+    private TempDatabase temp;
+
+
+    @Before
+    public void setUp() throws IOException {
+        this.temp = new TempDatabase(1);
+        this.temp.db.execSql("CREATE TABLE [users] ([id] INTEGER PRIMARY KEY, [name] TEXT);");
+    }
+
+    @After
+    public void tearDown() {
+        if (temp != null) {
+            this.temp.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    @SuppressWarnings("deprecation")
+    public void testLogsPlanWhileOnlyReaderIsHeld() throws Exception {
+        SlowQueryLog log = temp.db.enableSlowQueryLog(0, TimeUnit.NANOSECONDS);
+
+        // The deprecated ResultSet holds the only reader until it's closed
+        try (ResultSet results = temp.db.rawQuery("SELECT * FROM [users] WHERE [name]=?;", new Object[] { "a" })) {
+            Assert.assertFalse(results.next());
+        }
+
+        List<SlowQueryLog.Entry> entries = log.getEntries();
+        while (entries.isEmpty()) {
+            Thread.sleep(10);
+            entries = log.getEntries();
+        }
+        Assert.assertEquals("SELECT * FROM [users] WHERE [name]=?;", entries.get(0).getSql());
+        Assert.assertNotNull(entries.get(0).getPlan());
+        Assert.assertTrue(entries.get(0).getPlan().contains("users"));
+    }
+}
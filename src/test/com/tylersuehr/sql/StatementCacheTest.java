@@ -0,0 +1,174 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.tylersuehr.sql;
+import org.junit.Assert;
+import org.junit.Test;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * @author Tyler Suehr
+ */
+public class StatementCacheTest {
+    private final Set<Object> closed = new HashSet<>();
+    /* Statements the fake driver closed underneath after a failure */
+    private final Set<Object> broken = new HashSet<>();
+
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        StatementCache cache = new StatementCache(fakeConnection(), 2);
+        PreparedStatement a = use(cache, "a");
+        use(cache, "b");
+        use(cache, "a");
+        use(cache, "c");
+
+        Assert.assertFalse(closed.contains(a));
+        Assert.assertEquals(1, closed.size());
+        Assert.assertEquals(1, cache.getStats().getEvictionCount());
+    }
+
+    @Test
+    public void testInUseStatementNotClosedUntilReleased() throws Exception {
+        StatementCache cache = new StatementCache(fakeConnection(), 1);
+        PreparedStatement a = cache.acquire("a");
+        use(cache, "b");
+
+        // Evicted by "b", but still held
+        Assert.assertFalse(closed.contains(a));
+        cache.release(a);
+        Assert.assertTrue(closed.contains(a));
+
+        // Evicted statements aren't handed out again
+        PreparedStatement again = use(cache, "a");
+        Assert.assertNotSame(a, again);
+    }
+
+    @Test
+    public void testSharedStatementClosedAfterLastRelease() throws Exception {
+        StatementCache cache = new StatementCache(fakeConnection(), 1);
+        PreparedStatement a = cache.acquire("a");
+        Assert.assertSame(a, cache.acquire("a"));
+        use(cache, "b");
+
+        cache.release(a);
+        Assert.assertFalse(closed.contains(a));
+        cache.release(a);
+        Assert.assertTrue(closed.contains(a));
+    }
+
+    @Test
+    public void testDiscardedStatementRecompiled() throws Exception {
+        StatementCache cache = new StatementCache(fakeConnection(), 2);
+        PreparedStatement a = cache.acquire("a");
+        cache.discard(a);
+        Assert.assertFalse(closed.contains(a));
+        cache.release(a);
+
+        Assert.assertTrue(closed.contains(a));
+        Assert.assertNotSame(a, use(cache, "a"));
+        Assert.assertEquals(0, cache.getStats().getEvictionCount());
+    }
+
+    @Test
+    public void testFailedStatementKeptIfUsable() throws Exception {
+        StatementCache cache = new StatementCache(fakeConnection(), 2);
+        PreparedStatement a = cache.acquire("a");
+        cache.failed(a);
+        cache.release(a);
+
+        Assert.assertFalse(closed.contains(a));
+        Assert.assertSame(a, use(cache, "a"));
+    }
+
+    @Test
+    public void testFailedStatementDiscardedIfClosedByDriver() throws Exception {
+        StatementCache cache = new StatementCache(fakeConnection(), 2);
+        PreparedStatement a = cache.acquire("a");
+        this.broken.add(a);
+        cache.failed(a);
+        cache.release(a);
+
+        Assert.assertTrue(closed.contains(a));
+        Assert.assertNotSame(a, use(cache, "a"));
+    }
+
+    @Test
+    public void testWriteAfterFailedWriteOfSameShape() throws Exception {
+        try (TempDatabase temp = new TempDatabase(0)) {
+            temp.db.execSql("CREATE TABLE [items] ([id] INTEGER PRIMARY KEY, [name] TEXT NOT NULL);");
+            temp.db.insert("items", new ContentValues().put("id", 1).put("name", "a"));
+
+            // A constraint violation, then a data type mismatch, which every driver closes on
+            temp.db.insert("items", new ContentValues().put("id", 1).put("name", "b"));
+            temp.db.insert("items", new ContentValues().put("id", "x").put("name", "c"));
+            temp.db.insert("items", new ContentValues().put("id", 2).put("name", "d"));
+
+            try (Cursor c = temp.db.rawQueryCursor("SELECT COUNT(*) FROM [items];", null)) {
+                Assert.assertTrue(c.moveToNext());
+                Assert.assertEquals(2, c.getInt(0));
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReleaseWithoutAcquire() throws Exception {
+        StatementCache cache = new StatementCache(fakeConnection(), 1);
+        PreparedStatement a = use(cache, "a");
+        cache.release(a);
+    }
+
+    private static PreparedStatement use(StatementCache cache, String sql) throws Exception {
+        PreparedStatement stmt = cache.acquire(sql);
+        cache.release(stmt);
+        return stmt;
+    }
+
+    private Connection fakeConnection() {
+        return (Connection)Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { Connection.class }, (conn, method, args) -> {
+            if (!method.getName().equals("prepareStatement")) {
+                throw new UnsupportedOperationException(method.getName());
+            }
+            return Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { PreparedStatement.class }, (stmt, m, a) -> {
+                switch (m.getName()) {
+                    case "close": closed.add(stmt); return null;
+                    case "clearParameters":
+                        if (broken.contains(stmt)) {
+                            throw new SQLException("statement is not executing");
+                        }
+                        return null;
+                    case "hashCode": return System.identityHashCode(stmt);
+                    case "equals": return stmt == a[0];
+                    default: throw new UnsupportedOperationException(m.getName());
+                }
+            });
+        });
+    }
+}
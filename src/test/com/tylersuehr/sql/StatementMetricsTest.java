@@ -0,0 +1,87 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.tylersuehr.sql;
+import java.sql.SQLException;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Tyler Suehr
+ */
+public class StatementMetricsTest {
+    @Test
+    public void testHistogramBuckets() {
+        for (long value = 0; value < 100000; value += 7) {
+            final int index = LatencyHistogram.indexOf(value);
+            final long upper = LatencyHistogram.upperBoundOf(index);
+            Assert.assertTrue(value <= upper);
+            Assert.assertTrue(upper - value <= value / 8 + 1);
+        }
+        Assert.assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBoundOf(LatencyHistogram.indexOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        Assert.assertEquals(1000000, histogram.getMax());
+        Assert.assertEquals(500000, histogram.getPercentile(50), 500000 / 8);
+        Assert.assertEquals(990000, histogram.getPercentile(99), 990000 / 8);
+        Assert.assertEquals(1000000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void testRecordsPerShape() {
+        StatementMetrics metrics = new StatementMetrics();
+        metrics.onStatement("SELECT * FROM [users];", 2000, 10, 0);
+        metrics.onStatement("SELECT * FROM [users];", 4000, 5, 0);
+        metrics.onStatement("INSERT INTO [users]([id]) VALUES (?);", 1000, 0, 1);
+        metrics.onError("INSERT INTO [users]([id]) VALUES (?);", new SQLException("constraint"));
+        metrics.onCommit(3000);
+
+        List<StatementStats> stats = metrics.getStats();
+        Assert.assertEquals(2, stats.size());
+        Assert.assertEquals("SELECT * FROM [users];", stats.get(0).getSql());
+        Assert.assertEquals(2, stats.get(0).getCount());
+        Assert.assertEquals(15, stats.get(0).getRowsRead());
+        Assert.assertEquals(3000, stats.get(0).getMeanNanos());
+        Assert.assertEquals(4000, stats.get(0).getMaxNanos());
+
+        StatementStats insert = metrics.getStats("INSERT INTO [users]([id]) VALUES (?);");
+        Assert.assertEquals(1, insert.getCount());
+        Assert.assertEquals(1, insert.getErrorCount());
+        Assert.assertEquals(1, insert.getRowsWritten());
+        Assert.assertEquals(1, metrics.getCommitStats().getCount());
+
+        metrics.reset();
+        Assert.assertTrue(metrics.getStats().isEmpty());
+        Assert.assertEquals(0, metrics.getCommitStats().getCount());
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.tylersuehr.sql;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Tyler Suehr
+ */
+public class StatementShapeTest {
+    @Test
+    public void testWhereAndOrderColumns() {
+        StatementShape shape = StatementShape.parse(
+                "SELECT * FROM [users] WHERE [age]>=? AND [userId]=? AND \"name\" LIKE ? ORDER BY [last] DESC, first LIMIT 10;");
+
+        Assert.assertEquals(Arrays.asList("userId", "age", "name", "last", "first"), shape.getIndexColumns());
+        Assert.assertFalse(shape.hasLiterals);
+    }
+
+    @Test
+    public void testQualifiedColumns() {
+        StatementShape shape = StatementShape.parse(
+                "SELECT * FROM users u JOIN posts p ON p.userId=u.id WHERE u.name IN (?, ?) AND p.deleted IS NULL");
+
+        Assert.assertEquals(Arrays.asList("u.name", "p.deleted"), shape.getIndexColumns());
+    }
+
+    @Test
+    public void testOrderByBracketedDirection() {
+        StatementShape shape = StatementShape.parse("SELECT * FROM [posts] ORDER BY [timestamp ASC]");
+        Assert.assertEquals(Arrays.asList("timestamp"), shape.getIndexColumns());
+    }
+
+    @Test
+    public void testLiterals() {
+        StatementShape shape = StatementShape.parse("SELECT * FROM [users] WHERE [userId]='it''s' OR [age]<12");
+
+        Assert.assertTrue(shape.hasLiterals);
+        Assert.assertEquals(Arrays.asList("userId", "age"), shape.getIndexColumns());
+    }
+
+    @Test
+    public void testUpdateAndDelete() {
+        Assert.assertEquals(Arrays.asList("userId"),
+                StatementShape.parse("UPDATE [users] SET [name]=? WHERE [userId]=?;").getIndexColumns());
+        Assert.assertEquals(Arrays.asList("created"),
+                StatementShape.parse("DELETE FROM [users] WHERE [created]<?;").getIndexColumns());
+    }
+
+    @Test
+    public void testTables() {
+        StatementShape shape = StatementShape.parse("SELECT * FROM [users] u, main.posts p LEFT JOIN \"tags\" t ON t.id=p.tagId "
+                + "WHERE u.id IN (SELECT userId FROM follows WHERE x=?) ORDER BY u.name");
+
+        Assert.assertEquals(Arrays.asList("users", "main.posts", "tags", "follows"), Arrays.asList(shape.tables.toArray()));
+        Assert.assertTrue(shape.isSelect);
+        Assert.assertFalse(shape.isVolatile);
+        Assert.assertFalse(shape.hasTableFunction);
+        Assert.assertNull(shape.writeTable);
+    }
+
+    @Test
+    public void testVolatileAndTableFunctions() {
+        Assert.assertTrue(StatementShape.parse("SELECT * FROM [users] ORDER BY random()").isVolatile);
+        Assert.assertTrue(StatementShape.parse("SELECT datetime('now')").isVolatile);
+        Assert.assertTrue(StatementShape.parse("SELECT value FROM json_each(?)").hasTableFunction);
+    }
+
+    @Test
+    public void testWriteTable() {
+        Assert.assertEquals("users", StatementShape.parse("INSERT OR REPLACE INTO [users]([id]) VALUES (?);").writeTable);
+        Assert.assertEquals("users", StatementShape.parse("UPDATE OR IGNORE users SET [name]=?").writeTable);
+        Assert.assertEquals("main.users", StatementShape.parse("DELETE FROM main.users WHERE id=?").writeTable);
+        Assert.assertNull(StatementShape.parse("CREATE TABLE [users]([id] TEXT);").writeTable);
+        Assert.assertFalse(StatementShape.parse("WITH t AS (SELECT 1) SELECT * FROM t").isSelect);
+    }
+}
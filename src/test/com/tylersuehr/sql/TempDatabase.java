@@ -0,0 +1,58 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.tylersuehr.sql;
+import org.junit.Assume;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Opens a database in a temporary file, so it can have pooled readers; skips the test
+ * without the SQLite JDBC driver. Closing it deletes the file.
+ *
+ * @author Tyler Suehr
+ */
+final class TempDatabase implements Closeable {
+    final SQLiteDatabase db;
+    private final File file;
+
+
+    TempDatabase(int readerConnections) throws IOException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException ex) {
+            Assume.assumeNoException(ex);
+        }
+        this.file = File.createTempFile("sqlite-test", ".db");
+        this.db = new SQLiteDatabase(file.getPath(), readerConnections, null);
+    }
+
+    @Override
+    public void close() {
+        this.db.close();
+        for (String suffix : new String[] { "", "-wal", "-shm", "-journal" }) {
+            new File(file.getPath() + suffix).delete();
+        }
+    }
+}
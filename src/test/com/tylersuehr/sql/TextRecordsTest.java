@@ -0,0 +1,83 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tylersuehr.sql;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Tyler Suehr
+ */
+public class TextRecordsTest {
+    @Test
+    public void testParseCsv() {
+        List<String[]> records = TextRecords.parseCsv("1,Tyler,\"Suehr, Jr.\"\r\n2,,\"\"\n\n3,\"say \"\"hi\"\"\",x", ',');
+
+        Assert.assertEquals(3, records.size());
+        Assert.assertArrayEquals(new String[] { "1", "Tyler", "Suehr, Jr." }, records.get(0));
+        Assert.assertArrayEquals(new String[] { "2", null, "" }, records.get(1));
+        Assert.assertArrayEquals(new String[] { "3", "say \"hi\"", "x" }, records.get(2));
+    }
+
+    @Test
+    public void testParseCsvQuotedLineBreak() {
+        List<String[]> records = TextRecords.parseCsv("1,\"line one\nline two\"\n", ',');
+
+        Assert.assertEquals(1, records.size());
+        Assert.assertEquals("line one\nline two", records.get(0)[1]);
+    }
+
+    @Test
+    public void testFindSplit() {
+        byte[] csv = "a,b\n1,\"x\ny\"\n2,\"open\n".getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals("a,b\n1,\"x\ny\"\n".length(), TextRecords.findSplit(csv, csv.length, true));
+
+        byte[] json = "{\"a\":1}\n{\"a\":".getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals("{\"a\":1}\n".length(), TextRecords.findSplit(json, json.length, false));
+    }
+
+    @Test
+    public void testParseNdjson() {
+        List<ContentValues> rows = new ArrayList<>();
+        int rejected = TextRecords.parseNdjson(
+                "{\"id\": 12, \"name\": \"Ty\\\"ler\", \"score\": 3.5, \"admin\": true, \"tags\": [1, {\"a\": \"]\"}], \"note\": null}\n"
+                + "not json\n"
+                + "{}\n", rows);
+
+        Assert.assertEquals(1, rejected);
+        Assert.assertEquals(2, rows.size());
+        ContentValues values = rows.get(0);
+        Assert.assertEquals(12L, values.get("id"));
+        Assert.assertEquals("Ty\"ler", values.get("name"));
+        Assert.assertEquals(3.5, values.get("score"));
+        Assert.assertEquals(true, values.get("admin"));
+        Assert.assertEquals("[1, {\"a\": \"]\"}]", values.get("tags"));
+        Assert.assertNull(values.get("note"));
+        Assert.assertEquals(6, values.size());
+        Assert.assertEquals(0, rows.get(1).size());
+    }
+}
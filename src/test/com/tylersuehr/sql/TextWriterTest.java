@@ -0,0 +1,103 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.tylersuehr.sql;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Tyler Suehr
+ */
+public class TextWriterTest {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final TextWriter writer = new TextWriter(Channels.newChannel(bytes), 64);
+
+
+    @Test
+    public void testWriteCsv() throws IOException {
+        writer.writeCsv("plain", ',');
+        writer.writeByte(',');
+        writer.writeCsv("Suehr, Jr.", ',');
+        writer.writeByte(',');
+        writer.writeCsv("say \"hi\"", ',');
+        writer.writeByte(',');
+        writer.writeCsv("", ',');
+        Assert.assertEquals("plain,\"Suehr, Jr.\",\"say \"\"hi\"\"\",\"\"", text());
+    }
+
+    @Test
+    public void testWriteJson() throws IOException {
+        writer.writeJson("a\"b\\c\nd\u0001");
+        Assert.assertEquals("\"a\\\"b\\\\c\\nd\\u0001\"", text());
+    }
+
+    @Test
+    public void testWriteNumbers() throws IOException {
+        writer.writeLong(0);
+        writer.writeByte(' ');
+        writer.writeLong(-1234567890123L);
+        writer.writeByte(' ');
+        writer.writeLong(Long.MIN_VALUE);
+        writer.writeByte(' ');
+        writer.writeDouble(2);
+        writer.writeByte(' ');
+        writer.writeDouble(0.25);
+        Assert.assertEquals("0 -1234567890123 " + Long.MIN_VALUE + " 2.0 0.25", text());
+    }
+
+    @Test
+    public void testWriteUtf8() throws IOException {
+        String value = "caf\u00e9 \u20ac \ud83d\ude00";
+        for (int i = 0; i < 20; i++) {
+            writer.writeUtf8(value);
+        }
+        writer.flush();
+        Assert.assertArrayEquals(repeat(value, 20).getBytes(StandardCharsets.UTF_8), bytes.toByteArray());
+        Assert.assertEquals(bytes.size(), writer.getBytesWritten());
+    }
+
+    @Test
+    public void testWriteBase64() throws IOException {
+        writer.writeBase64(new byte[] { 'M', 'a', 'n', 'M', 'a' });
+        Assert.assertEquals("TWFuTWE=", text());
+    }
+
+    private String text() throws IOException {
+        writer.flush();
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String repeat(String value, int times) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+}
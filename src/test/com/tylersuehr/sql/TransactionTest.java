@@ -0,0 +1,162 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.tylersuehr.sql;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author Tyler Suehr
+ */
+public class TransactionTest {
+    private TempDatabase temp;
+    private SQLiteDatabase db;
+
+
+    @Before
+    public void setUp() throws IOException {
+        this.temp = new TempDatabase(0);
+        this.db = temp.db;
+        this.db.execSql("CREATE TABLE [items] ([id] INTEGER PRIMARY KEY, [name] TEXT NOT NULL);");
+    }
+
+    @After
+    public void tearDown() {
+        if (temp != null) {
+            this.temp.close();
+        }
+    }
+
+    @Test
+    public void testInnerRollbackKeepsOuterWork() throws InterruptedException {
+        this.db.beginTransaction();
+        try {
+            insert(1);
+            this.db.beginTransaction();
+            try {
+                insert(2);
+            } finally {
+                this.db.endTransaction();
+            }
+            insert(3);
+            this.db.setTransactionSuccessful();
+        } finally {
+            this.db.endTransaction();
+        }
+        Assert.assertEquals(Arrays.asList(1, 3), ids());
+        assertWriteLockReleased();
+    }
+
+    @Test
+    public void testOuterRollbackDiscardsInnerCommit() throws InterruptedException {
+        this.db.beginTransaction();
+        try {
+            this.db.beginTransaction();
+            try {
+                insert(1);
+                this.db.setTransactionSuccessful();
+            } finally {
+                this.db.endTransaction();
+            }
+        } finally {
+            this.db.endTransaction();
+        }
+        Assert.assertTrue(ids().isEmpty());
+        assertWriteLockReleased();
+    }
+
+    @Test
+    public void testExceptionRollsBackTransaction() throws InterruptedException {
+        try {
+            this.db.inTransaction(tx -> {
+                insert(1);
+                throw new UnsupportedOperationException();
+            });
+            Assert.fail("Transaction should have thrown!");
+        } catch (UnsupportedOperationException expected) {
+        }
+        Assert.assertTrue(ids().isEmpty());
+        assertWriteLockReleased();
+    }
+
+    @Test
+    public void testExceptionInNestedTransactionKeepsOuterWork() throws InterruptedException {
+        this.db.inTransaction(tx -> {
+            insert(1);
+            try {
+                tx.inTransaction(inner -> {
+                    insert(2);
+                    throw new UnsupportedOperationException();
+                });
+            } catch (UnsupportedOperationException expected) {
+            }
+        });
+        Assert.assertEquals(Arrays.asList(1), ids());
+        assertWriteLockReleased();
+    }
+
+    @Test
+    public void testFailedStatementRollsBackTransaction() throws InterruptedException {
+        try {
+            this.db.inTransaction(tx -> {
+                insert(1);
+                tx.insert("items", new ContentValues().put("id", 2));
+            });
+            Assert.fail("Transaction should have failed!");
+        } catch (IllegalStateException expected) {
+        }
+        Assert.assertTrue(ids().isEmpty());
+        assertWriteLockReleased();
+    }
+
+    private void insert(int id) {
+        this.db.insert("items", new ContentValues().put("id", id).put("name", "item" + id));
+    }
+
+    private List<Integer> ids() {
+        final List<Integer> ids = new ArrayList<>();
+        try (Cursor c = db.rawQueryCursor("SELECT [id] FROM [items] ORDER BY [id];", null)) {
+            while (c.moveToNext()) {
+                ids.add(c.getInt(0));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Asserts no transaction is left open, so another thread can take the write lock.
+     */
+    private void assertWriteLockReleased() throws InterruptedException {
+        Assert.assertFalse(db.inTransaction());
+        final Thread other = new Thread(() -> db.inTransaction(tx -> {}));
+        other.start();
+        other.join(5000);
+        Assert.assertFalse(other.isAlive());
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) Tyler Suehr 2019.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package repositories;
+import com.tylersuehr.sql.ContentValues;
+import com.tylersuehr.sql.Cursor;
+import com.tylersuehr.sql.SQLiteDatabase;
+import com.tylersuehr.sql.SQLiteOpenHelper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The buffers here never flush on their own unless a test sets a threshold it reaches.
+ *
+ * @author Tyler Suehr
+ */
+public class WriteBehindBufferTest {
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private final List<List<WriteBehindBuffer.Write<String, String>>> flushed = new ArrayList<>();
+    private WriteBehindBuffer<String, String> buffer;
+    private TestClient client;
+
+
+    @After
+    public void tearDown() {
+        if (buffer != null) {
+            this.buffer.close();
+        }
+        if (client != null) {
+            this.client.close();
+            this.client.file.delete();
+        }
+    }
+
+    @Test
+    public void testSaveThenUpdateSavesLatest() {
+        this.buffer = recording();
+        this.buffer.save("a", "1");
+        this.buffer.update("a", "2");
+        assertPending("a", WriteBehindBuffer.Op.SAVE, "2");
+    }
+
+    @Test
+    public void testUpdateThenRemoveRemoves() {
+        this.buffer = recording();
+        this.buffer.update("a", "1");
+        this.buffer.remove("a", "1");
+        assertPending("a", WriteBehindBuffer.Op.REMOVE, "1");
+    }
+
+    @Test
+    public void testSaveThenRemoveWritesNothing() {
+        this.buffer = recording();
+        this.buffer.save("a", "1");
+        this.buffer.remove("a", "1");
+        Assert.assertNull(buffer.getPending("a"));
+
+        this.buffer.flush();
+        Assert.assertTrue(flushed.isEmpty());
+        Assert.assertEquals(2, buffer.getWriteCount());
+    }
+
+    @Test
+    public void testRemoveThenSaveReplaces() {
+        this.buffer = recording();
+        this.buffer.remove("a", "1");
+        this.buffer.save("a", "2");
+        assertPending("a", WriteBehindBuffer.Op.REPLACE, "2");
+
+        // Replacing again stays a replacement
+        this.buffer.update("a", "3");
+        assertPending("a", WriteBehindBuffer.Op.REPLACE, "3");
+    }
+
+    @Test
+    public void testRemoveThenUpdateStaysRemoved() {
+        this.buffer = recording();
+        this.buffer.remove("a", "1");
+        this.buffer.update("a", "2");
+        assertPending("a", WriteBehindBuffer.Op.REMOVE, "1");
+    }
+
+    @Test
+    public void testFlushWritesOneCoalescedWritePerKey() {
+        this.buffer = recording();
+        this.buffer.save("a", "1");
+        this.buffer.save("b", "1");
+        this.buffer.update("a", "2");
+        this.buffer.flush();
+
+        Assert.assertEquals(1, flushed.size());
+        Assert.assertEquals(2, flushed.get(0).size());
+        Assert.assertEquals("a", flushed.get(0).get(0).getKey());
+        Assert.assertEquals("2", flushed.get(0).get(0).getValue());
+        Assert.assertEquals(3, buffer.getWriteCount());
+        Assert.assertEquals(2, buffer.getFlushedCount());
+        Assert.assertEquals(0, buffer.getPendingCount());
+    }
+
+    @Test
+    public void testFullBacklogBlocksNewKeys() throws InterruptedException {
+        final CountDownLatch flushing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        this.buffer = new WriteBehindBuffer<>(writes -> {
+            flushing.countDown();
+            await(release);
+            this.flushed.add(writes);
+        }, 1, HOUR_MILLIS, 1);
+
+        // The background flush of "a" holds up, so "b" fills the backlog
+        this.buffer.save("a", "1");
+        Assert.assertTrue(flushing.await(5, TimeUnit.SECONDS));
+        this.buffer.save("b", "1");
+
+        final Thread writer = new Thread(() -> buffer.save("c", "1"));
+        writer.start();
+        writer.join(100);
+        Assert.assertTrue(writer.isAlive());
+
+        // Writing a key already pending never blocks
+        this.buffer.update("b", "2");
+
+        release.countDown();
+        writer.join(5000);
+        Assert.assertFalse(writer.isAlive());
+
+        this.buffer.close();
+        final List<String> keys = new ArrayList<>();
+        for (List<WriteBehindBuffer.Write<String, String>> writes : flushed) {
+            for (WriteBehindBuffer.Write<String, String> write : writes) {
+                keys.add(write.getKey());
+            }
+        }
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), keys);
+    }
+
+    @Test
+    public void testFailedFlushIsPutBack() {
+        final AtomicBoolean failed = new AtomicBoolean();
+        this.buffer = new WriteBehindBuffer<>(writes -> {
+            if (failed.compareAndSet(false, true)) {
+                // Written again while the failing batch was being flushed
+                this.buffer.update("a", "2");
+                this.buffer.remove("b", "1");
+                throw new IllegalStateException("Transaction failed!");
+            }
+            this.flushed.add(writes);
+        }, 100, HOUR_MILLIS, 100);
+        this.buffer.save("a", "1");
+        this.buffer.save("b", "1");
+
+        try {
+            this.buffer.flush();
+            Assert.fail("Flush should have failed!");
+        } catch (IllegalStateException ex) {
+            Assert.assertEquals("Transaction failed!", ex.getCause().getMessage());
+        }
+        Assert.assertEquals(1, buffer.getFailedFlushCount());
+        assertPending("a", WriteBehindBuffer.Op.SAVE, "2");
+        Assert.assertNull(buffer.getPending("b"));
+
+        this.buffer.flush();
+        Assert.assertEquals(1, flushed.size());
+        Assert.assertEquals(1, flushed.get(0).size());
+        Assert.assertEquals("2", flushed.get(0).get(0).getValue());
+    }
+
+    @Test
+    public void testFailedBackgroundFlushBacksOff() throws InterruptedException {
+        final AtomicBoolean failing = new AtomicBoolean(true);
+        this.buffer = new WriteBehindBuffer<>(writes -> {
+            if (failing.get()) {
+                throw new IllegalStateException("Transaction failed!");
+            }
+            this.flushed.add(writes);
+        }, 1, 200, 100);
+
+        // The put back write still reaches the threshold, but isn't retried right away
+        this.buffer.save("a", "1");
+        Thread.sleep(500);
+        Assert.assertTrue(buffer.getFailedFlushCount() >= 1);
+        Assert.assertTrue(buffer.getFailedFlushCount() <= 3);
+        Assert.assertEquals(1, buffer.getPendingCount());
+
+        failing.set(false);
+        this.buffer.close();
+        Assert.assertEquals(1, flushed.size());
+    }
+
+    @Test
+    public void testCloseReportsFailedFlush() {
+        final AtomicBoolean failing = new AtomicBoolean(true);
+        this.buffer = new WriteBehindBuffer<>(writes -> {
+            if (failing.get()) {
+                throw new IllegalStateException("Transaction failed!");
+            }
+            this.flushed.add(writes);
+        }, 100, HOUR_MILLIS, 100);
+        this.buffer.save("a", "1");
+
+        try {
+            this.buffer.close();
+            Assert.fail("Close should have failed!");
+        } catch (IllegalStateException expected) {
+        }
+        Assert.assertEquals(1, buffer.getPendingCount());
+
+        // Closing again retries the writes left pending
+        failing.set(false);
+        this.buffer.close();
+        Assert.assertEquals(0, buffer.getPendingCount());
+        Assert.assertEquals(1, flushed.size());
+    }
+
+    @Test
+    public void testFailedStatementFailsFlush() throws IOException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException ex) {
+            Assume.assumeNoException(ex);
+        }
+        this.client = new TestClient();
+        final SQLiteDatabase db = client.getWritableInstance();
+        db.insert("items", new ContentValues().put("id", "a").put("name", "stored"));
+        this.buffer = new WriteBehindBuffer<>(writes -> db.inTransaction(tx -> {
+            for (WriteBehindBuffer.Write<String, String> write : writes) {
+                tx.insert("items", new ContentValues().put("id", write.getKey()).put("name", write.getValue()));
+            }
+        }), 100, HOUR_MILLIS, 100);
+
+        // Saving "a" again breaks its primary key, which must roll back "b" too
+        this.buffer.save("b", "1");
+        this.buffer.save("a", "1");
+        try {
+            this.buffer.flush();
+            Assert.fail("Flush should have failed!");
+        } catch (IllegalStateException expected) {
+        }
+        Assert.assertEquals(2, buffer.getPendingCount());
+        try (Cursor c = db.rawQueryCursor("SELECT COUNT(*) FROM [items];", null)) {
+            Assert.assertTrue(c.moveToNext());
+            Assert.assertEquals(1, c.getLong(0));
+        }
+
+        // Dropping the bad write lets the rest through
+        this.buffer.remove("a", "1");
+        this.buffer.flush();
+        Assert.assertEquals(0, buffer.getPendingCount());
+    }
+
+    private WriteBehindBuffer<String, String> recording() {
+        return new WriteBehindBuffer<>(flushed::add, 100, HOUR_MILLIS, 100);
+    }
+
+    private void assertPending(String key, WriteBehindBuffer.Op op, String value) {
+        final WriteBehindBuffer.Write<String, String> write = buffer.getPending(key);
+        Assert.assertNotNull(write);
+        Assert.assertEquals(op, write.getOp());
+        Assert.assertEquals(value, write.getValue());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Opens a database in a temporary file, with one table of items.
+     */
+    private static final class TestClient extends SQLiteOpenHelper {
+        /* Stores the temporary database file */
+        private final File file;
+
+
+        TestClient() throws IOException {
+            this(File.createTempFile("write-behind", ".db"));
+        }
+
+        private TestClient(File file) {
+            super(file.getPath(), 1);
+            this.file = file;
+            this.file.delete();
+        }
+
+        @Override
+        protected void onCreate(SQLiteDatabase db) {
+            db.execSql("CREATE TABLE [items] ([id] TEXT PRIMARY KEY, [name] TEXT NOT NULL);");
+        }
+
+        @Override
+        protected void onUpdate(SQLiteDatabase db, int oldV, int newV) {}
+    }
+}